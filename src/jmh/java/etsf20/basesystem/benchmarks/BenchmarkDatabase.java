@@ -0,0 +1,135 @@
+package etsf20.basesystem.benchmarks;
+
+import com.zaxxer.hikari.HikariDataSource;
+import etsf20.basesystem.Config;
+import etsf20.basesystem.Main;
+import etsf20.basesystem.domain.repositories.NoteSearchIndex;
+import etsf20.basesystem.persistance.Database;
+import etsf20.basesystem.persistance.StatementCache;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Database used by a benchmark, created with the same schema and indexes as the application.
+ *
+ * <p>{@value #MEMORY} keeps everything in memory, {@value #FILE} uses a database in a temporary directory which is
+ * removed when the benchmark is done.</p>
+ */
+final class BenchmarkDatabase implements AutoCloseable {
+    static final String MEMORY = "mem";
+    static final String FILE = "file";
+
+    /**
+     * Number of users notes are spread over, benchmarks read the notes of {@link #USER}
+     */
+    static final int USERS = 10;
+
+    /**
+     * User that owns 1/{@value #USERS} of all notes and is member of {@value #MEMBER_PROJECTS} projects
+     */
+    static final String USER = "user0";
+
+    static final int PROJECTS = 100;
+    static final int MEMBER_PROJECTS = 10;
+
+    private final HikariDataSource pool;
+    private final Path directory;
+
+    private BenchmarkDatabase(HikariDataSource pool, Path directory) {
+        this.pool = pool;
+        this.directory = directory;
+    }
+
+    /**
+     * Create an empty database with the application schema and {@value #USERS} users
+     * @param storage {@value #MEMORY} or {@value #FILE}
+     */
+    static BenchmarkDatabase create(String storage) throws IOException, SQLException {
+        Path directory = null;
+        String jdbcUrl;
+        switch (storage) {
+            case MEMORY -> jdbcUrl = "jdbc:h2:mem:bench-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+            case FILE -> {
+                directory = Files.createTempDirectory("basesystem-jmh");
+                jdbcUrl = "jdbc:h2:" + directory.resolve("data").toAbsolutePath();
+            }
+            default -> throw new IllegalArgumentException("unknown storage: " + storage);
+        }
+
+        Config config = Config.testConfiguration(jdbcUrl);
+        config.setSlowQueryThreshold(null);
+
+        BenchmarkDatabase database = new BenchmarkDatabase(Database.createPool(config), directory);
+        try(Connection conn = database.pool.getConnection()) {
+            Main.createSchemaIfNotExists(conn);
+            try(Statement stmt = conn.createStatement()) {
+                // the password hash is never checked, hashing it would only slow down the setup
+                stmt.executeUpdate("INSERT INTO users(username, displayName, hashedPassword, role) " +
+                                   "SELECT 'user' || (X - 1), 'User ' || (X - 1), 'not-a-hash', 'USER' " +
+                                   "FROM SYSTEM_RANGE(1, " + USERS + ")");
+            }
+            conn.commit();
+        }
+        return database;
+    }
+
+    /**
+     * Add notes spread evenly over all users, one second apart, and index them for search
+     * @param count number of notes
+     */
+    void addNotes(int count) throws SQLException {
+        try(Connection conn = pool.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("INSERT INTO notes(username, timestamp, title, body) " +
+                               "SELECT 'user' || MOD(X, " + USERS + "), " +
+                               "DATEADD(SECOND, X, TIMESTAMP WITH TIME ZONE '2025-01-01 00:00:00+00'), " +
+                               "'Note ' || X, REPEAT('Lorem ipsum dolor sit amet. ', 8) " +
+                               "FROM SYSTEM_RANGE(1, " + count + ")");
+            conn.commit();
+            NoteSearchIndex.indexMissing(conn);
+        }
+    }
+
+    /**
+     * Add {@value #PROJECTS} projects and make {@link #USER} member of {@value #MEMBER_PROJECTS} of them
+     */
+    void addProjects() throws SQLException {
+        try(Connection conn = pool.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("INSERT INTO projects(projectName, description) " +
+                               "SELECT 'Project ' || X, 'Description of project ' || X " +
+                               "FROM SYSTEM_RANGE(1, " + PROJECTS + ")");
+            stmt.executeUpdate("INSERT INTO user_projects(username, project_uuid) " +
+                               "SELECT '" + USER + "', project_uuid FROM projects " +
+                               "ORDER BY projectName LIMIT " + MEMBER_PROJECTS);
+            conn.commit();
+        }
+    }
+
+    /**
+     * Check out a connection, wrapped like the application does outside of requests
+     */
+    Database open() throws SQLException {
+        return new Database(pool.getConnection());
+    }
+
+    @Override
+    public void close() {
+        StatementCache.closeAll();
+        pool.close();
+        if(directory != null) {
+            try(Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
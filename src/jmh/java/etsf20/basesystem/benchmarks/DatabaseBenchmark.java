@@ -0,0 +1,84 @@
+package etsf20.basesystem.benchmarks;
+
+import etsf20.basesystem.persistance.Database;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the {@link Database} primitives on a small table
+ *
+ * <p>Inserts are rolled back so the table does not grow during the measurement, updates are committed.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DatabaseBenchmark {
+    private static final String LIST_SQL =
+            "SELECT note_uuid, title FROM notes WHERE username = ? ORDER BY timestamp DESC LIMIT 20";
+
+    @Param({BenchmarkDatabase.MEMORY, BenchmarkDatabase.FILE})
+    public String storage;
+
+    private BenchmarkDatabase database;
+
+    /**
+     * Connection and note used by one benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Connection {
+        private Database db;
+        private Map<String, Object> key;
+        private long updates;
+
+        @Setup(Level.Trial)
+        public void setUp(DatabaseBenchmark benchmark) throws SQLException {
+            db = benchmark.database.open();
+            UUID note = db.findFirst("SELECT note_uuid FROM notes ORDER BY RAND() LIMIT 1",
+                                     rs -> rs.getObject(1, UUID.class)).orElseThrow();
+            key = Map.of("note_uuid", note);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws SQLException {
+            db.close();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        database = BenchmarkDatabase.create(storage);
+        database.addNotes(1_000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public List<String> list(Connection conn) {
+        return conn.db.list(LIST_SQL, rs -> rs.getString("title"), BenchmarkDatabase.USER);
+    }
+
+    @Benchmark
+    public void insert(Connection conn) {
+        conn.db.insert("notes", Map.of("username", BenchmarkDatabase.USER, "title", "Inserted", "body", "Body"));
+        conn.db.rollback();
+    }
+
+    @Benchmark
+    public boolean update(Connection conn) {
+        boolean updated = conn.db.update("notes", conn.key, Map.of("title", "Updated " + conn.updates++));
+        conn.db.commit();
+        return updated;
+    }
+}
@@ -0,0 +1,98 @@
+package etsf20.basesystem.benchmarks;
+
+import etsf20.basesystem.domain.models.Note;
+import etsf20.basesystem.domain.models.NoteSlice;
+import etsf20.basesystem.domain.repositories.NoteRepository;
+import etsf20.basesystem.domain.repositories.Repositories;
+import etsf20.basesystem.persistance.Database;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing notes as the table grows, {@link BenchmarkDatabase#USER} owns a tenth of all notes
+ *
+ * <p>{@code firstPage} is what the notes page does, {@code offsetPage} shows the cost of skipping half of the
+ * notes of the user with LIMIT/OFFSET and {@code forEach} reads every note of the user.</p>
+ *
+ * <p>{@code searchRare} searches for a note number, which matches a handful of notes, and {@code searchCommon}
+ * for a word that is in every note, the worst case for ranking.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NoteRepositoryBenchmark {
+    private static final int PAGE_SIZE = 20;
+
+    @Param({"1000", "100000", "1000000"})
+    public int notes;
+
+    @Param({BenchmarkDatabase.MEMORY, BenchmarkDatabase.FILE})
+    public String storage;
+
+    private BenchmarkDatabase database;
+
+    /**
+     * Repository on a connection used by one benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Connection {
+        private Database db;
+        private NoteRepository repository;
+
+        @Setup(Level.Trial)
+        public void setUp(NoteRepositoryBenchmark benchmark) throws SQLException {
+            db = benchmark.database.open();
+            repository = Repositories.from(db).notes();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws SQLException {
+            db.close();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        database = BenchmarkDatabase.create(storage);
+        database.addNotes(notes);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public NoteSlice firstPage(Connection conn) {
+        return conn.repository.list(BenchmarkDatabase.USER, null, PAGE_SIZE, false);
+    }
+
+    @Benchmark
+    public List<Note> offsetPage(Connection conn) {
+        int offset = notes / BenchmarkDatabase.USERS / 2;
+        return conn.repository.list(BenchmarkDatabase.USER, PAGE_SIZE, offset, false);
+    }
+
+    @Benchmark
+    public int forEach(Connection conn, Blackhole blackhole) {
+        return conn.repository.forEach(BenchmarkDatabase.USER, false, blackhole::consume);
+    }
+
+    @Benchmark
+    public List<Note> searchRare(Connection conn) {
+        return conn.repository.search(BenchmarkDatabase.USER, String.valueOf(notes / 2), PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Note> searchCommon(Connection conn) {
+        return conn.repository.search(BenchmarkDatabase.USER, "lorem", PAGE_SIZE);
+    }
+}
@@ -0,0 +1,70 @@
+package etsf20.basesystem.benchmarks;
+
+import etsf20.basesystem.domain.models.Project;
+import etsf20.basesystem.domain.models.User;
+import etsf20.basesystem.domain.repositories.Repositories;
+import etsf20.basesystem.persistance.Database;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups done on most requests: the current user and the projects of a user
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RepositoryBenchmark {
+    @Param({BenchmarkDatabase.MEMORY, BenchmarkDatabase.FILE})
+    public String storage;
+
+    private BenchmarkDatabase database;
+
+    /**
+     * Repositories on a connection used by one benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Connection {
+        private Database db;
+        private Repositories repositories;
+
+        @Setup(Level.Trial)
+        public void setUp(RepositoryBenchmark benchmark) throws SQLException {
+            db = benchmark.database.open();
+            repositories = Repositories.from(db);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws SQLException {
+            db.close();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        database = BenchmarkDatabase.create(storage);
+        database.addProjects();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public Optional<User> getUser(Connection conn) {
+        return conn.repositories.users().get(BenchmarkDatabase.USER);
+    }
+
+    @Benchmark
+    public List<Project> getProjectsForUser(Connection conn) {
+        return conn.repositories.userProjects().getProjectsForUser(BenchmarkDatabase.USER);
+    }
+}
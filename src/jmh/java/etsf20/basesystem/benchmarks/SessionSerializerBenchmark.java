@@ -0,0 +1,83 @@
+package etsf20.basesystem.benchmarks;
+
+import etsf20.basesystem.domain.models.UserRole;
+import etsf20.basesystem.web.pages.admin.CreateUserPage;
+import etsf20.basesystem.web.sessions.CompactSessionDataSerializer;
+import etsf20.basesystem.web.sessions.JavaSessionDataSerializer;
+import etsf20.basesystem.web.sessions.SessionDataSerializer;
+import org.eclipse.jetty.server.session.SessionData;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of writing and reading back a session with both session formats, sessions are serialized when they are
+ * stored in the database
+ *
+ * <p>The size of each format is logged once per trial.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionSerializerBenchmark {
+    public static final String JAVA = "java";
+    public static final String COMPACT = "compact";
+
+    @Param({JAVA, COMPACT})
+    public String format;
+
+    /**
+     * Number of page states in the session
+     */
+    @Param({"0", "4", "32"})
+    public int states;
+
+    private SessionDataSerializer serializer;
+    private SessionData data;
+    private byte[] serialized;
+
+    /**
+     * Same shape as the page states stored by {@code Session}
+     */
+    private record StateValue(Instant refreshed, Serializable value) implements Serializable {}
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        serializer = format.equals(JAVA) ? new JavaSessionDataSerializer() : new CompactSessionDataSerializer();
+
+        data = new SessionData("node0abcdefghijklmnop", "/", "0.0.0.0", 0, 0, 0, 20 * 60 * 1000);
+        data.setAttribute("user.name", "admin");
+        data.setAttribute("user.role", UserRole.ADMIN);
+        data.setAttribute("user.displayname", "Administrator");
+
+        HashMap<UUID, StateValue> state = new HashMap<>();
+        for (int i = 0; i < states; i++) {
+            state.put(UUID.randomUUID(), new StateValue(Instant.now(),
+                    new CreateUserPage.State(i % 3, "user" + i, "User Number " + i, UserRole.USER)));
+        }
+        data.setAttribute("state", state);
+
+        serialized = serializer.serialize(data);
+        System.out.printf("%n%s session with %d states: %d bytes%n", format, states, serialized.length);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return serializer.serialize(data);
+    }
+
+    @Benchmark
+    public void deserialize(Blackhole blackhole) throws Exception {
+        SessionData copy = new SessionData(data.getId(), "/", "0.0.0.0", 0, 0, 0, 0);
+        serializer.deserialize(serialized, copy);
+        blackhole.consume(copy);
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * JMH benchmarks of the persistence and repository layer and of session serialization, only compiled with the {@code jmh} Maven profile
+ * <p>Every database benchmark is run against H2 both in memory and on file, see {@link etsf20.basesystem.benchmarks.BenchmarkDatabase}</p>
+ */
+package etsf20.basesystem.benchmarks;
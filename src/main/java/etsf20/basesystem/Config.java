@@ -1,13 +1,22 @@
 package etsf20.basesystem;
 
+import etsf20.basesystem.monitoring.AccessLog;
+import etsf20.basesystem.persistance.QueryStats;
+import etsf20.basesystem.persistance.StatementCache;
+import etsf20.basesystem.security.Argon2PasswordHash;
+import etsf20.basesystem.security.HashingExecutor;
+import etsf20.basesystem.web.sessions.WriteBehindSessionDataStore;
 import io.javalin.config.Key;
 
+import java.nio.file.Path;
+import java.time.Duration;
+
 /**
  * Contains configuration for server settings.
  *
- * <p>In a "real" application this would be a more sophisticated solution, the config parameters should come from a file
- * or something that is actually possible to configure without recompiling the application.
- * There should also be support for error checking.
+ * <p>The defaults are defined here, {@link ConfigLoader} overrides them from a properties file, environment variables
+ * and system properties and validates the values. Settings marked as reloadable in {@link ConfigLoader} are changed
+ * on the running server by {@link ConfigReloader} when the file changes, all others require a restart.
  * </p>
  */
 public class Config {
@@ -22,6 +31,26 @@ public class Config {
     private static final String DATABASE_JDBC_URL = "jdbc:h2:./data";
     private static final String DATABASE_USERNAME = "sa";
     private static final String DATABASE_PASSWORD = "" ;
+    private static final int DEFAULT_POOL_SIZE = 16;
+    private static final Duration DEFAULT_POOL_ACQUIRE_WARNING = Duration.ofMillis(50);
+    private static final Duration DEFAULT_POOL_ACQUIRE_TIMEOUT = Duration.ofSeconds(30);
+    private static final int DEFAULT_SERVER_THREADS = 250;
+    private static final boolean DEFAULT_VIRTUAL_THREADS = false;
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = StatementCache.DEFAULT_MAX_SIZE;
+    private static final int DEFAULT_QUERY_FETCH_SIZE = 256;
+    private static final boolean DEFAULT_INDEX_ADVISOR = true;
+    private static final boolean DEFAULT_RELEASE_CONNECTION_BEFORE_RENDER = true;
+    private static final Duration DEFAULT_SESSION_FLUSH_INTERVAL = Duration.ofSeconds(2);
+    private static final boolean DEFAULT_COMPACT_SESSION_SERIALIZATION = true;
+    private static final long DEFAULT_ACCESS_LOG_MAX_SIZE = 10L * 1024 * 1024;
+    private static final int DEFAULT_ACCESS_LOG_MAX_FILES = 5;
+    private static final int DEFAULT_USER_CACHE_SIZE = 4096;
+    private static final Duration DEFAULT_USER_CACHE_TTL = Duration.ofSeconds(30);
+    private static final int DEFAULT_PROJECT_CACHE_SIZE = 1024;
+    private static final Duration DEFAULT_PROJECT_CACHE_TTL = Duration.ofSeconds(60);
+    private static final Duration DEFAULT_SESSION_TIMEOUT = Duration.ofMinutes(20);
+    private static final Duration DEFAULT_STATIC_FILES_MAX_AGE = Duration.ofHours(24);
+    private static final Duration DEFAULT_CONFIG_RELOAD_INTERVAL = Duration.ofSeconds(5);
 
     public static Config defaultConfiguration() {
         return new Config(
@@ -45,6 +74,31 @@ public class Config {
         );
     }
 
+    public static Config testConfiguration(String jdbcUrl) {
+        return new Config(
+                DEFAULT_PORT,
+                DATABASE_DRIVER,
+                jdbcUrl,
+                DATABASE_USERNAME,
+                DATABASE_PASSWORD,
+                false
+        );
+    }
+
+    /**
+     * Configuration with default settings for another database, used by {@link ConfigLoader}
+     */
+    static Config database(String jdbcUrl, String dbUsername, String dbPassword, boolean mixedMode) {
+        return new Config(
+                DEFAULT_PORT,
+                DATABASE_DRIVER,
+                jdbcUrl,
+                dbUsername,
+                dbPassword,
+                mixedMode
+        );
+    }
+
     public static Config testConfigurationSingleConnection() {
         return new Config(
                 DEFAULT_PORT,
@@ -56,12 +110,46 @@ public class Config {
         );
     }
 
-    private int port;
+    // Every mutable setting is volatile, the config is shared by request threads and the config reloader thread
+    private volatile int port;
     private final String jdbcUrl;
     private final String dbUsername;
     private final String dbPassword;
     private final String dbDriver;
     private final boolean mixedMode;
+    private volatile Path configFile = null;
+    private volatile Duration configReloadInterval = DEFAULT_CONFIG_RELOAD_INTERVAL;
+
+    // Reloadable settings, applied to the running server by the config reloader
+    private volatile int poolSize = DEFAULT_POOL_SIZE;
+    private volatile Duration poolAcquireWarning = DEFAULT_POOL_ACQUIRE_WARNING;
+    private volatile Duration poolAcquireTimeout = DEFAULT_POOL_ACQUIRE_TIMEOUT;
+    private volatile int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+    private volatile Duration slowQueryThreshold = QueryStats.DEFAULT_SLOW_THRESHOLD;
+    private volatile int queryFetchSize = DEFAULT_QUERY_FETCH_SIZE;
+    private volatile int userCacheSize = DEFAULT_USER_CACHE_SIZE;
+    private volatile Duration userCacheTtl = DEFAULT_USER_CACHE_TTL;
+    private volatile int projectCacheSize = DEFAULT_PROJECT_CACHE_SIZE;
+    private volatile Duration projectCacheTtl = DEFAULT_PROJECT_CACHE_TTL;
+
+    private volatile int serverThreads = DEFAULT_SERVER_THREADS;
+    private volatile boolean virtualThreads = DEFAULT_VIRTUAL_THREADS;
+    private volatile boolean indexAdvisor = DEFAULT_INDEX_ADVISOR;
+    private volatile boolean releaseConnectionBeforeRender = DEFAULT_RELEASE_CONNECTION_BEFORE_RENDER;
+    private volatile int hashingThreads = HashingExecutor.DEFAULT_THREADS;
+    private volatile int hashingQueueSize = HashingExecutor.DEFAULT_QUEUE_SIZE;
+    private volatile Argon2PasswordHash.Parameters passwordHashParameters = Argon2PasswordHash.DEFAULT_PARAMETERS;
+    private volatile Duration passwordHashTarget = null;
+    private volatile Duration sessionFlushInterval = DEFAULT_SESSION_FLUSH_INTERVAL;
+    private volatile boolean compactSessionSerialization = DEFAULT_COMPACT_SESSION_SERIALIZATION;
+    private volatile Duration sessionSweepInterval = WriteBehindSessionDataStore.DEFAULT_SWEEP_INTERVAL;
+    private volatile int sessionSweepBatchSize = WriteBehindSessionDataStore.DEFAULT_SWEEP_BATCH_SIZE;
+    private volatile int accessLogCapacity = AccessLog.DEFAULT_CAPACITY;
+    private volatile Path accessLogFile = null;
+    private volatile long accessLogMaxSize = DEFAULT_ACCESS_LOG_MAX_SIZE;
+    private volatile int accessLogMaxFiles = DEFAULT_ACCESS_LOG_MAX_FILES;
+    private volatile Duration sessionTimeout = DEFAULT_SESSION_TIMEOUT;
+    private volatile Duration staticFilesMaxAge = DEFAULT_STATIC_FILES_MAX_AGE;
 
     /**
      *
@@ -117,4 +205,313 @@ public class Config {
     public boolean isMixedMode() {
         return mixedMode;
     }
-}
\ No newline at end of file
+
+    /** Get maximum number of prepared statements cached per database connection */
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /** Change maximum number of prepared statements cached per database connection */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /** Get number of rows fetched per round trip by streaming queries */
+    public int getQueryFetchSize() {
+        return queryFetchSize;
+    }
+
+    /** Change number of rows fetched per round trip by streaming queries */
+    public void setQueryFetchSize(int queryFetchSize) {
+        this.queryFetchSize = queryFetchSize;
+    }
+
+    /** Is the query plans of the repositories checked for table scans at startup */
+    public boolean isIndexAdvisor() {
+        return indexAdvisor;
+    }
+
+    /** Change if the query plans of the repositories are checked for table scans at startup */
+    public void setIndexAdvisor(boolean indexAdvisor) {
+        this.indexAdvisor = indexAdvisor;
+    }
+
+    /** Get maximum number of users cached by the access control, zero disables the cache */
+    public int getUserCacheSize() {
+        return userCacheSize;
+    }
+
+    /** Change maximum number of users cached by the access control, zero disables the cache */
+    public void setUserCacheSize(int userCacheSize) {
+        this.userCacheSize = userCacheSize;
+    }
+
+    /** Get time until a cached user is loaded from the database again */
+    public Duration getUserCacheTtl() {
+        return userCacheTtl;
+    }
+
+    /** Change time until a cached user is loaded from the database again */
+    public void setUserCacheTtl(Duration userCacheTtl) {
+        this.userCacheTtl = userCacheTtl;
+    }
+
+    /** Get maximum number of projects, and of project member lists, cached by the repositories, zero disables the cache */
+    public int getProjectCacheSize() {
+        return projectCacheSize;
+    }
+
+    /** Change maximum number of projects, and of project member lists, cached by the repositories, zero disables the cache */
+    public void setProjectCacheSize(int projectCacheSize) {
+        this.projectCacheSize = projectCacheSize;
+    }
+
+    /** Get time until a cached project or member list is loaded from the database again */
+    public Duration getProjectCacheTtl() {
+        return projectCacheTtl;
+    }
+
+    /** Change time until a cached project or member list is loaded from the database again */
+    public void setProjectCacheTtl(Duration projectCacheTtl) {
+        this.projectCacheTtl = projectCacheTtl;
+    }
+
+    /** Is the database connection of a request returned to the pool before the page is rendered */
+    public boolean isReleaseConnectionBeforeRender() {
+        return releaseConnectionBeforeRender;
+    }
+
+    /**
+     * Change if the database connection of a request is returned to the pool before the page is rendered,
+     * uncommitted changes are rolled back when the connection is released
+     */
+    public void setReleaseConnectionBeforeRender(boolean releaseConnectionBeforeRender) {
+        this.releaseConnectionBeforeRender = releaseConnectionBeforeRender;
+    }
+
+    /** Get number of threads computing password hashes */
+    public int getHashingThreads() {
+        return hashingThreads;
+    }
+
+    /** Change number of threads computing password hashes */
+    public void setHashingThreads(int hashingThreads) {
+        this.hashingThreads = hashingThreads;
+    }
+
+    /** Get number of password hashes that may wait for a thread before new ones are rejected */
+    public int getHashingQueueSize() {
+        return hashingQueueSize;
+    }
+
+    /** Change number of password hashes that may wait for a thread before new ones are rejected */
+    public void setHashingQueueSize(int hashingQueueSize) {
+        this.hashingQueueSize = hashingQueueSize;
+    }
+
+    /** Get parameters for new password hashes, used if no calibration target is set */
+    public Argon2PasswordHash.Parameters getPasswordHashParameters() {
+        return passwordHashParameters;
+    }
+
+    /** Change parameters for new password hashes, used if no calibration target is set */
+    public void setPasswordHashParameters(Argon2PasswordHash.Parameters passwordHashParameters) {
+        this.passwordHashParameters = passwordHashParameters;
+    }
+
+    /** Get target time to verify a password, null if the hash parameters are not calibrated at startup */
+    public Duration getPasswordHashTarget() {
+        return passwordHashTarget;
+    }
+
+    /**
+     * Change target time to verify a password, the hash parameters are then calibrated for this machine at startup.
+     * Null disables calibration.
+     */
+    public void setPasswordHashTarget(Duration passwordHashTarget) {
+        this.passwordHashTarget = passwordHashTarget;
+    }
+
+    /** Get time between writes of changed sessions to the database */
+    public Duration getSessionFlushInterval() {
+        return sessionFlushInterval;
+    }
+
+    /** Change time between writes of changed sessions to the database, also the most that is lost on a crash */
+    public void setSessionFlushInterval(Duration sessionFlushInterval) {
+        this.sessionFlushInterval = sessionFlushInterval;
+    }
+
+    /** Get if sessions are stored in the compact format instead of with Java serialization */
+    public boolean isCompactSessionSerialization() {
+        return compactSessionSerialization;
+    }
+
+    /**
+     * Change if sessions are stored in the compact format instead of with Java serialization, sessions stored in
+     * either format can still be read after switching to the compact format
+     */
+    public void setCompactSessionSerialization(boolean compactSessionSerialization) {
+        this.compactSessionSerialization = compactSessionSerialization;
+    }
+
+    /** Get time between sweeps of expired sessions from the database */
+    public Duration getSessionSweepInterval() {
+        return sessionSweepInterval;
+    }
+
+    /** Change time between sweeps of expired sessions from the database */
+    public void setSessionSweepInterval(Duration sessionSweepInterval) {
+        this.sessionSweepInterval = sessionSweepInterval;
+    }
+
+    /** Get number of expired sessions deleted per transaction */
+    public int getSessionSweepBatchSize() {
+        return sessionSweepBatchSize;
+    }
+
+    /** Change number of expired sessions deleted per transaction */
+    public void setSessionSweepBatchSize(int sessionSweepBatchSize) {
+        this.sessionSweepBatchSize = sessionSweepBatchSize;
+    }
+
+    /** Get number of access log entries that may wait to be written before new ones are dropped */
+    public int getAccessLogCapacity() {
+        return accessLogCapacity;
+    }
+
+    /** Change number of access log entries that may wait to be written before new ones are dropped */
+    public void setAccessLogCapacity(int accessLogCapacity) {
+        this.accessLogCapacity = accessLogCapacity;
+    }
+
+    /** Get file the access log is written to, null for standard output */
+    public Path getAccessLogFile() {
+        return accessLogFile;
+    }
+
+    /** Change file the access log is written to, null for standard output */
+    public void setAccessLogFile(Path accessLogFile) {
+        this.accessLogFile = accessLogFile;
+    }
+
+    /** Get size in bytes at which the access log file is rotated */
+    public long getAccessLogMaxSize() {
+        return accessLogMaxSize;
+    }
+
+    /** Change size in bytes at which the access log file is rotated */
+    public void setAccessLogMaxSize(long accessLogMaxSize) {
+        this.accessLogMaxSize = accessLogMaxSize;
+    }
+
+    /** Get number of rotated access log files to keep */
+    public int getAccessLogMaxFiles() {
+        return accessLogMaxFiles;
+    }
+
+    /** Change number of rotated access log files to keep */
+    public void setAccessLogMaxFiles(int accessLogMaxFiles) {
+        this.accessLogMaxFiles = accessLogMaxFiles;
+    }
+
+    /** Get maximum number of database connections */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /** Change maximum number of database connections */
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    /** Get time to acquire a connection (99th percentile) above which a warning is logged, null if disabled */
+    public Duration getPoolAcquireWarning() {
+        return poolAcquireWarning;
+    }
+
+    /** Change time to acquire a connection (99th percentile) above which a warning is logged, null disables it */
+    public void setPoolAcquireWarning(Duration poolAcquireWarning) {
+        this.poolAcquireWarning = poolAcquireWarning;
+    }
+
+    /** Get time to wait for a database connection before the request fails */
+    public Duration getPoolAcquireTimeout() {
+        return poolAcquireTimeout;
+    }
+
+    /** Change time to wait for a database connection before the request fails, at least 250 ms */
+    public void setPoolAcquireTimeout(Duration poolAcquireTimeout) {
+        this.poolAcquireTimeout = poolAcquireTimeout;
+    }
+
+    /** Get maximum number of threads handling requests, not used with virtual threads */
+    public int getServerThreads() {
+        return serverThreads;
+    }
+
+    /** Change maximum number of threads handling requests, not used with virtual threads */
+    public void setServerThreads(int serverThreads) {
+        this.serverThreads = serverThreads;
+    }
+
+    /** Get if requests are handled on virtual threads, requires Java 21 or later */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /** Change if requests are handled on virtual threads, ignored with a warning before Java 21 */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /** Get execution time above which a query is logged as slow, null if disabled */
+    public Duration getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+
+    /** Change execution time above which a query is logged as slow, null disables the slow query log */
+    public void setSlowQueryThreshold(Duration slowQueryThreshold) {
+        this.slowQueryThreshold = slowQueryThreshold;
+    }
+
+    /** Get time a session may be inactive before the user is logged out */
+    public Duration getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    /** Change time a session may be inactive before the user is logged out */
+    public void setSessionTimeout(Duration sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+    }
+
+    /** Get time browsers may cache static files */
+    public Duration getStaticFilesMaxAge() {
+        return staticFilesMaxAge;
+    }
+
+    /** Change time browsers may cache static files */
+    public void setStaticFilesMaxAge(Duration staticFilesMaxAge) {
+        this.staticFilesMaxAge = staticFilesMaxAge;
+    }
+
+    /** Get properties file the configuration was loaded from, null if not loaded from a file */
+    public Path getConfigFile() {
+        return configFile;
+    }
+
+    /** Change properties file the configuration was loaded from, null if not loaded from a file */
+    public void setConfigFile(Path configFile) {
+        this.configFile = configFile;
+    }
+
+    /** Get time between checks of the config file for changes, null if it is not reloaded */
+    public Duration getConfigReloadInterval() {
+        return configReloadInterval;
+    }
+
+    /** Change time between checks of the config file for changes, null disables reloading */
+    public void setConfigReloadInterval(Duration configReloadInterval) {
+        this.configReloadInterval = configReloadInterval;
+    }
+}
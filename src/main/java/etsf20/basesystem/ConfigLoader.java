@@ -0,0 +1,394 @@
+package etsf20.basesystem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Reads the configuration from a properties file, environment variables and system properties.
+ *
+ * <p>Every setting has a dotted name such as {@code pool.size}. It is read from, in order of priority:</p>
+ * <ol>
+ *     <li>the system property with the prefix {@code basesystem.}, e.g. {@code -Dbasesystem.pool.size=32}</li>
+ *     <li>the environment variable with the prefix {@code BASESYSTEM_} and the name in upper case with underscores,
+ *     e.g. {@code BASESYSTEM_POOL_SIZE=32}</li>
+ *     <li>the properties file, e.g. {@code pool.size=32}</li>
+ *     <li>the default in {@link Config}</li>
+ * </ol>
+ *
+ * <p>The file is {@value #DEFAULT_FILE} in the working directory unless another file is given with the system
+ * property {@value #FILE_PROPERTY} or the environment variable {@value #FILE_VARIABLE}. Durations are written as
+ * a number and a unit ({@code 500ms}, {@code 30s}, {@code 20m}, {@code 1h}, {@code 1d}) or in ISO-8601
+ * ({@code PT30S}), settings that can be disabled accept {@code off}.</p>
+ *
+ * <p><b>Remarks:</b> all values are validated before the configuration is returned, unknown settings in the file
+ * and system properties are errors as they are most likely misspelled. Every problem is reported at once in the
+ * message of the exception. Unknown environment variables with the prefix are only logged, the environment is
+ * shared with other software and cannot be corrected as easily as the command line.</p>
+ */
+public final class ConfigLoader {
+    private static final Logger logger = LoggerFactory.getLogger(ConfigLoader.class);
+
+    public static final String DEFAULT_FILE = "basesystem.properties";
+    public static final String FILE_PROPERTY = "basesystem.config";
+    public static final String FILE_VARIABLE = "BASESYSTEM_CONFIG";
+
+    private static final String PROPERTY_PREFIX = "basesystem.";
+    private static final String VARIABLE_PREFIX = "BASESYSTEM_";
+
+    /**
+     * A setting that can be configured
+     * @param name       dotted name, also the key in the properties file
+     * @param reloadable if a change is applied to the running server by {@link ConfigReloader}
+     * @param parse      parses and validates a value, throws {@link IllegalArgumentException} if it is invalid
+     * @param get        getter in {@link Config}
+     * @param set        setter in {@link Config}
+     * @param <T> value type
+     */
+    record Setting<T>(String name, boolean reloadable, Function<String, T> parse,
+                      Function<Config, T> get, BiConsumer<Config, T> set) {
+        void apply(Config config, String value) {
+            set.accept(config, parse.apply(value));
+        }
+
+        boolean differs(Config a, Config b) {
+            return !Objects.equals(get.apply(a), get.apply(b));
+        }
+
+        void copy(Config from, Config to) {
+            set.accept(to, get.apply(from));
+        }
+
+        String describe(Config config) {
+            T value = get.apply(config);
+            return value == null ? "off" : value.toString();
+        }
+    }
+
+    /**
+     * Database settings, used to construct the configuration and never reloaded
+     */
+    private static final Set<String> DATABASE_SETTINGS = Set.of("db.url", "db.username", "db.password", "db.mixedMode");
+
+    private static final Map<String, Setting<?>> SETTINGS = new LinkedHashMap<>();
+
+    static {
+        // Reloadable, see ConfigReloader
+        add("pool.size", true, v -> integer(v, 1, 1000), Config::getPoolSize, Config::setPoolSize);
+        add("pool.acquireTimeout", true, v -> duration(v, Duration.ofMillis(250)),
+            Config::getPoolAcquireTimeout, Config::setPoolAcquireTimeout);
+        add("pool.acquireWarning", true, ConfigLoader::optionalDuration,
+            Config::getPoolAcquireWarning, Config::setPoolAcquireWarning);
+        add("statementCache.size", true, v -> integer(v, 1, 10_000),
+            Config::getStatementCacheSize, Config::setStatementCacheSize);
+        add("query.fetchSize", true, v -> integer(v, 1, 100_000), Config::getQueryFetchSize, Config::setQueryFetchSize);
+        add("query.slowThreshold", true, ConfigLoader::optionalDuration,
+            Config::getSlowQueryThreshold, Config::setSlowQueryThreshold);
+        add("userCache.size", true, v -> integer(v, 0, 1_000_000), Config::getUserCacheSize, Config::setUserCacheSize);
+        add("userCache.ttl", true, v -> duration(v, Duration.ZERO), Config::getUserCacheTtl, Config::setUserCacheTtl);
+        add("projectCache.size", true, v -> integer(v, 0, 1_000_000),
+            Config::getProjectCacheSize, Config::setProjectCacheSize);
+        add("projectCache.ttl", true, v -> duration(v, Duration.ZERO),
+            Config::getProjectCacheTtl, Config::setProjectCacheTtl);
+
+        // Requires a restart
+        add("port", false, v -> integer(v, 0, 65535), Config::getPort, Config::setPort);
+        add("server.threads", false, v -> integer(v, 8, 100_000), Config::getServerThreads, Config::setServerThreads);
+        add("server.virtualThreads", false, ConfigLoader::bool, Config::isVirtualThreads, Config::setVirtualThreads);
+        add("indexAdvisor", false, ConfigLoader::bool, Config::isIndexAdvisor, Config::setIndexAdvisor);
+        add("releaseConnectionBeforeRender", false, ConfigLoader::bool,
+            Config::isReleaseConnectionBeforeRender, Config::setReleaseConnectionBeforeRender);
+        add("hashing.threads", false, v -> integer(v, 1, 1024), Config::getHashingThreads, Config::setHashingThreads);
+        add("hashing.queueSize", false, v -> integer(v, 1, 100_000),
+            Config::getHashingQueueSize, Config::setHashingQueueSize);
+        add("password.hashTarget", false, ConfigLoader::optionalDuration,
+            Config::getPasswordHashTarget, Config::setPasswordHashTarget);
+        add("session.timeout", false, v -> duration(v, Duration.ofSeconds(1)),
+            Config::getSessionTimeout, Config::setSessionTimeout);
+        add("session.flushInterval", false, v -> duration(v, Duration.ofMillis(1)),
+            Config::getSessionFlushInterval, Config::setSessionFlushInterval);
+        add("session.compactSerialization", false, ConfigLoader::bool,
+            Config::isCompactSessionSerialization, Config::setCompactSessionSerialization);
+        add("session.sweepInterval", false, v -> duration(v, Duration.ofMillis(1)),
+            Config::getSessionSweepInterval, Config::setSessionSweepInterval);
+        add("session.sweepBatchSize", false, v -> integer(v, 1, 1_000_000),
+            Config::getSessionSweepBatchSize, Config::setSessionSweepBatchSize);
+        add("accessLog.capacity", false, v -> integer(v, 1, 10_000_000),
+            Config::getAccessLogCapacity, Config::setAccessLogCapacity);
+        add("accessLog.file", false, v -> isOff(v) ? null : Path.of(v), Config::getAccessLogFile, Config::setAccessLogFile);
+        add("accessLog.maxSize", false, v -> integer(v, 1024L, Long.MAX_VALUE),
+            Config::getAccessLogMaxSize, Config::setAccessLogMaxSize);
+        add("accessLog.maxFiles", false, v -> integer(v, 1, 1000), Config::getAccessLogMaxFiles, Config::setAccessLogMaxFiles);
+        add("staticFiles.maxAge", false, v -> duration(v, Duration.ZERO),
+            Config::getStaticFilesMaxAge, Config::setStaticFilesMaxAge);
+        add("config.reloadInterval", false, ConfigLoader::optionalDuration,
+            Config::getConfigReloadInterval, Config::setConfigReloadInterval);
+    }
+
+    private static <T> void add(String name, boolean reloadable, Function<String, T> parse,
+                                Function<Config, T> get, BiConsumer<Config, T> set) {
+        SETTINGS.put(name, new Setting<>(name, reloadable, parse, get, set));
+    }
+
+    private final Path file;
+    private final boolean fileRequired;
+    private final Map<String, String> environment;
+    private final Properties systemProperties;
+    // Unknown environment variables already warned about, the reloader reads the environment again on every check
+    private final Set<String> ignoredVariables = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param file             properties file, may be missing unless required
+     * @param fileRequired     if a missing file is an error, i.e. it was given explicitly
+     * @param environment      environment variables
+     * @param systemProperties system properties
+     */
+    public ConfigLoader(Path file, boolean fileRequired, Map<String, String> environment, Properties systemProperties) {
+        this.file = file;
+        this.fileRequired = fileRequired;
+        this.environment = environment;
+        this.systemProperties = systemProperties;
+    }
+
+    /**
+     * Loader for the environment and system properties of this process
+     */
+    public static ConfigLoader fromSystem() {
+        Map<String, String> environment = System.getenv();
+        Properties systemProperties = System.getProperties();
+
+        String file = systemProperties.getProperty(FILE_PROPERTY, environment.get(FILE_VARIABLE));
+        if(file != null) {
+            return new ConfigLoader(Path.of(file), true, environment, systemProperties);
+        }
+        return new ConfigLoader(Path.of(DEFAULT_FILE), false, environment, systemProperties);
+    }
+
+    /** Get the properties file */
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * Read and validate the configuration
+     * @return configuration
+     * @throws IllegalArgumentException if a value is invalid, a setting is unknown or the file could not be read
+     */
+    public Config load() {
+        return parse(values());
+    }
+
+    /**
+     * Read the configured values of all sources, the source with the highest priority wins
+     * @return value by setting name, only for settings that are set
+     * @throws IllegalArgumentException if a setting in the file or system properties is unknown or the file could not
+     *                                  be read
+     */
+    Map<String, String> values() {
+        List<String> errors = new ArrayList<>();
+        Map<String, String> values = new LinkedHashMap<>();
+
+        if(Files.exists(file)) {
+            Properties properties = new Properties();
+            try(Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            } catch (IOException | IllegalArgumentException e) {
+                throw new IllegalArgumentException("Failed to read configuration " + file + ": " + e.getMessage(), e);
+            }
+            for (String name : properties.stringPropertyNames()) {
+                if(isKnown(name)) {
+                    values.put(name, properties.getProperty(name).trim());
+                } else {
+                    errors.add(name + ": unknown setting in " + file);
+                }
+            }
+        } else if(fileRequired) {
+            throw new IllegalArgumentException("Configuration file " + file + " does not exist");
+        }
+
+        Map<String, String> variables = new LinkedHashMap<>();
+        for (String name : DATABASE_SETTINGS) {
+            variables.put(variable(name), name);
+        }
+        for (String name : SETTINGS.keySet()) {
+            variables.put(variable(name), name);
+        }
+        for (Map.Entry<String, String> entry : environment.entrySet()) {
+            String variable = entry.getKey();
+            if(!variable.startsWith(VARIABLE_PREFIX) || variable.equals(FILE_VARIABLE)) {
+                continue;
+            }
+            if(variables.containsKey(variable)) {
+                values.put(variables.get(variable), entry.getValue().trim());
+            } else if(ignoredVariables.add(variable)) {
+                logger.warn("Ignoring unknown environment variable {}", variable);
+            }
+        }
+
+        for (String property : systemProperties.stringPropertyNames()) {
+            if(!property.startsWith(PROPERTY_PREFIX) || property.equals(FILE_PROPERTY)) {
+                continue;
+            }
+            String name = property.substring(PROPERTY_PREFIX.length());
+            if(isKnown(name)) {
+                values.put(name, systemProperties.getProperty(property).trim());
+            } else {
+                errors.add(property + ": unknown system property");
+            }
+        }
+
+        if(!errors.isEmpty()) {
+            throw invalid(errors);
+        }
+        return values;
+    }
+
+    /**
+     * Create a configuration from values
+     * @param values value by setting name, see {@link ConfigLoader#values()}
+     * @return configuration with defaults for settings not in the values
+     * @throws IllegalArgumentException listing every invalid value
+     */
+    Config parse(Map<String, String> values) {
+        List<String> errors = new ArrayList<>();
+        Config defaults = Config.defaultConfiguration();
+
+        boolean mixedMode = false;
+        try {
+            mixedMode = bool(values.getOrDefault("db.mixedMode", String.valueOf(defaults.isMixedMode())));
+        } catch (IllegalArgumentException e) {
+            errors.add("db.mixedMode: " + e.getMessage());
+        }
+        Config config = Config.database(
+                values.getOrDefault("db.url", defaults.getJdbcUrl()),
+                values.getOrDefault("db.username", defaults.getDbUsername()),
+                values.getOrDefault("db.password", defaults.getDbPassword()),
+                mixedMode);
+        config.setConfigFile(file);
+
+        for (Setting<?> setting : SETTINGS.values()) {
+            String value = values.get(setting.name());
+            if(value == null) {
+                continue;
+            }
+            try {
+                setting.apply(config, value);
+            } catch (IllegalArgumentException e) {
+                errors.add(setting.name() + ": " + e.getMessage());
+            }
+        }
+
+        if(!errors.isEmpty()) {
+            throw invalid(errors);
+        }
+        return config;
+    }
+
+    /**
+     * Get all settings except the database settings, in the order they are documented
+     */
+    static Collection<Setting<?>> settings() {
+        return Collections.unmodifiableCollection(SETTINGS.values());
+    }
+
+    private static boolean isKnown(String name) {
+        return SETTINGS.containsKey(name) || DATABASE_SETTINGS.contains(name);
+    }
+
+    /**
+     * Environment variable of a setting, e.g. {@code BASESYSTEM_POOL_ACQUIRE_TIMEOUT} for {@code pool.acquireTimeout}
+     */
+    static String variable(String name) {
+        return VARIABLE_PREFIX + name.replaceAll("([a-z])([A-Z])", "$1_$2")
+                                     .replace('.', '_')
+                                     .toUpperCase(Locale.ROOT);
+    }
+
+    private static IllegalArgumentException invalid(List<String> errors) {
+        return new IllegalArgumentException("Invalid configuration:\n  " + String.join("\n  ", errors));
+    }
+
+    private static boolean isOff(String value) {
+        return value.isEmpty() || value.equalsIgnoreCase("off");
+    }
+
+    private static boolean bool(String value) {
+        return switch (value.toLowerCase(Locale.ROOT)) {
+            case "true", "yes", "on" -> true;
+            case "false", "no", "off" -> false;
+            default -> throw new IllegalArgumentException("expected true or false, got '" + value + "'");
+        };
+    }
+
+    private static int integer(String value, int min, int max) {
+        return (int) integer(value, min, (long) max);
+    }
+
+    private static long integer(String value, long min, long max) {
+        long result;
+        try {
+            result = Long.parseLong(value.replace("_", ""));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("expected a number, got '" + value + "'");
+        }
+        if(result < min || result > max) {
+            throw new IllegalArgumentException("must be between " + min + " and " + max + ", got " + result);
+        }
+        return result;
+    }
+
+    private static Duration optionalDuration(String value) {
+        return isOff(value) ? null : duration(value, Duration.ofMillis(1));
+    }
+
+    /**
+     * Parse a duration such as {@code 500ms}, {@code 30s}, {@code 20m}, {@code 1h}, {@code 1d} or {@code PT30S}
+     */
+    static Duration duration(String value, Duration min) {
+        Duration result;
+        String text = value.toLowerCase(Locale.ROOT);
+        try {
+            if(text.startsWith("p")) {
+                result = Duration.parse(value);
+            } else if(text.endsWith("ms")) {
+                result = Duration.ofMillis(Long.parseLong(text.substring(0, text.length() - 2)));
+            } else if(text.endsWith("s")) {
+                result = Duration.ofSeconds(Long.parseLong(text.substring(0, text.length() - 1)));
+            } else if(text.endsWith("m")) {
+                result = Duration.ofMinutes(Long.parseLong(text.substring(0, text.length() - 1)));
+            } else if(text.endsWith("h")) {
+                result = Duration.ofHours(Long.parseLong(text.substring(0, text.length() - 1)));
+            } else if(text.endsWith("d")) {
+                result = Duration.ofDays(Long.parseLong(text.substring(0, text.length() - 1)));
+            } else {
+                throw new IllegalArgumentException("expected a duration with a unit such as 500ms, 30s or 20m, got '" + value + "'");
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            throw new IllegalArgumentException("expected a duration such as 500ms, 30s or 20m, got '" + value + "'");
+        }
+        if(result.compareTo(min) < 0) {
+            throw new IllegalArgumentException("must be at least " + min.toMillis() + " ms, got '" + value + "'");
+        }
+        return result;
+    }
+}
@@ -0,0 +1,157 @@
+package etsf20.basesystem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Applies changes of the configuration file to the running server.
+ *
+ * <p>The file is checked for changes periodically. When it has changed the whole configuration is loaded and
+ * validated again, an invalid configuration is logged and ignored. The reloadable settings that changed, see
+ * {@link ConfigLoader}, are then copied to the configuration in use and the listener is called to apply them to the
+ * connection pool, caches and thresholds. Other settings that changed are logged as requiring a restart.</p>
+ *
+ * <p><b>Remarks:</b> environment variables and system properties still override the file, a setting given that way
+ * can not be changed without a restart.</p>
+ */
+public final class ConfigReloader implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ConfigReloader.class);
+
+    private final ConfigLoader loader;
+    private final Config config;
+    private final Consumer<Config> listener;
+    private ScheduledExecutorService scheduler;
+    private FileStamp stamp;
+
+    /**
+     * Last modification time and size of the file, null if it does not exist
+     */
+    private record FileStamp(long modified, long size) {
+        static FileStamp of(Path file) {
+            try {
+                return new FileStamp(Files.getLastModifiedTime(file).toMillis(), Files.size(file));
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @param loader   loader reading the same sources as the configuration was loaded from
+     * @param config   configuration in use, changed in place
+     * @param listener called with the configuration after reloadable settings have changed
+     */
+    public ConfigReloader(ConfigLoader loader, Config config, Consumer<Config> listener) {
+        this.loader = loader;
+        this.config = config;
+        this.listener = listener;
+        this.stamp = FileStamp.of(loader.file());
+    }
+
+    /**
+     * Reloader for a configuration loaded by {@link ConfigLoader#fromSystem()}
+     * @param config   configuration in use, must have a config file
+     * @param listener called with the configuration after reloadable settings have changed
+     */
+    public static ConfigReloader forSystem(Config config, Consumer<Config> listener) {
+        Path file = Objects.requireNonNull(config.getConfigFile(), "configuration was not loaded from a file");
+        return new ConfigReloader(new ConfigLoader(file, false, System.getenv(), System.getProperties()), config, listener);
+    }
+
+    /**
+     * Start checking the file for changes in the background
+     * @param interval time between checks
+     */
+    public void start(Duration interval) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "config-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long millis = interval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::check, millis, millis, TimeUnit.MILLISECONDS);
+        logger.info("Checking {} for changes every {} ms", loader.file(), millis);
+    }
+
+    /**
+     * Reload the configuration if the file has changed since the last check, only called by one thread at a time
+     * @return names of the reloadable settings that changed
+     */
+    public List<String> check() {
+        FileStamp current = FileStamp.of(loader.file());
+        if(Objects.equals(current, stamp)) {
+            return List.of();
+        }
+        stamp = current;
+
+        try {
+            return reload();
+        } catch (RuntimeException e) {
+            // Never let an exception stop the scheduled checks
+            logger.error("Failed to reload configuration from {}", loader.file(), e);
+            return List.of();
+        }
+    }
+
+    /**
+     * Load the configuration and apply the reloadable settings that changed
+     * @return names of the reloadable settings that changed
+     */
+    private List<String> reload() {
+        Config loaded;
+        try {
+            loaded = loader.load();
+        } catch (IllegalArgumentException e) {
+            logger.error("Ignoring changes to {}, keeping the current configuration. {}", loader.file(), e.getMessage());
+            return List.of();
+        }
+
+        List<String> changed = new ArrayList<>();
+        for (ConfigLoader.Setting<?> setting : ConfigLoader.settings()) {
+            if(!setting.differs(config, loaded)) {
+                continue;
+            }
+
+            if(setting.reloadable()) {
+                logger.info("Reloaded {}: {} -> {}", setting.name(), setting.describe(config), setting.describe(loaded));
+                setting.copy(loaded, config);
+                changed.add(setting.name());
+            } else {
+                logger.warn("Changed {} to {} in {}, takes effect after a restart",
+                            setting.name(), setting.describe(loaded), loader.file());
+            }
+        }
+        if(!Objects.equals(config.getJdbcUrl(), loaded.getJdbcUrl())
+           || !Objects.equals(config.getDbUsername(), loaded.getDbUsername())
+           || !Objects.equals(config.getDbPassword(), loaded.getDbPassword())) {
+            logger.warn("Changed database settings in {}, takes effect after a restart", loader.file());
+        }
+
+        if(!changed.isEmpty()) {
+            listener.accept(config);
+        }
+        return changed;
+    }
+
+    /**
+     * Stop checking for changes
+     */
+    @Override
+    public void close() {
+        if(scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
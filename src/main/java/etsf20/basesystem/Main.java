@@ -3,15 +3,31 @@ package etsf20.basesystem;
 import com.zaxxer.hikari.HikariDataSource;
 import etsf20.basesystem.domain.models.User;
 import etsf20.basesystem.domain.models.UserRole;
+import etsf20.basesystem.domain.repositories.IndexAdvisor;
+import etsf20.basesystem.domain.repositories.NoteSearchIndex;
 import etsf20.basesystem.domain.repositories.Repositories;
+import etsf20.basesystem.domain.repositories.RepositoryCaches;
 import etsf20.basesystem.domain.repositories.UserRepository;
+import etsf20.basesystem.monitoring.AccessLog;
+import etsf20.basesystem.monitoring.RouteMetrics;
+import etsf20.basesystem.persistance.ConnectionHoldStats;
 import etsf20.basesystem.persistance.Database;
+import etsf20.basesystem.persistance.QueryStats;
+import etsf20.basesystem.persistance.SchemaMigrations;
+import etsf20.basesystem.persistance.StatementCache;
+import etsf20.basesystem.security.Argon2PasswordHash;
+import etsf20.basesystem.security.HashingExecutor;
+import etsf20.basesystem.security.HashingRejectedException;
 import etsf20.basesystem.web.ValidationException;
 import etsf20.basesystem.web.controllers.*;
 import etsf20.basesystem.web.pages.ErrorPage;
 import etsf20.basesystem.web.pages.Session;
 import etsf20.basesystem.web.pages.TemplatePage;
 import etsf20.basesystem.web.pages.session.LoginPage;
+import etsf20.basesystem.web.sessions.CompactSessionDataSerializer;
+import etsf20.basesystem.web.sessions.JavaSessionDataSerializer;
+import etsf20.basesystem.web.sessions.SessionDataSerializer;
+import etsf20.basesystem.web.sessions.WriteBehindSessionDataStore;
 import gg.jte.ContentType;
 import gg.jte.TemplateEngine;
 import io.javalin.Javalin;
@@ -21,7 +37,9 @@ import io.javalin.http.Header;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.staticfiles.Location;
 import io.javalin.rendering.template.JavalinJte;
+import io.javalin.util.ConcurrencyUtil;
 import org.eclipse.jetty.server.session.*;
+import org.eclipse.jetty.util.thread.ThreadPool;
 import org.h2.tools.RunScript;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,10 +51,11 @@ import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.time.Instant;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 
 import static io.javalin.apibuilder.ApiBuilder.path;
 
@@ -89,43 +108,89 @@ public class Main {
                 }
             }
         }
+
+        // Bring both new and existing databases up to the latest schema version
+        SchemaMigrations.migrate(conn);
+
+        // Notes from before the search index existed, or inserted without NoteRepository
+        NoteSearchIndex.indexMissing(conn);
+    }
+
+    /**
+     * Construct store persisting sessions to the database in the background
+     * @param pool connection pool
+     * @param config session flush, sweep and serialization settings
+     * @return session data store
+     */
+    public static WriteBehindSessionDataStore getSqlSessionStore(HikariDataSource pool, Config config) {
+        SessionDataSerializer serializer = config.isCompactSessionSerialization()
+                ? new CompactSessionDataSerializer() : new JavaSessionDataSerializer();
+        WriteBehindSessionDataStore sessionStore = new WriteBehindSessionDataStore(pool, config.getSessionFlushInterval(), serializer);
+        sessionStore.setSweepInterval(config.getSessionSweepInterval());
+        sessionStore.setSweepBatchSize(config.getSessionSweepBatchSize());
+        // Sessions without changed attributes only need their expiry refreshed once in a while, well within the timeout
+        sessionStore.setSavePeriodSec((int) Math.min(60, config.getSessionTimeout().toSeconds() / 2));
+        return sessionStore;
     }
 
     /**
-     * Constuct SQL based session handler
-     * @param driver JDBC Driver name
-     * @param url JDBC connection string
+     * Construct session handler with sessions kept in memory and persisted by the store
+     * @param sessionStore   store, see {@link Main#getSqlSessionStore(HikariDataSource, Config)}
+     * @param sessionTimeout time a session may be inactive
      * @return session handler
      */
-    public static SessionHandler getSqlSessionHandler(HikariDataSource pool, String driver, String url, boolean mixedMode) {
+    public static SessionHandler getSqlSessionHandler(SessionDataStore sessionStore, Duration sessionTimeout) {
         SessionHandler sessionHandler = new SessionHandler();
         SessionCache sessionCache = new DefaultSessionCache(sessionHandler);
-        sessionCache.setSessionDataStore(
-                getJdbcDataStoreFactory(pool, driver, url, mixedMode).getSessionDataStore(sessionHandler)
-        );
+        sessionCache.setSessionDataStore(sessionStore);
         sessionHandler.setSessionCache(sessionCache);
         sessionHandler.setHttpOnly(true);
-        sessionHandler.setMaxInactiveInterval(20*60); // 20 minutes
+        sessionHandler.setMaxInactiveInterval((int) sessionTimeout.toSeconds());
         return sessionHandler;
     }
 
     /**
-     * Helper method to create JDBC based data store factory
-     * @param driver JDBC Driver name
-     * @param url JDBC connection string
-     * @return JDBC Session Data Store Factory
+     * Create access log, written to standard output unless a file is configured
+     * @param config access log settings
+     * @return started access log
      */
-    private static JDBCSessionDataStoreFactory getJdbcDataStoreFactory(HikariDataSource pool, String driver, String url, boolean mixedMode) {
-        DatabaseAdaptor databaseAdaptor = new DatabaseAdaptor();
-        databaseAdaptor.setDriverInfo(driver, url);
+    private static AccessLog createAccessLog(Config config) {
+        if(config.getAccessLogFile() == null) {
+            return AccessLog.toStandardOutput(config.getAccessLogCapacity());
+        }
 
+        try {
+            return AccessLog.toFile(config.getAccessLogCapacity(), config.getAccessLogFile(),
+                                    config.getAccessLogMaxSize(), config.getAccessLogMaxFiles());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open access log " + config.getAccessLogFile(), e);
+        }
+    }
 
-        // Use our connection pool for performance
-        databaseAdaptor.setDatasource(pool);
+    /**
+     * Create the thread pool handling requests
+     *
+     * <p><b>Remarks:</b> with virtual threads every request gets its own thread and a request blocked on the
+     * database, a password hash or the network does not hold up others. Concurrency is then limited by the
+     * connection pool instead, requests wait at most {@link Config#getPoolAcquireTimeout()} for a connection.</p>
+     *
+     * @param config thread settings
+     * @return thread pool, virtual threads if configured and supported by the JVM
+     */
+    private static ThreadPool createThreadPool(Config config) {
+        Logger logger = LoggerFactory.getLogger(Main.class);
+        boolean virtual = config.isVirtualThreads();
+        if(virtual && !ConcurrencyUtil.isLoomAvailable()) {
+            logger.warn("Virtual threads require Java 21 or later");
+            virtual = false;
+        }
 
-        JDBCSessionDataStoreFactory jdbcSessionDataStoreFactory = new JDBCSessionDataStoreFactory();
-        jdbcSessionDataStoreFactory.setDatabaseAdaptor(databaseAdaptor);
-        return jdbcSessionDataStoreFactory;
+        if(virtual) {
+            logger.info("Handling requests on virtual threads");
+        } else {
+            logger.info("Handling requests on at most {} platform threads", config.getServerThreads());
+        }
+        return ConcurrencyUtil.jettyThreadPool("JettyServerThreadPool", 8, config.getServerThreads(), virtual);
     }
 
     /**
@@ -144,22 +209,32 @@ public class Main {
             LoggerFactory.getLogger(Main.class).info("Mixed mode Database/Connection URL: \n\n{}\n", "jdbc:h2:" + Paths.get(path).toAbsolutePath().normalize() + ";AUTO_SERVER=TRUE");
         }
 
+        javalinConfig.useVirtualThreads = config.isVirtualThreads() && ConcurrencyUtil.isLoomAvailable();
+        javalinConfig.jetty.threadPool = createThreadPool(config);
+
+        HashingExecutor.configure(config.getHashingThreads(), config.getHashingQueueSize());
+        if(config.getPasswordHashTarget() != null) {
+            Argon2PasswordHash.configure(Argon2PasswordHash.calibrate(config.getPasswordHashTarget()));
+        } else {
+            Argon2PasswordHash.configure(config.getPasswordHashParameters());
+        }
+
         HikariDataSource pool = Database.createPool(config);
 
         try(Connection conn = pool.getConnection()) {
             createSchemaIfNotExists(conn);
+
+            if(config.isIndexAdvisor()) {
+                IndexAdvisor.run(conn);
+            }
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
 
         // Persistent session handling - required to keep sessions between restarts of server
+        WriteBehindSessionDataStore sessionStore = getSqlSessionStore(pool, config);
         javalinConfig.jetty.modifyServletContextHandler(handler -> {
-            SessionHandler sessionHandler = getSqlSessionHandler(
-                    pool,
-                    config.getDbDriver(),
-                    config.getJdbcUrl() + ";USER=" + config.getDbUsername() +";PASSWORD=" + config.getDbPassword(),
-                    config.isMixedMode()
-            );
+            SessionHandler sessionHandler = getSqlSessionHandler(sessionStore, config.getSessionTimeout());
             handler.setSessionHandler(sessionHandler);
         });
 
@@ -185,7 +260,7 @@ public class Main {
             staticFiles.directory = "/public";              // the directory where your files are located
             staticFiles.location = Location.CLASSPATH;      // Location.CLASSPATH (jar) or Location.EXTERNAL (file system)
             staticFiles.precompress = production;           // if the files should be pre-compressed and cached in memory (optimization)
-            staticFiles.headers = Map.of(Header.CACHE_CONTROL, "max-age=86400"); //24 hour cache
+            staticFiles.headers = Map.of(Header.CACHE_CONTROL, "max-age=" + config.getStaticFilesMaxAge().toSeconds());
         });
 
         // Enables web jars
@@ -201,25 +276,58 @@ public class Main {
 
         javalinConfig.appData(Config.Key, config);
         javalinConfig.appData(Database.PoolKey, pool);
+        RepositoryCaches caches = RepositoryCaches.from(config);
+        javalinConfig.appData(RepositoryCaches.Key, caches);
+
+        // Tuning settings changed in the config file are applied without a restart
+        ConfigReloader reloader = null;
+        if(config.getConfigFile() != null && config.getConfigReloadInterval() != null) {
+            reloader = ConfigReloader.forSystem(config, changed -> {
+                Database.reconfigure(pool, changed);
+                caches.reconfigure(changed);
+            });
+            reloader.start(config.getConfigReloadInterval());
+        }
+        ConfigReloader configReloader = reloader;
+
+        AccessLog accessLog = createAccessLog(config);
+        javalinConfig.appData(AccessLog.Key, accessLog);
+        javalinConfig.appData(WriteBehindSessionDataStore.Key, sessionStore);
 
         javalinConfig.events(event -> {
-            event.serverStopping(pool::close);
+            // Stopped, not stopping - sessions are flushed to the database when the server stops
+            event.serverStopped(() -> {
+                if(configReloader != null) {
+                    configReloader.close();
+                }
+                ConnectionHoldStats.log();
+                QueryStats.log(10);
+                LoggerFactory.getLogger(Main.class).info("Session lookups: {}, resolved from session attributes: {}",
+                                                         Session.lookups(), Session.resolutions());
+                StatementCache.closeAll();
+                pool.close();
+                accessLog.close();
+            });
         });
 
+        // Request threads only queue the entry, it is formatted and written on the access log thread
         javalinConfig.requestLogger.http((ctx, ms) -> {
-            String timeString = String.format("%7s", String.format("%5.2f",ms));
-
-            System.out.println(
-                "[ " + Instant.now().toString() + " | "
-                     + ctx.ip() + " | "
-                     + timeString + " ms" + " | "
-                     + ctx.statusCode() + " ] "
-                     + ctx.method() + " "
-                     + ctx.path()
-            );
+            RouteMetrics.finished(ctx, ms);
+            accessLog.log(System.currentTimeMillis(), ctx.ip(), ms, ctx.statusCode(), ctx.method().name(), ctx.path());
         });
     }
 
+    /**
+     * Current role of a user, only uses a database connection if the user is not cached
+     * @param ctx      context
+     * @param username user to look up
+     * @return role or empty if the user does not exist
+     */
+    private static Optional<UserRole> currentRole(Context ctx, String username) {
+        return ctx.appData(RepositoryCaches.Key).userRoles().get(username, name ->
+                Repositories.from(ctx).users().get(name).map(User::getRole));
+    }
+
     /**
      * Access control - verify that client is authorized and has required privileges to access resource
      * @param ctx context
@@ -228,10 +336,9 @@ public class Main {
         // Access control
         Session session = Session.from(ctx);
 
-        // Check that a logged-in user is still valid
-        Repositories repos = Repositories.from(ctx);
-        if(session.isLoggedIn() && repos.users().get(session.username()).isEmpty()) {
-            // User has been removed - logout the user.
+        // Check that a logged-in user is still valid, cached as it is done on every request
+        if(session.isLoggedIn() && !currentRole(ctx, session.username()).equals(Optional.of(session.userRole()))) {
+            // User has been removed or changed role - logout the user.
             // This will invalidate current session and all its data.
             session.logout();
 
@@ -247,7 +354,7 @@ public class Main {
         }
 
         if (!ctx.routeRoles().contains(userRole)) { // routeRoles are provided through the routing interface at startup
-            if(!Session.from(ctx).isLoggedIn()) {
+            if(!session.isLoggedIn()) {
                 ctx.status(HttpStatus.UNAUTHORIZED);
                 LoginPage loginPage = new LoginPage(ctx, URLEncoder.encode(ctx.fullUrl(), StandardCharsets.UTF_8));
                 loginPage.render();
@@ -273,6 +380,18 @@ public class Main {
         LoggerFactory.getLogger(Main.class).info("Unprocessable content", e);
     }
 
+    /**
+     * Too many password hashes in progress, e.g. a burst of logins - ask the client to try again later
+     * @param e   exception
+     * @param ctx context
+     */
+    private static void hashingRejected(HashingRejectedException e, Context ctx) {
+        ctx.status(HttpStatus.SERVICE_UNAVAILABLE);
+        ctx.header(Header.RETRY_AFTER, String.valueOf(HashingRejectedException.RETRY_AFTER_SECONDS));
+        ctx.render("error.jte", Collections.singletonMap("page", new ErrorPage(ctx, "503 Service Unavailable", "The server is busy, please try again in a moment.")));
+        LoggerFactory.getLogger(Main.class).debug("Password hashing rejected", e);
+    }
+
     /**
      * Client requests a page that could not be found
      * @param ctx context
@@ -313,9 +432,11 @@ public class Main {
      */
     public static Javalin javalin(Config config) {
         var server = Javalin.create(javalinConfig -> configure(javalinConfig, config))
+                            .beforeMatched(RouteMetrics::started) // first, so that every matched request is counted
                             .beforeMatched(Main::accessControl)
                             .get("/", Main::index, UserRole.loggedIn())
                             .exception(ValidationException.class, Main::validationException)
+                            .exception(HashingRejectedException.class, Main::hashingRejected)
                             .error(HttpStatus.NOT_FOUND, "html", Main::notFound)
                             .after(Database::dispose); // rollbacks any non-commited transaction and closes active connections
 
@@ -335,7 +456,15 @@ public class Main {
     public static void main(String[] args) throws SQLException {
         System.out.println("ETSF20 Base Journal System");
 
-        Config config = Config.defaultConfiguration();
+        Config config;
+        try {
+            config = ConfigLoader.fromSystem().load();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+
         Javalin javalin = javalin(config);
         javalin.start(config.getPort());
 
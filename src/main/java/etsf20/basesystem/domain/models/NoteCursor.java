@@ -0,0 +1,64 @@
+package etsf20.basesystem.domain.models;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Position in a list of notes ordered by timestamp and uuid, used for keyset pagination.
+ *
+ * <p>Notes are listed "after" a cursor, i.e. continuing from the last note of the previous page, which lets the
+ * database seek directly to the position instead of skipping rows like {@code OFFSET} does.</p>
+ *
+ * @param timestamp timestamp of the last seen note
+ * @param uuid      uuid of the last seen note, breaks ties between equal timestamps
+ */
+public record NoteCursor(Instant timestamp, UUID uuid) {
+    private static final int ENCODED_BYTES = Long.BYTES + Integer.BYTES + 2 * Long.BYTES;
+
+    public NoteCursor {
+        Objects.requireNonNull(timestamp);
+        Objects.requireNonNull(uuid);
+    }
+
+    /**
+     * Cursor positioned at a given note
+     * @param note last seen note
+     */
+    public static NoteCursor of(Note note) {
+        return new NoteCursor(note.getTimestamp(), note.getUuid());
+    }
+
+    /**
+     * Encode as an opaque url-safe string
+     * @see NoteCursor#decode(String)
+     */
+    public String encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(ENCODED_BYTES);
+        buffer.putLong(timestamp.getEpochSecond());
+        buffer.putInt(timestamp.getNano());
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    /**
+     * Decode a cursor created by {@link NoteCursor#encode()}
+     * @param encoded encoded cursor
+     * @return cursor
+     * @throws IllegalArgumentException if the string is not a valid cursor
+     */
+    public static NoteCursor decode(String encoded) {
+        byte[] data = Base64.getUrlDecoder().decode(encoded);
+        if(data.length != ENCODED_BYTES) {
+            throw new IllegalArgumentException("invalid cursor length");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        Instant timestamp = Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+        UUID uuid = new UUID(buffer.getLong(), buffer.getLong());
+        return new NoteCursor(timestamp, uuid);
+    }
+}
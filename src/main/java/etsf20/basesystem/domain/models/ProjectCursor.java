@@ -0,0 +1,63 @@
+package etsf20.basesystem.domain.models;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Position in a list of projects ordered by name and uuid, used for keyset pagination.
+ *
+ * <p>Works like {@link NoteCursor}, projects are listed "after" the last project of the previous page.</p>
+ *
+ * @param projectName name of the last seen project
+ * @param uuid        uuid of the last seen project, breaks ties between projects with the same name
+ */
+public record ProjectCursor(String projectName, UUID uuid) {
+    private static final int UUID_BYTES = 2 * Long.BYTES;
+
+    public ProjectCursor {
+        Objects.requireNonNull(projectName);
+        Objects.requireNonNull(uuid);
+    }
+
+    /**
+     * Cursor positioned at a given project
+     * @param project last seen project
+     */
+    public static ProjectCursor of(Project project) {
+        return new ProjectCursor(project.getProjectName(), project.getUuid());
+    }
+
+    /**
+     * Encode as an opaque url-safe string
+     * @see ProjectCursor#decode(String)
+     */
+    public String encode() {
+        byte[] name = projectName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(UUID_BYTES + name.length);
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+        buffer.put(name);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    /**
+     * Decode a cursor created by {@link ProjectCursor#encode()}
+     * @param encoded encoded cursor
+     * @return cursor
+     * @throws IllegalArgumentException if the string is not a valid cursor
+     */
+    public static ProjectCursor decode(String encoded) {
+        byte[] data = Base64.getUrlDecoder().decode(encoded);
+        if(data.length < UUID_BYTES) {
+            throw new IllegalArgumentException("invalid cursor length");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        UUID uuid = new UUID(buffer.getLong(), buffer.getLong());
+        String projectName = new String(data, UUID_BYTES, data.length - UUID_BYTES, StandardCharsets.UTF_8);
+        return new ProjectCursor(projectName, uuid);
+    }
+}
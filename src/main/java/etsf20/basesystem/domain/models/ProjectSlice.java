@@ -0,0 +1,13 @@
+package etsf20.basesystem.domain.models;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A page of projects from a keyset paginated listing
+ *
+ * @param projects projects in this page
+ * @param next     cursor to continue from, empty if this is the last page
+ */
+public record ProjectSlice(List<Project> projects, Optional<ProjectCursor> next) {
+}
@@ -0,0 +1,136 @@
+package etsf20.basesystem.domain.repositories;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks the query plans of the repository queries and reports the ones that scan whole tables.
+ *
+ * <p>Runs {@code EXPLAIN} for every query below at startup, a table scan that is not expected usually means
+ * that an index is missing, see {@code /migrations} for how to add one.</p>
+ *
+ * <p><b>Remarks:</b> new repository queries should be added to {@link IndexAdvisor#queries()}.</p>
+ */
+public final class IndexAdvisor {
+    private static final Pattern TABLE_SCAN = Pattern.compile("/\\*\\s*\\w+\\.(\\w+)\\.tableScan");
+
+    /**
+     * A repository query to check
+     * @param name         name used when reporting
+     * @param sql          query as sent by the repository
+     * @param scansAllowed tables that are expected to be scanned, e.g. when listing every row
+     */
+    record Query(String name, String sql, Set<String> scansAllowed) {
+        Query(String name, String sql) {
+            this(name, sql, Set.of());
+        }
+    }
+
+    /**
+     * Query that scans at least one table
+     * @param query    name of the query
+     * @param tables   scanned tables
+     * @param expected true if all scans were expected
+     * @param plan     query plan from the database
+     */
+    public record Finding(String query, Set<String> tables, boolean expected, String plan) {}
+
+    private IndexAdvisor() {
+    }
+
+    /**
+     * All queries issued by the repositories
+     */
+    static List<Query> queries() {
+        return List.of(
+                new Query("notes.list", NoteRepository.SELECT_NOTES + "WHERE notes.username = ? ORDER BY timestamp DESC LIMIT ?"),
+                new Query("notes.page", NoteRepository.pageQuery(false, false)),
+                new Query("notes.pageAfter", NoteRepository.pageQuery(true, false)),
+                new Query("notes.get", NoteRepository.GET_NOTE),
+                new Query("notes.delete", NoteRepository.DELETE_NOTE),
+                new Query("notes.search", NoteRepository.searchQuery(2)),
+                new Query("notes.searchCount", NoteRepository.COUNT_DOCUMENTS),
+                new Query("noteSearch.document", NoteSearchIndex.GET_DOCUMENT),
+                new Query("noteSearch.terms", NoteSearchIndex.GET_TERMS),
+                new Query("noteSearch.deleteUnused", NoteSearchIndex.DELETE_UNUSED_TERMS),
+                new Query("noteSearch.deleteTerms", NoteSearchIndex.DELETE_TERMS),
+                new Query("noteSearch.stats", NoteSearchIndex.GET_STATS),
+                new Query("noteSearch.lockUsers", NoteSearchIndex.LOCK_USERS),
+                new Query("projects.list", ProjectRepository.SELECT_PROJECTS + " ORDER BY projectName ASC", Set.of("PROJECTS")),
+                new Query("projects.page", ProjectRepository.pageQuery(false, false)),
+                new Query("projects.pageAfter", ProjectRepository.pageQuery(false, true)),
+                new Query("projects.memberPage", ProjectRepository.pageQuery(true, false)),
+                new Query("projects.memberPageAfter", ProjectRepository.pageQuery(true, true)),
+                new Query("projects.get", ProjectRepository.GET_PROJECT),
+                new Query("users.get", UserRepository.GET_USER),
+                new Query("users.replacePasswordHash", UserRepository.REPLACE_PASSWORD_HASH),
+                new Query("users.list", UserRepository.SELECT_USERS + " ORDER BY username", Set.of("USERS")),
+                // few roles and few users, an index would not be selective
+                new Query("users.listByRole", UserRepository.SELECT_USERS + " WHERE role = ? ORDER BY username", Set.of("USERS")),
+                new Query("userProjects.exists", UserProjectRepository.MEMBER_EXISTS),
+                new Query("userProjects.remove", UserProjectRepository.REMOVE_MEMBER),
+                new Query("userProjects.usersForProject", UserProjectRepository.USERS_FOR_PROJECT),
+                new Query("userProjects.projectsForUser", UserProjectRepository.PROJECTS_FOR_USER),
+                new Query("userProjects.projectUuidsForUser", UserProjectRepository.PROJECT_UUIDS_FOR_USER)
+        );
+    }
+
+    /**
+     * Explain all repository queries and log the ones that scan tables
+     * @param conn connection to a database with the current schema
+     * @return queries that scan at least one table
+     * @throws SQLException if a query could not be explained, e.g. the schema is out of date
+     */
+    public static List<Finding> run(Connection conn) throws SQLException {
+        Logger logger = LoggerFactory.getLogger(IndexAdvisor.class);
+        List<Finding> findings = analyze(conn, queries());
+
+        for (Finding finding : findings) {
+            if(finding.expected()) {
+                logger.debug("Query {} scans {} as expected", finding.query(), finding.tables());
+            } else {
+                logger.warn("Query {} scans {}, consider adding an index:\n{}", finding.query(), finding.tables(), finding.plan());
+            }
+        }
+
+        if(findings.stream().allMatch(Finding::expected)) {
+            logger.info("Index advisor checked {} queries, no unexpected table scans", queries().size());
+        }
+
+        return findings;
+    }
+
+    static List<Finding> analyze(Connection conn, List<Query> queries) throws SQLException {
+        List<Finding> findings = new ArrayList<>();
+        try(Statement stmt = conn.createStatement()) {
+            for (Query query : queries) {
+                String plan;
+                try(ResultSet rs = stmt.executeQuery("EXPLAIN " + query.sql())) {
+                    plan = rs.next() ? rs.getString(1) : "";
+                }
+
+                Set<String> scanned = new TreeSet<>();
+                Matcher matcher = TABLE_SCAN.matcher(plan);
+                while(matcher.find()) {
+                    scanned.add(matcher.group(1));
+                }
+
+                if(!scanned.isEmpty()) {
+                    findings.add(new Finding(query.name(), scanned, query.scansAllowed().containsAll(scanned), plan));
+                }
+            }
+        }
+        return findings;
+    }
+}
@@ -1,6 +1,8 @@
 package etsf20.basesystem.domain.repositories;
 
 import etsf20.basesystem.domain.models.Note;
+import etsf20.basesystem.domain.models.NoteCursor;
+import etsf20.basesystem.domain.models.NoteSlice;
 import etsf20.basesystem.persistance.Database;
 import etsf20.basesystem.persistance.DatabaseException;
 
@@ -8,9 +10,38 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Instant;
 import java.util.*;
+import java.util.function.Consumer;
 
 
 public class NoteRepository extends BaseRepository {
+    /**
+     * Columns of {@link Note} joined with the owner, append the WHERE clause
+     */
+    static final String SELECT_NOTES = "SELECT note_uuid, timestamp, users.username, displayName, title, body " +
+                                       "FROM notes " +
+                                       "JOIN users USING (username) ";
+
+    static final String GET_NOTE = SELECT_NOTES + "WHERE note_uuid = ?";
+
+    static final String DELETE_NOTE = "DELETE FROM notes " +
+                                      "WHERE note_uuid = ? " +
+                                      "AND (username = ? " +
+                                           "OR EXISTS (SELECT username FROM users WHERE users.username = ? AND role = 'ADMIN')" +
+                                      ")";
+
+    /**
+     * BM25 parameters, term frequency saturation and length normalization
+     */
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    /**
+     * Upper bound of distinct terms in a search query
+     */
+    static final int MAX_QUERY_TERMS = 8;
+
+    static final String COUNT_DOCUMENTS = "SELECT COALESCE(SUM(documents), 0) FROM note_term_counts " +
+                                          "WHERE username = ? AND term >= ? AND term < ?";
 
     public NoteRepository(Database db) {
         super(db);
@@ -23,12 +54,14 @@ public class NoteRepository extends BaseRepository {
      * @return UUID for created journal note
      */
     public UUID create(Note note) {
-        return db.insertWithGenerated("notes",
+        UUID uuid = db.insertWithGenerated("notes",
                 Map.of("username", note.getUserName(),
                        "title", note.getTitle(),
                        "body", note.getBody()
                 ), rs -> UUID.fromString(rs.getString("note_uuid"))
         );
+        NoteSearchIndex.add(db, uuid, note.getUserName(), note.getTitle(), note.getBody());
+        return uuid;
     }
 
     /**
@@ -60,22 +93,16 @@ public class NoteRepository extends BaseRepository {
     /**
      * List all notes
      *
+     * <p><b>Remarks:</b> the database has to walk past every skipped row, use
+     * {@link NoteRepository#list(String, NoteCursor, int, boolean)} for paging through many notes.</p>
+     *
      * @param limit the maximum number of entries to return, -1 for no limit
      * @param offset the starting position
      * @param ascending sorting by ascending timestamp or descending
      * @return list of journal entries
      */
     public List<Note> list(String username, int limit, int offset, boolean ascending) {
-        String sql = "SELECT " +
-                     "note_uuid, " +
-                     "timestamp, " +
-                     "users.username, " +
-                     "displayName, " +
-                     "title, " +
-                     "body " +
-                     "FROM notes "+
-                     "JOIN users USING (username) " +
-                     "WHERE notes.username = ?";
+        String sql = SELECT_NOTES + "WHERE notes.username = ?";
 
         ArrayList<Object> params = new ArrayList<>();
         params.add(username);
@@ -100,6 +127,86 @@ public class NoteRepository extends BaseRepository {
         return db.list(sql, this::mapNote, params.toArray());
     }
 
+    /**
+     * List a page of notes using keyset pagination
+     *
+     * <p>Notes are ordered by timestamp and uuid, the uuid breaks ties between notes with the same timestamp.
+     * The database seeks directly to the cursor, the cost of a page does not depend on how deep into the list it is.</p>
+     *
+     * @param username owner of the notes
+     * @param after cursor to continue from, null for the first page
+     * @param limit the maximum number of entries to return, must be positive
+     * @param ascending sorting by ascending timestamp or descending
+     * @return page of notes with a cursor to the next page if there are more notes
+     */
+    public NoteSlice list(String username, NoteCursor after, int limit, boolean ascending) {
+        if(limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+
+        ArrayList<Object> params = new ArrayList<>();
+        params.add(username);
+
+        if(after != null) {
+            params.add(after.timestamp());
+            params.add(after.timestamp());
+            params.add(after.uuid());
+        }
+
+        // Fetch one extra to know if there is a next page
+        params.add(limit + 1);
+
+        String sql = pageQuery(after != null, ascending);
+        List<Note> notes = db.list(sql, this::mapNote, params.toArray());
+        if(notes.size() > limit) {
+            notes = notes.subList(0, limit);
+            return new NoteSlice(notes, Optional.of(NoteCursor.of(notes.get(limit - 1))));
+        }
+
+        return new NoteSlice(notes, Optional.empty());
+    }
+
+    /**
+     * SQL for a page of notes, parameters are username, the cursor (timestamp, timestamp, uuid) if any and the limit
+     * @param after if the page continues after a cursor
+     * @param ascending sorting by ascending timestamp or descending
+     */
+    static String pageQuery(boolean after, boolean ascending) {
+        String sql = SELECT_NOTES + "WHERE notes.username = ?";
+
+        if(after) {
+            // Expanded form of (timestamp, note_uuid) > (?, ?) which allows the index on timestamp to be used
+            String op = ascending ? ">" : "<";
+            sql += " AND (timestamp " + op + " ? OR (timestamp = ? AND note_uuid " + op + " ?))";
+        }
+
+        if(ascending) {
+            sql += " ORDER BY timestamp ASC, note_uuid ASC";
+        } else {
+            sql += " ORDER BY timestamp DESC, note_uuid DESC";
+        }
+
+        return sql + " LIMIT ?";
+    }
+
+    /**
+     * Visit all notes one at a time
+     *
+     * <p>Intended for exports and other operations on every note, memory use does not grow with the number of notes.</p>
+     *
+     * @param username owner of the notes
+     * @param ascending sorting by ascending timestamp or descending
+     * @param consumer receives each note in order
+     * @return number of notes visited
+     */
+    public int forEach(String username, boolean ascending, Consumer<Note> consumer) {
+        String sql = SELECT_NOTES +
+                     "WHERE notes.username = ? " +
+                     (ascending ? "ORDER BY timestamp ASC" : "ORDER BY timestamp DESC");
+
+        return db.forEach(sql, this::mapNote, consumer, username);
+    }
+
     /**
      * Get a note
      *
@@ -107,12 +214,7 @@ public class NoteRepository extends BaseRepository {
      * @return note if it could be found
      */
     public Optional<Note> get(UUID uuid) {
-        String sql = "SELECT note_uuid, timestamp, users.username, displayName, title, body " +
-                "FROM notes " +
-                "JOIN users USING (username) " +
-                "WHERE note_uuid = ?";
-
-        return db.findFirst(sql, this::mapNote, uuid.toString());
+        return db.findFirst(GET_NOTE, this::mapNote, uuid.toString());
     }
 
     /**
@@ -139,7 +241,16 @@ public class NoteRepository extends BaseRepository {
         changes.put("body", note.getBody());
         changes.put("timestamp", now);
 
-        return db.update("notes", Map.of("note_uuid", note.getUuid()), changes);
+        if(!db.update("notes", Map.of("note_uuid", note.getUuid()), changes)) {
+            return false;
+        }
+
+        // The owner is not part of the update, the indexed owner is preferred over the one in the note object
+        Optional<NoteSearchIndex.Document> document = NoteSearchIndex.document(db, note.getUuid());
+        document.ifPresent(doc -> NoteSearchIndex.remove(db, note.getUuid(), doc));
+        NoteSearchIndex.add(db, note.getUuid(), document.map(NoteSearchIndex.Document::username).orElse(note.getUserName()),
+                            note.getTitle(), note.getBody());
+        return true;
     }
 
     /**
@@ -150,17 +261,139 @@ public class NoteRepository extends BaseRepository {
      * @return true if note was found and deleted, false if not found or user does not have permission
      */
     public boolean delete(String user, UUID uuid) {
-        try(var stmt = db.prepare("DELETE FROM notes "+
-                       "WHERE note_uuid = ? " +
-                       "AND (username = ? " +
-                            "OR EXISTS (SELECT username FROM users WHERE users.username = ? AND role = 'ADMIN')" +
-                       ")")) {
-            stmt.setString(1, uuid.toString());
-            stmt.setString(2, user);
-            stmt.setString(3, user);
-            return stmt.executeUpdate() > 0;
-        } catch (SQLException ex) {
+        try {
+            Optional<NoteSearchIndex.Document> document = NoteSearchIndex.document(db, uuid);
+            if(db.execute(DELETE_NOTE, uuid.toString(), user, user) == 0) {
+                return false;
+            }
+
+            // The cascade has already removed the postings with the note, remove adjusts the counts and totals
+            document.ifPresent(doc -> NoteSearchIndex.remove(db, uuid, doc));
+            return true;
+        } catch (DatabaseException ex) {
             throw new DatabaseException("failed to delete note", ex);
         }
     }
+
+    /**
+     * Search notes by words in the title or body
+     *
+     * <p>Every word in the query is matched as a prefix, "arch" finds notes containing "architecture". Notes
+     * matching any of the words are ranked by BM25, words that are rare among the user's notes and notes where
+     * the words make up a larger part of the text rank higher. Words in the title count twice.</p>
+     *
+     * <p><b>Remarks:</b> the cost grows with the number of notes containing the words, a short prefix of a
+     * common word can match most notes of a user.</p>
+     *
+     * @param username owner of the notes
+     * @param query words to search for, at most {@value #MAX_QUERY_TERMS} distinct words are used
+     * @param limit the maximum number of entries to return, must be positive
+     * @return notes ordered by relevance, most relevant first
+     */
+    public List<Note> search(String username, String query, int limit) {
+        if(limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+
+        List<String> words = NoteSearchIndex.tokenize(query).stream()
+                                             .distinct()
+                                             .limit(MAX_QUERY_TERMS)
+                                             .toList();
+
+        // A word that starts with another query word would count the same terms twice
+        List<String> terms = words.stream()
+                                  .filter(word -> words.stream().noneMatch(other -> !other.equals(word) && matches(other, word)))
+                                  .toList();
+        if(terms.isEmpty()) {
+            return List.of();
+        }
+
+        NoteSearchIndex.Stats stats = NoteSearchIndex.stats(db, username);
+        if(stats.documents() == 0) {
+            return List.of();
+        }
+
+        ArrayList<Object> params = new ArrayList<>();
+        params.add(stats.averageLength());
+        int matched = 0;
+        for (String term : terms) {
+            List<String> range = termRange(term);
+            long df = db.findSingle(COUNT_DOCUMENTS, rs -> rs.getLong(1), username, range.get(0), range.get(1));
+            if(df == 0) {
+                continue;
+            }
+
+            // A prefix is weighted as one term occurring in every note that contains any of its completions
+            df = Math.min(df, stats.documents());
+            params.add(Math.log(1 + (stats.documents() - df + 0.5) / (df + 0.5)));
+            params.add(username);
+            params.addAll(range);
+            matched++;
+        }
+        if(matched == 0) {
+            return List.of();
+        }
+        params.add(limit);
+
+        return db.list(searchQuery(matched), this::mapNote, params.toArray());
+    }
+
+    /**
+     * Check if a query term matches an indexed term, single character terms must match exactly and longer terms
+     * match as prefixes
+     */
+    static boolean matches(String queryTerm, String term) {
+        return queryTerm.length() > 1 ? term.startsWith(queryTerm) : term.equals(queryTerm);
+    }
+
+    /**
+     * Range of indexed terms matched by a query term, lower bound inclusive and upper bound exclusive
+     */
+    static List<String> termRange(String queryTerm) {
+        if(queryTerm.length() == 1) {
+            return List.of(queryTerm, queryTerm + '\0');
+        }
+
+        // Terms are compared by character, increasing the last character gives the first string after the prefix.
+        // The largest character can not be increased, it is dropped and the character before it is increased instead.
+        int end = queryTerm.length();
+        while (end > 0 && queryTerm.charAt(end - 1) == Character.MAX_VALUE) {
+            end--;
+        }
+        if(end == 0) {
+            // Longer than any term and sorted after every term starting with the prefix
+            return List.of(queryTerm, String.valueOf(Character.MAX_VALUE).repeat(NoteSearchIndex.MAX_TERM_LENGTH + 1));
+        }
+        return List.of(queryTerm, queryTerm.substring(0, end - 1) + (char) (queryTerm.charAt(end - 1) + 1));
+    }
+
+    /**
+     * SQL for a search, parameters are the average note length, for each term its idf, username and range (see
+     * {@link NoteRepository#termRange(String)}) and the limit
+     * @param terms number of query terms
+     */
+    static String searchQuery(int terms) {
+        // One index range per term, the database can not use the index for an OR of ranges or LIKE with a parameter
+        StringJoiner postings = new StringJoiner(" UNION ALL ");
+        for (int i = 0; i < terms; i++) {
+            postings.add("SELECT note_uuid, tf, length, CAST(? AS DOUBLE) AS idf FROM note_terms " +
+                         "WHERE username = ? AND term >= ? AND term < ?");
+        }
+
+        String ranked = "SELECT p.note_uuid, " +
+                        "SUM(p.idf * p.tf * " + (K1 + 1) + " / " +
+                        "(p.tf + " + K1 + " * (" + (1 - B) + " + " + B + " * p.length / s.avgdl))) AS score " +
+                        "FROM (SELECT GREATEST(CAST(? AS DOUBLE), 1) AS avgdl) s, " +
+                        "(" + postings + ") p " +
+                        "GROUP BY p.note_uuid " +
+                        "ORDER BY score DESC, p.note_uuid " +
+                        "LIMIT ?";
+
+        // Only the top ranked notes are joined with their text
+        return "SELECT notes.note_uuid, timestamp, users.username, displayName, title, body " +
+               "FROM (" + ranked + ") ranked " +
+               "JOIN notes ON notes.note_uuid = ranked.note_uuid " +
+               "JOIN users ON users.username = notes.username " +
+               "ORDER BY ranked.score DESC, notes.note_uuid";
+    }
 }
@@ -0,0 +1,303 @@
+package etsf20.basesystem.domain.repositories;
+
+import etsf20.basesystem.persistance.Database;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Inverted index over note titles and bodies, used by {@link NoteRepository#search(String, String, int)}.
+ *
+ * <p>Text is split into lower case terms of letters and digits. Every note has one row per distinct term in
+ * {@code note_terms} with the number of occurrences, words in the title count {@value #TITLE_WEIGHT} times. The
+ * number of notes containing each term and the number of notes and total length per user are kept up to date for
+ * BM25 ranking.</p>
+ *
+ * <p>The index is updated in the same transaction as the note by {@link NoteRepository}, notes inserted in other
+ * ways are indexed at startup by {@link NoteSearchIndex#indexMissing(Connection)}.</p>
+ */
+public final class NoteSearchIndex {
+    /**
+     * Occurrences of a word in the title are counted this many times
+     */
+    static final int TITLE_WEIGHT = 2;
+
+    /**
+     * Longer terms are truncated, matches the size of {@code note_terms.term}
+     */
+    static final int MAX_TERM_LENGTH = 40;
+
+    private static final int BACKFILL_BATCH = 500;
+
+    // Statements take one array per column so that a whole batch of notes is written at once
+
+    static final String INSERT_TERMS = "INSERT INTO note_terms(username, note_uuid, length, term, tf) " +
+                                       "SELECT * FROM TABLE(username VARCHAR(60) = ?, note_uuid UUID = ?, length INT = ?, " +
+                                       "term VARCHAR(40) = ?, tf INT = ?)";
+
+    /**
+     * Serializes updates of the counts per user, MERGE is not atomic and two transactions adding the same new term
+     * would otherwise both insert it. Rows are locked in username order so that batches can not deadlock.
+     */
+    static final String LOCK_USERS = "SELECT username FROM users WHERE username = ANY(?) ORDER BY username FOR UPDATE";
+
+    static final String ADD_TERM_COUNTS = "MERGE INTO note_term_counts c " +
+                                          "USING TABLE(username VARCHAR(60) = ?, term VARCHAR(40) = ?, documents INT = ?) d " +
+                                          "ON c.username = d.username AND c.term = d.term " +
+                                          "WHEN MATCHED THEN UPDATE SET documents = c.documents + d.documents " +
+                                          "WHEN NOT MATCHED THEN INSERT VALUES (d.username, d.term, d.documents)";
+
+    static final String DELETE_UNUSED_TERMS = "DELETE FROM note_term_counts " +
+                                              "WHERE username = ? AND term = ANY(?) AND documents <= 0";
+
+    static final String INSERT_DOCUMENTS = "INSERT INTO note_documents(note_uuid, username, length) " +
+                                           "SELECT * FROM TABLE(note_uuid UUID = ?, username VARCHAR(60) = ?, length INT = ?)";
+
+    static final String GET_DOCUMENT = "SELECT username, length FROM note_documents WHERE note_uuid = ?";
+
+    static final String GET_TERMS = "SELECT term FROM note_terms WHERE note_uuid = ?";
+
+    static final String DELETE_TERMS = "DELETE FROM note_terms WHERE note_uuid = ?";
+
+    static final String DELETE_DOCUMENT = "DELETE FROM note_documents WHERE note_uuid = ?";
+
+    static final String ADD_STATS = "MERGE INTO note_search_stats s " +
+                                    "USING TABLE(username VARCHAR(60) = ?, documents BIGINT = ?, total_length BIGINT = ?) d " +
+                                    "ON s.username = d.username " +
+                                    "WHEN MATCHED THEN UPDATE SET documents = s.documents + d.documents, " +
+                                    "total_length = s.total_length + d.total_length " +
+                                    "WHEN NOT MATCHED THEN INSERT VALUES (d.username, d.documents, d.total_length)";
+
+    static final String GET_STATS = "SELECT documents, total_length FROM note_search_stats WHERE username = ?";
+
+    /**
+     * Next batch of notes that are not indexed, in uuid order so that each batch continues where the previous ended
+     */
+    private static final String UNINDEXED_NOTES = "SELECT note_uuid, username, title, body FROM notes " +
+                                                  "WHERE note_uuid >= ? " +
+                                                  "AND NOT EXISTS (SELECT 1 FROM note_documents d WHERE d.note_uuid = notes.note_uuid) " +
+                                                  "ORDER BY note_uuid " +
+                                                  "LIMIT " + BACKFILL_BATCH;
+
+    /**
+     * Text of a note to index
+     */
+    record Text(UUID uuid, String username, String title, String body) {}
+
+    /**
+     * Indexed note
+     * @param username owner
+     * @param length   number of indexed words, title words counted {@value #TITLE_WEIGHT} times
+     * @param terms    distinct terms
+     */
+    record Document(String username, int length, List<String> terms) {}
+
+    /**
+     * Number of notes and their total length for a user
+     */
+    record Stats(long documents, long totalLength) {
+        double averageLength() {
+            return documents == 0 ? 0.0 : (double) totalLength / documents;
+        }
+    }
+
+    private NoteSearchIndex() {
+    }
+
+    /**
+     * Split text into search terms
+     * @param text text to split
+     * @return lower case terms in order of appearance, including duplicates
+     */
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        int i = 0;
+        int n = text.length();
+        while (i < n) {
+            while (i < n && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < n && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if(i > start) {
+                String term = text.substring(start, Math.min(i, start + MAX_TERM_LENGTH)).toLowerCase(Locale.ROOT);
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Add a note to the index
+     */
+    static void add(Database db, UUID note, String username, String title, String body) {
+        add(db, List.of(new Text(note, username, title, body)));
+    }
+
+    /**
+     * Add notes to the index
+     */
+    static void add(Database db, List<Text> notes) {
+        List<Object> postings = new ArrayList<>();
+        List<Object> documents = new ArrayList<>();
+        Totals totals = new Totals();
+        for (Text note : notes) {
+            Map<String, Integer> frequencies = new LinkedHashMap<>();
+            int length = 0;
+            for (String term : tokenize(note.title())) {
+                frequencies.merge(term, TITLE_WEIGHT, Integer::sum);
+                length += TITLE_WEIGHT;
+            }
+            for (String term : tokenize(note.body())) {
+                frequencies.merge(term, 1, Integer::sum);
+                length++;
+            }
+
+            for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                postings.add(new Object[] {note.username(), note.uuid(), length, entry.getKey(), entry.getValue()});
+                totals.addTerm(note.username(), entry.getKey(), 1);
+            }
+            totals.addDocument(note.username(), 1, length);
+            documents.add(new Object[] {note.uuid(), note.username(), length});
+        }
+
+        if(!postings.isEmpty()) {
+            db.execute(INSERT_TERMS, columns(postings, 5));
+        }
+        if(!documents.isEmpty()) {
+            db.execute(INSERT_DOCUMENTS, columns(documents, 3));
+        }
+        totals.write(db);
+    }
+
+    /**
+     * Get an indexed note, must be called before the note is deleted
+     */
+    static Optional<Document> document(Database db, UUID note) {
+        return db.findFirst(GET_DOCUMENT, rs -> new Document(rs.getString(1), rs.getInt(2), List.of()), note)
+                 .map(doc -> new Document(doc.username(), doc.length(),
+                                          db.list(GET_TERMS, rs -> rs.getString(1), note)));
+    }
+
+    /**
+     * Remove a note from the index, also after the note has been deleted
+     *
+     * <p>When a note is updated its postings are deleted here, when it is deleted the cascade has already removed
+     * them and only the counts and totals change.</p>
+     *
+     * @param document indexed note, see {@link NoteSearchIndex#document(Database, UUID)}
+     */
+    static void remove(Database db, UUID note, Document document) {
+        Totals totals = new Totals();
+        for (String term : document.terms()) {
+            totals.addTerm(document.username(), term, -1);
+        }
+        totals.addDocument(document.username(), -1, -document.length());
+        totals.write(db);
+
+        if(!document.terms().isEmpty()) {
+            db.execute(DELETE_UNUSED_TERMS, document.username(), document.terms().toArray(new String[0]));
+        }
+        db.execute(DELETE_TERMS, note);
+        db.execute(DELETE_DOCUMENT, note);
+    }
+
+    /**
+     * Changes to the term counts and per user totals, summed before they are written
+     */
+    private static final class Totals {
+        private final Map<String, Map<String, Integer>> terms = new LinkedHashMap<>();
+        private final Map<String, long[]> users = new LinkedHashMap<>();
+
+        private void addTerm(String username, String term, int documents) {
+            terms.computeIfAbsent(username, u -> new LinkedHashMap<>()).merge(term, documents, Integer::sum);
+        }
+
+        private void addDocument(String username, int documents, int length) {
+            long[] total = users.computeIfAbsent(username, u -> new long[2]);
+            total[0] += documents;
+            total[1] += length;
+        }
+
+        private void write(Database db) {
+            if(!users.isEmpty()) {
+                db.list(LOCK_USERS, rs -> rs.getString(1), (Object) users.keySet().toArray(new String[0]));
+            }
+
+            List<Object> termRows = new ArrayList<>();
+            terms.forEach((username, counts) -> counts.forEach(
+                    (term, documents) -> termRows.add(new Object[] {username, term, documents})));
+            if(!termRows.isEmpty()) {
+                db.execute(ADD_TERM_COUNTS, columns(termRows, 3));
+            }
+
+            List<Object> userRows = new ArrayList<>();
+            users.forEach((username, total) -> userRows.add(new Object[] {username, total[0], total[1]}));
+            if(!userRows.isEmpty()) {
+                db.execute(ADD_STATS, columns(userRows, 3));
+            }
+        }
+    }
+
+    /**
+     * Transpose rows to one array per column, the parameters of the statements above
+     */
+    private static Object[] columns(List<Object> rows, int width) {
+        Object[] columns = new Object[width];
+        for (int c = 0; c < width; c++) {
+            Object[] column = new Object[rows.size()];
+            for (int r = 0; r < rows.size(); r++) {
+                column[r] = ((Object[]) rows.get(r))[c];
+            }
+            columns[c] = column;
+        }
+        return columns;
+    }
+
+    /**
+     * Get the number of indexed notes of a user and their total length
+     */
+    static Stats stats(Database db, String username) {
+        return db.findFirst(GET_STATS, rs -> new Stats(rs.getLong(1), rs.getLong(2)), username)
+                 .orElse(new Stats(0, 0));
+    }
+
+    /**
+     * Index all notes that are not in the index, e.g. notes created before the index existed
+     * @param conn connection, changes are committed
+     * @return number of indexed notes
+     * @throws SQLException if the notes could not be indexed
+     */
+    public static int indexMissing(Connection conn) throws SQLException {
+        Database db = new Database(conn);
+        int count = 0;
+        UUID after = new UUID(0, 0);
+        while (true) {
+            List<Text> notes = db.list(UNINDEXED_NOTES, rs -> new Text(
+                    rs.getObject(1, UUID.class), rs.getString(2), rs.getString(3), rs.getString(4)), after);
+            if(notes.isEmpty()) {
+                break;
+            }
+
+            add(db, notes);
+            conn.commit();
+            count += notes.size();
+            after = notes.get(notes.size() - 1).uuid();
+        }
+
+        if(count > 0) {
+            LoggerFactory.getLogger(NoteSearchIndex.class).info("Indexed {} notes for search", count);
+        }
+        return count;
+    }
+}
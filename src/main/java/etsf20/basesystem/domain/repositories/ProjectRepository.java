@@ -2,6 +2,8 @@ package etsf20.basesystem.domain.repositories;
 
 import etsf20.basesystem.domain.models.Note;
 import etsf20.basesystem.domain.models.Project;
+import etsf20.basesystem.domain.models.ProjectCursor;
+import etsf20.basesystem.domain.models.ProjectSlice;
 import etsf20.basesystem.persistance.Database;
 import etsf20.basesystem.persistance.DatabaseException;
 
@@ -11,9 +13,36 @@ import java.time.Instant;
 import java.util.*;
 
 public class ProjectRepository extends BaseRepository {
+	static final String SELECT_PROJECTS = "SELECT project_uuid, projectName, description FROM projects";
+
+	static final String GET_PROJECT = SELECT_PROJECTS + " WHERE project_uuid = ?";
+
+	private final RepositoryCaches caches;
 
 	public ProjectRepository(Database db) {
+		this(db, RepositoryCaches.NONE);
+	}
+
+	public ProjectRepository(Database db, RepositoryCaches caches) {
 		super(db);
+		this.caches = caches;
+	}
+
+	/**
+	 * Drop cached data for a project, now and once the change is committed
+	 *
+	 * <p>The second invalidation removes values loaded by other requests before the change was visible to them.
+	 * Until then the project is read from the database so that uncommitted data never ends up in the cache.</p>
+	 */
+	private void invalidate(UUID uuid) {
+		db.changed(RepositoryCaches.PROJECTS).add(uuid);
+		db.changed(RepositoryCaches.PROJECT_MEMBERS).add(uuid);
+		caches.projects().invalidate(uuid);
+		caches.projectMembers().invalidate(uuid);
+		db.afterCommit(() -> {
+			caches.projects().invalidate(uuid);
+			caches.projectMembers().invalidate(uuid);
+		});
 	}
 
 	public UUID create(Project project) {
@@ -45,7 +74,7 @@ public class ProjectRepository extends BaseRepository {
 	 * @return list of projects
 	 */
 	public List<Project> list(int limit, int offset, boolean ascending) {
-		String sql = "SELECT " + "project_uuid, " + "projectName, " + "description " + "FROM projects";
+		String sql = SELECT_PROJECTS;
 
 		if (ascending) {
 			sql += " ORDER BY projectName ASC";
@@ -68,23 +97,91 @@ public class ProjectRepository extends BaseRepository {
 		return db.list(sql, this::mapProject, params.toArray());
 	}
 
+	/**
+	 * List a page of projects ordered by name using keyset pagination
+	 *
+	 * <p>Only the projects visible to the caller are read, filtered by membership in the database, and one page is
+	 * loaded with a single query. The uuid breaks ties between projects with the same name.</p>
+	 *
+	 * @param member username whose projects to list, null to list all projects
+	 * @param after  cursor to continue from, null for the first page
+	 * @param limit  the maximum number of entries to return, must be positive
+	 * @return page of projects with a cursor to the next page if there are more projects
+	 */
+	public ProjectSlice list(String member, ProjectCursor after, int limit) {
+		if (limit < 1) {
+			throw new IllegalArgumentException("limit must be positive");
+		}
+
+		ArrayList<Object> params = new ArrayList<>();
+		if (member != null) {
+			params.add(member);
+		}
+
+		if (after != null) {
+			params.add(after.projectName());
+			params.add(after.projectName());
+			params.add(after.uuid());
+		}
+
+		// Fetch one extra to know if there is a next page
+		params.add(limit + 1);
+
+		List<Project> projects = db.list(pageQuery(member != null, after != null), this::mapProject, params.toArray());
+		if (projects.size() > limit) {
+			projects = projects.subList(0, limit);
+			return new ProjectSlice(projects, Optional.of(ProjectCursor.of(projects.get(limit - 1))));
+		}
+
+		return new ProjectSlice(projects, Optional.empty());
+	}
+
+	/**
+	 * SQL for a page of projects, parameters are the member username if any, the cursor (name, name, uuid) if any
+	 * and the limit
+	 * @param member if only projects with a given member are listed
+	 * @param after  if the page continues after a cursor
+	 */
+	static String pageQuery(boolean member, boolean after) {
+		String sql;
+		if (member) {
+			sql = "SELECT p.project_uuid, p.projectName, p.description FROM user_projects up "
+					+ "JOIN projects p ON p.project_uuid = up.project_uuid WHERE up.username = ?";
+		} else {
+			sql = SELECT_PROJECTS + " p";
+		}
+
+		if (after) {
+			// Expanded form of (projectName, project_uuid) > (?, ?) which allows the name index to be used
+			sql += (member ? " AND" : " WHERE") + " (p.projectName > ? OR (p.projectName = ? AND p.project_uuid > ?))";
+		}
+
+		return sql + " ORDER BY p.projectName ASC, p.project_uuid ASC LIMIT ?";
+	}
+
 	/**
 	 * Get a project
 	 *
+	 * <p><b>Remarks:</b> served from the project cache when possible, the returned project is a copy that may be
+	 * changed freely.</p>
+	 *
 	 * @param uuid project uuid
 	 * @return project if it could be found
 	 */
 	public Optional<Project> get(UUID uuid) {
-		String sql = "SELECT project_uuid, projectName, description " + "FROM projects " + "WHERE project_uuid = ?";
+		Optional<Project> project = db.isChanged(RepositoryCaches.PROJECTS, uuid) ? load(uuid) : caches.projects().get(uuid, this::load);
+		return project.map(p -> new Project(p.getUuid(), p.getProjectName(), p.getDescription()));
+	}
 
-		return db.findFirst(sql, this::mapProject, uuid.toString());
+	private Optional<Project> load(UUID uuid) {
+		return db.findFirst(GET_PROJECT, this::mapProject, uuid.toString());
 	}
 
 	public boolean delete(UUID uuid) {
-		try (var stmt = db.prepare("DELETE FROM projects " + "WHERE project_uuid = ?")) {
-			stmt.setString(1, uuid.toString());
-			return stmt.executeUpdate() > 0;
-		} catch (SQLException ex) {
+		invalidate(uuid);
+		try {
+			return db.execute("DELETE FROM projects " + "WHERE project_uuid = ?", uuid.toString()) > 0;
+		} catch (DatabaseException ex) {
 			throw new DatabaseException("failed to delete project", ex);
 		}
 	}
@@ -101,6 +198,7 @@ public class ProjectRepository extends BaseRepository {
 	 * @return true if project was found and updated
 	 */
 	public boolean update(Project project, Instant now) {
+		invalidate(project.getUuid());
 		Map<String, Object> changes = new HashMap<>();
 		changes.put("projectName", project.getProjectName());
 		changes.put("description", project.getDescription());
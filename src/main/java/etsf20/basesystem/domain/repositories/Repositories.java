@@ -7,13 +7,19 @@ import java.sql.Connection;
 
 public class Repositories {
 	private final Database db;
+	private final RepositoryCaches caches;
 	private NoteRepository journals;
 	private UserRepository users;
 	private ProjectRepository projects;
 	private UserProjectRepository userProjects;
 
 	public Repositories(Database db) {
+		this(db, RepositoryCaches.NONE);
+	}
+
+	public Repositories(Database db, RepositoryCaches caches) {
 		this.db = db;
+		this.caches = caches;
 	}
 
 	/**
@@ -22,7 +28,7 @@ public class Repositories {
 	 * @param ctx context
 	 */
 	public static Repositories from(Context ctx) {
-		return new Repositories(Database.get(ctx));
+		return new Repositories(Database.get(ctx), ctx.appData(RepositoryCaches.Key));
 	}
 
 	/**
@@ -48,7 +54,7 @@ public class Repositories {
 	 */
 	public UserRepository users() {
 		if (users == null) {
-			this.users = new UserRepository(db);
+			this.users = new UserRepository(db, caches);
 		}
 		return users;
 	}
@@ -65,14 +71,14 @@ public class Repositories {
 
 	public ProjectRepository projects() {
 		if (projects == null) {
-			this.projects = new ProjectRepository(db);
+			this.projects = new ProjectRepository(db, caches);
 		}
 		return projects;
 	}
 
 	public UserProjectRepository userProjects() {
 		if (userProjects == null) {
-			this.userProjects = new UserProjectRepository(db);
+			this.userProjects = new UserProjectRepository(db, caches);
 		}
 		return userProjects;
 	}
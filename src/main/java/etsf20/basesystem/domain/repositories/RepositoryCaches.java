@@ -0,0 +1,108 @@
+package etsf20.basesystem.domain.repositories;
+
+import etsf20.basesystem.Config;
+import etsf20.basesystem.domain.models.Project;
+import etsf20.basesystem.domain.models.User;
+import etsf20.basesystem.domain.models.UserRole;
+import etsf20.basesystem.persistance.ExpiringCache;
+import io.javalin.config.Key;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * In-process caches shared by all requests, kept consistent by the repositories that change the cached data.
+ */
+public class RepositoryCaches {
+    public static final Key<RepositoryCaches> Key = new Key<>("repository.caches");
+
+    /**
+     * Caches that never store anything, used when repositories are created outside a request
+     */
+    public static final RepositoryCaches NONE = new RepositoryCaches(0, Duration.ZERO);
+
+    /**
+     * Names of the sets of keys changed in the current transaction, see {@link etsf20.basesystem.persistance.Database#changed(String)}
+     */
+    static final String PROJECTS = "projects";
+    static final String PROJECT_MEMBERS = "project_members";
+
+    private final ExpiringCache<String, Optional<UserRole>> userRoles;
+    private final ExpiringCache<UUID, Optional<Project>> projects;
+    private final ExpiringCache<UUID, List<User>> projectMembers;
+
+    /**
+     * Caches with the same limits for users and projects
+     * @param cacheSize maximum number of entries per cache
+     * @param cacheTtl  time until a cached entry is loaded again
+     */
+    public RepositoryCaches(int cacheSize, Duration cacheTtl) {
+        this(cacheSize, cacheTtl, cacheSize, cacheTtl);
+    }
+
+    /**
+     * @param userCacheSize    maximum number of cached users
+     * @param userCacheTtl     time until a cached user is loaded again
+     * @param projectCacheSize maximum number of cached projects, and of cached member lists
+     * @param projectCacheTtl  time until a cached project or member list is loaded again
+     */
+    public RepositoryCaches(int userCacheSize, Duration userCacheTtl, int projectCacheSize, Duration projectCacheTtl) {
+        this.userRoles = new ExpiringCache<>(userCacheSize, userCacheTtl);
+        this.projects = new ExpiringCache<>(projectCacheSize, projectCacheTtl);
+        this.projectMembers = new ExpiringCache<>(projectCacheSize, projectCacheTtl);
+    }
+
+    /**
+     * Create caches sized according to configuration
+     */
+    public static RepositoryCaches from(Config config) {
+        return new RepositoryCaches(config.getUserCacheSize(), config.getUserCacheTtl(),
+                                    config.getProjectCacheSize(), config.getProjectCacheTtl());
+    }
+
+    /**
+     * Apply changed cache sizes and expiry, see {@link etsf20.basesystem.ConfigReloader}
+     */
+    public void reconfigure(Config config) {
+        userRoles.resize(config.getUserCacheSize(), config.getUserCacheTtl());
+        projects.resize(config.getProjectCacheSize(), config.getProjectCacheTtl());
+        projectMembers.resize(config.getProjectCacheSize(), config.getProjectCacheTtl());
+    }
+
+    /**
+     * Role of a user by username, empty if the user does not exist
+     */
+    public ExpiringCache<String, Optional<UserRole>> userRoles() {
+        return userRoles;
+    }
+
+    /**
+     * Project by uuid, empty if the project does not exist. Used by {@link ProjectRepository}, which hands out
+     * copies as projects are mutable.
+     */
+    public ExpiringCache<UUID, Optional<Project>> projects() {
+        return projects;
+    }
+
+    /**
+     * Members of a project by project uuid, ordered by display name. Used by {@link UserProjectRepository}.
+     */
+    public ExpiringCache<UUID, List<User>> projectMembers() {
+        return projectMembers;
+    }
+
+    /**
+     * All caches by name, for metrics
+     */
+    public Map<String, ExpiringCache<?, ?>> all() {
+        Map<String, ExpiringCache<?, ?>> caches = new LinkedHashMap<>();
+        caches.put("user_roles", userRoles);
+        caches.put(PROJECTS, projects);
+        caches.put(PROJECT_MEMBERS, projectMembers);
+        return caches;
+    }
+}
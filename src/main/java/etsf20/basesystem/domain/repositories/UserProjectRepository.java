@@ -8,15 +8,47 @@ import etsf20.basesystem.persistance.DatabaseException;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
 
 public class UserProjectRepository extends BaseRepository {
+	static final String MEMBER_EXISTS = "SELECT * FROM user_projects WHERE username = ? AND project_uuid = ?";
+
+	static final String REMOVE_MEMBER = "DELETE FROM user_projects WHERE username = ? AND project_uuid = ?";
+
+	static final String USERS_FOR_PROJECT = "SELECT u.username, u.displayName, u.role " +
+	                                        "FROM user_projects up " +
+	                                        "JOIN users u ON up.username = u.username " +
+	                                        "WHERE up.project_uuid = ? " +
+	                                        "ORDER BY u.displayName ASC";
+
+	static final String PROJECTS_FOR_USER = "SELECT p.project_uuid, p.projectName, p.description " +
+	                                        "FROM user_projects up " +
+	                                        "JOIN projects p ON up.project_uuid = p.project_uuid " +
+	                                        "WHERE up.username = ?";
+
+	static final String PROJECT_UUIDS_FOR_USER = "SELECT project_uuid FROM user_projects WHERE username = ?";
+
+	private final RepositoryCaches caches;
 
 	public UserProjectRepository(Database db) {
+		this(db, RepositoryCaches.NONE);
+	}
+
+	public UserProjectRepository(Database db, RepositoryCaches caches) {
 		super(db);
+		this.caches = caches;
+	}
+
+	/**
+	 * Drop the cached members of a project, now and once the change is committed
+	 *
+	 * <p>Until then the members are read from the database so that uncommitted data never ends up in the cache.</p>
+	 */
+	private void invalidate(UUID projectUuid) {
+		db.changed(RepositoryCaches.PROJECT_MEMBERS).add(projectUuid);
+		caches.projectMembers().invalidate(projectUuid);
+		db.afterCommit(() -> caches.projectMembers().invalidate(projectUuid));
 	}
 
 	/**
@@ -28,23 +60,19 @@ public class UserProjectRepository extends BaseRepository {
 	 */
 	public boolean addUserToProject(String username, UUID projectUuid) {
 		// If user is already in project, return false
-		String sql1 = "SELECT * FROM user_projects WHERE username = ? AND project_uuid = ?";
-		try (var stmt = db.prepare(sql1)) {
-			stmt.setString(1, username);
-			stmt.setString(2, projectUuid.toString());
-			if (stmt.executeQuery().next()) {
+		try {
+			if (db.exists(MEMBER_EXISTS, username, projectUuid.toString())) {
 				return false;
 			}
-		} catch (SQLException ex) {
+		} catch (DatabaseException ex) {
 			throw new DatabaseException("Failed to check if user is already in project", ex);
 		}
 
+		invalidate(projectUuid);
 		String sql2 = "INSERT INTO user_projects (username, project_uuid) VALUES (?, ?)";
-		try (var stmt = db.prepare(sql2)) {
-			stmt.setString(1, username);
-			stmt.setString(2, projectUuid.toString());
-			return stmt.executeUpdate() > 0;
-		} catch (SQLException ex) {
+		try {
+			return db.execute(sql2, username, projectUuid.toString()) > 0;
+		} catch (DatabaseException ex) {
 			throw new DatabaseException("Failed to add user to project", ex);
 		}
 	}
@@ -57,12 +85,10 @@ public class UserProjectRepository extends BaseRepository {
 	 * @return true if deletion was successful
 	 */
 	public boolean removeUserFromProject(String username, UUID projectUuid) {
-		String sql = "DELETE FROM user_projects WHERE username = ? AND project_uuid = ?";
-		try (var stmt = db.prepare(sql)) {
-			stmt.setString(1, username);
-			stmt.setString(2, projectUuid.toString());
-			return stmt.executeUpdate() > 0;
-		} catch (SQLException ex) {
+		invalidate(projectUuid);
+		try {
+			return db.execute(REMOVE_MEMBER, username, projectUuid.toString()) > 0;
+		} catch (DatabaseException ex) {
 			throw new DatabaseException("Failed to remove user from project", ex);
 		}
 	}
@@ -70,17 +96,24 @@ public class UserProjectRepository extends BaseRepository {
 	/**
 	 * Get all users assigned to a project.
 	 *
+	 * <p><b>Remarks:</b> served from the member cache when possible, the returned users are copies that may be
+	 * changed freely.</p>
+	 *
 	 * @param projectUuid The UUID of the project
 	 * @return A list of user IDs and roles
 	 */
 	public List<User> getUsersForProject(UUID projectUuid) {
-	    String sql = "SELECT u.username, u.displayName, u.role " +
-	                 "FROM user_projects up " +
-	                 "JOIN users u ON up.username = u.username " +
-	                 "WHERE up.project_uuid = ? " +
-	                 "ORDER BY u.displayName ASC";
+		List<User> users = db.isChanged(RepositoryCaches.PROJECT_MEMBERS, projectUuid)
+				? loadUsersForProject(projectUuid)
+				: caches.projectMembers().get(projectUuid, this::loadUsersForProject);
+		return users.stream()
+		            .map(user -> new User(user.getUsername(), user.getDisplayName(), user.getRole()))
+		            .toList();
+	}
+
+	private List<User> loadUsersForProject(UUID projectUuid) {
 	    try {
-	        return db.list(sql, rs -> {
+	        return db.list(USERS_FOR_PROJECT, rs -> {
 	            String username = rs.getString("username");
 	            String displayName = rs.getString("displayName");
 	            String roleStr = rs.getString("role");
@@ -97,9 +130,8 @@ public class UserProjectRepository extends BaseRepository {
 
 
 	public List<Project> getProjectsForUser(String username) {
-		String sql = "SELECT p.project_uuid, p.projectName, p.description FROM user_projects up JOIN projects p ON up.project_uuid = p.project_uuid WHERE up.username = ?";
         try {
-            return db.list(sql, this::mapProject, username);
+            return db.list(PROJECTS_FOR_USER, this::mapProject, username);
         } catch (DatabaseException ex) {
             throw new DatabaseException("Failed to fetch projects for user", ex);
         }
@@ -114,17 +146,7 @@ public class UserProjectRepository extends BaseRepository {
 	}
 
 	public List<String> getUsernameForProject(UUID uuid) {
-		String sql = "SELECT u.username, u.displayName \r\n"
-				+ "FROM user_projects up\r\n"
-				+ "JOIN users u ON up.username = u.username\r\n"
-				+ "WHERE up.project_uuid = ?\r\n"
-				+ "ORDER BY u.displayName ASC;\r\n"
-				+ "";
-		try {
-			return db.list(sql, rs -> rs.getString("username"), uuid.toString());
-		} catch (DatabaseException ex) {
-			throw new DatabaseException("Failed to fetch users for project", ex);
-		}
+		return getUsersForProject(uuid).stream().map(User::getUsername).toList();
 	}
 	
 }
\ No newline at end of file
@@ -7,9 +7,51 @@ import etsf20.basesystem.persistance.Database;
 import java.util.*;
 
 public class UserRepository extends BaseRepository {
+    static final String GET_USER = "SELECT username, displayName, hashedPassword, role FROM users WHERE username = ?";
+
+    static final String SELECT_USERS = "SELECT username, displayname, role FROM users";
+
+    static final String REPLACE_PASSWORD_HASH = "UPDATE users SET hashedPassword = ? WHERE username = ? AND hashedPassword = ?";
+
+    private final RepositoryCaches caches;
 
     public UserRepository(Database db) {
+        this(db, RepositoryCaches.NONE);
+    }
+
+    public UserRepository(Database db, RepositoryCaches caches) {
         super(db);
+        this.caches = caches;
+    }
+
+    /**
+     * Drop cached data for a user, now and once the change is committed
+     *
+     * <p>The second invalidation removes values loaded by other requests before the change was visible to them.</p>
+     */
+    private void invalidate(String username) {
+        caches.userRoles().invalidate(username);
+        db.afterCommit(() -> caches.userRoles().invalidate(username));
+    }
+
+    /**
+     * Drop the cached member lists of the projects a user belongs to, they include the display name and role
+     *
+     * <p><b>Remarks:</b> must be called before the user is deleted, the memberships are deleted with the user.</p>
+     */
+    private void invalidateMembers(String username) {
+        if(caches == RepositoryCaches.NONE) {
+            return;
+        }
+
+        List<UUID> projects = db.list(UserProjectRepository.PROJECT_UUIDS_FOR_USER,
+                                      rs -> rs.getObject(1, UUID.class), username);
+        Set<Object> changed = db.changed(RepositoryCaches.PROJECT_MEMBERS);
+        for (UUID project : projects) {
+            changed.add(project);
+            caches.projectMembers().invalidate(project);
+        }
+        db.afterCommit(() -> projects.forEach(caches.projectMembers()::invalidate));
     }
 
     /**
@@ -18,7 +60,7 @@ public class UserRepository extends BaseRepository {
      * @return optional user
      */
     public Optional<User> get(String username) {
-        return db.findFirst("SELECT username, displayName, hashedPassword, role FROM users WHERE username = ?", rs -> {
+        return db.findFirst(GET_USER, rs -> {
             String dbUsername = rs.getString(1);
             String displayName = rs.getString(2);
             String hashedPassword = rs.getString(3);
@@ -31,6 +73,7 @@ public class UserRepository extends BaseRepository {
      * Create new user
      */
     public void create(User user) {
+        invalidate(user.getUsername());
         db.insert("users", Map.of(
                 "username", user.getUsername(),
                 "displayName", user.getDisplayName(),
@@ -55,7 +98,7 @@ public class UserRepository extends BaseRepository {
     public List<User> list(UserRole userRoleFilter) {
         ArrayList<String> params = new ArrayList<>();
 
-        String sql = "SELECT username, displayname, role FROM users";
+        String sql = SELECT_USERS;
         if(userRoleFilter != null) {
             sql += " WHERE role = ?";
             params.add(userRoleFilter.toString());
@@ -75,6 +118,8 @@ public class UserRepository extends BaseRepository {
      * @return true if user was found and updated
      */
     public boolean update(User user) {
+        invalidate(user.getUsername());
+        invalidateMembers(user.getUsername());
         return db.update("users",
                 Map.of("username", user.getUsername()),
                 Map.of("displayname", user.getDisplayName(),
@@ -82,10 +127,27 @@ public class UserRepository extends BaseRepository {
                        "role", user.getRole().toString()));
     }
 
+    /**
+     * Replace the password hash of a user if it has not changed since it was read
+     *
+     * <p><b>Remarks:</b> only the hash is written, changes to other fields made meanwhile are kept. The caches do not
+     * contain password hashes and are left alone.</p>
+     *
+     * @param username     user to update
+     * @param expectedHash hash the user was read with
+     * @param newHash      new hash of the same password
+     * @return true if the hash was replaced, false if the user is gone or the password has been changed
+     */
+    public boolean replacePasswordHash(String username, String expectedHash, String newHash) {
+        return db.execute(REPLACE_PASSWORD_HASH, newHash, username, expectedHash) > 0;
+    }
+
     /**
      * Delete user
      */
     public boolean delete(String username) {
+        invalidate(username);
+        invalidateMembers(username);
         return db.delete("users", Map.of("username", username));
     }
 }
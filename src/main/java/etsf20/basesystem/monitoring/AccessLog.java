@@ -0,0 +1,289 @@
+package etsf20.basesystem.monitoring;
+
+import io.javalin.config.Key;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Access log written by a background thread.
+ *
+ * <p>Request threads only copy the fields of a request into a bounded ring buffer, formatting and writing is done by
+ * a single writer thread. Adding an entry never blocks: if the buffer is full the entry is dropped and counted, see
+ * {@link AccessLog#dropped()}.</p>
+ *
+ * <p>Lines have the format {@code [ 2024-01-01T12:00:00.123Z | 127.0.0.1 |   12.34 ms | 200 ] GET /path}.</p>
+ */
+public final class AccessLog implements AutoCloseable {
+    public static final Key<AccessLog> Key = new Key<>("access.log");
+
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    /**
+     * Time the writer thread sleeps when the buffer is empty
+     */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /**
+     * Minimum time between warnings about dropped entries
+     */
+    private static final long DROP_WARNING_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private static final Logger logger = LoggerFactory.getLogger(AccessLog.class);
+
+    private record Entry(long timeMillis, String ip, float ms, int status, String method, String path) {}
+
+    // Bounded multi-producer ring buffer, each slot has a sequence number telling if it is free or filled
+    private final Entry[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // only used by the writer thread
+
+    private final Writer out;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicLong written = new AtomicLong();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * Create and start access log
+     * @param capacity maximum number of entries waiting to be written, rounded up to a power of two
+     * @param out      where lines are written, closed with the access log
+     */
+    public AccessLog(int capacity, Writer out) {
+        if(capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity out of range: " + capacity);
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if(size < capacity) {
+            size <<= 1;
+        }
+
+        this.slots = new Entry[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.out = out;
+
+        this.writer = new Thread(this::run, "access-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Create access log writing to standard output
+     * @param capacity maximum number of entries waiting to be written
+     */
+    public static AccessLog toStandardOutput(int capacity) {
+        Writer stdout = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        return new AccessLog(capacity, new FilterWriter(stdout) {
+            @Override
+            public void close() throws IOException {
+                flush(); // standard output stays open
+            }
+        });
+    }
+
+    /**
+     * Create access log writing to a file
+     * @param capacity maximum number of entries waiting to be written
+     * @param file     file to append to
+     * @param maxSize  size in bytes that triggers a rotation
+     * @param maxFiles number of rotated files to keep
+     * @throws IOException if the file could not be opened
+     * @see RotatingFileWriter
+     */
+    public static AccessLog toFile(int capacity, Path file, long maxSize, int maxFiles) throws IOException {
+        return new AccessLog(capacity, new RotatingFileWriter(file, maxSize, maxFiles));
+    }
+
+    /**
+     * Add request to the log, never blocks
+     * @param timeMillis time of the request, epoch milliseconds
+     * @param ip         client address
+     * @param ms         time to handle the request in milliseconds
+     * @param status     response status code
+     * @param method     request method
+     * @param path       request path
+     * @return false if the entry was dropped because the buffer is full or the log is closed
+     */
+    public boolean log(long timeMillis, String ip, float ms, int status, String method, String path) {
+        if(!running) {
+            dropped.increment();
+            return false;
+        }
+
+        long pos = tail.get();
+        while(true) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if(diff == 0) {
+                if(tail.compareAndSet(pos, pos + 1)) {
+                    slots[index] = new Entry(timeMillis, ip, ms, status, method, path);
+                    sequences.set(index, pos + 1); // publishes the entry to the writer thread
+                    return true;
+                }
+                pos = tail.get();
+            } else if(diff < 0) {
+                // slot still holds an entry the writer has not taken, the buffer is full
+                dropped.increment();
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    private Entry poll() {
+        int index = (int) head & mask;
+        if(sequences.get(index) != head + 1) {
+            return null;
+        }
+
+        Entry entry = slots[index];
+        slots[index] = null;
+        sequences.set(index, head + slots.length); // free for the producer one lap later
+        head++;
+        return entry;
+    }
+
+    private void run() {
+        StringBuilder line = new StringBuilder(256);
+        char[] chars = new char[256];
+        boolean unflushed = false;
+        long reportedDrops = 0;
+        long lastDropWarning = System.nanoTime() - DROP_WARNING_NANOS;
+
+        while(true) {
+            Entry entry = poll();
+            if(entry == null) {
+                if(unflushed) {
+                    unflushed = !flush();
+                }
+
+                long drops = dropped.sum();
+                if(drops != reportedDrops && System.nanoTime() - lastDropWarning >= DROP_WARNING_NANOS) {
+                    logger.warn("Access log buffer full, dropped {} entries", drops - reportedDrops);
+                    reportedDrops = drops;
+                    lastDropWarning = System.nanoTime();
+                }
+
+                if(!running && tail.get() == head) {
+                    return;
+                }
+
+                LockSupport.parkNanos(IDLE_NANOS);
+                continue;
+            }
+
+            line.setLength(0);
+            format(entry, line);
+            if(chars.length < line.length()) {
+                chars = new char[line.length() * 2];
+            }
+            line.getChars(0, line.length(), chars, 0);
+
+            try {
+                out.write(chars, 0, line.length());
+                written.incrementAndGet();
+                unflushed = true;
+            } catch (IOException e) {
+                failures.increment();
+                if(failures.sum() == 1) {
+                    logger.warn("Failed to write access log", e);
+                }
+            }
+        }
+    }
+
+    private boolean flush() {
+        try {
+            out.flush();
+            return true;
+        } catch (IOException e) {
+            failures.increment();
+            return false;
+        }
+    }
+
+    /**
+     * Format a line
+     * @param entry entry to format
+     * @param line  line to append to
+     */
+    private static void format(Entry entry, StringBuilder line) {
+        line.append("[ ");
+        DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(entry.timeMillis()), line);
+        line.append(" | ").append(entry.ip()).append(" | ");
+
+        // Same as %7s of %5.2f, without the locale dependent formatter
+        long hundredths = Math.round(entry.ms() * 100.0);
+        int start = line.length();
+        line.append(hundredths / 100).append('.');
+        if(hundredths % 100 < 10) {
+            line.append('0');
+        }
+        line.append(hundredths % 100);
+        for (int width = line.length() - start; width < 7; width++) {
+            line.insert(start, ' ');
+        }
+
+        line.append(" ms | ").append(entry.status()).append(" ] ")
+            .append(entry.method()).append(' ')
+            .append(entry.path()).append('\n');
+    }
+
+    /**
+     * Write remaining entries and close the output
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        out.close();
+        if(dropped() > 0) {
+            logger.warn("Access log dropped {} entries in total", dropped());
+        }
+    }
+
+    /** Number of entries dropped because the buffer was full */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /** Number of entries written */
+    public long written() {
+        return written.get();
+    }
+
+    /** Number of failed writes */
+    public long failures() {
+        return failures.sum();
+    }
+}
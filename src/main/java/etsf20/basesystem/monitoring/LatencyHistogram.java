@@ -0,0 +1,123 @@
+package etsf20.basesystem.monitoring;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations with logarithmic buckets.
+ *
+ * <p>Every power of two is split into {@value #SUB_BUCKETS} buckets, so a quantile is within about 6% of the
+ * recorded value. Recording is lock-free and does not allocate. Counts are kept since creation, there is no sliding
+ * window.</p>
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /**
+     * Largest power of two with its own buckets, 2^40 ns is about 18 minutes, longer durations end up in the last bucket
+     */
+    private static final int MAX_EXPONENT = 40;
+
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    /**
+     * Record a duration
+     * @param nanos duration in nanoseconds, negative values are recorded as zero
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(nanos));
+        count.increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    static int bucket(long nanos) {
+        if(nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if(exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBound(int bucket) {
+        if(bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+    }
+
+    static long upperBound(int bucket) {
+        if(bucket < SUB_BUCKETS) {
+            return bucket + 1;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        return lowerBound(bucket) + (1L << (exponent - SUB_BITS));
+    }
+
+    /**
+     * Estimate a quantile
+     * @param quantile quantile between 0 and 1, e.g. 0.95
+     * @return estimated duration in nanoseconds, zero if nothing has been recorded
+     */
+    public long quantile(double quantile) {
+        if(quantile < 0.0 || quantile > 1.0) {
+            throw new IllegalArgumentException("quantile must be between 0 and 1");
+        }
+
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+
+        if(total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if(seen >= rank) {
+                // middle of the bucket, but never more than the largest recorded value
+                return Math.min(max.get(), (lowerBound(i) + upperBound(i) - 1) / 2);
+            }
+        }
+
+        return max.get();
+    }
+
+    /** Number of recorded durations */
+    public long count() {
+        return count.sum();
+    }
+
+    /** Sum of recorded durations in nanoseconds */
+    public long sumNanos() {
+        return sum.sum();
+    }
+
+    /** Longest recorded duration in nanoseconds */
+    public long maxNanos() {
+        return max.get();
+    }
+}
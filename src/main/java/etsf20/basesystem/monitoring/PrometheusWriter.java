@@ -0,0 +1,107 @@
+package etsf20.basesystem.monitoring;
+
+/**
+ * Builds metrics in the Prometheus text exposition format.
+ *
+ * <p>Call {@link PrometheusWriter#metric(String, String, String)} once per metric name followed by its samples.
+ * Labels are given as name and value pairs.</p>
+ *
+ * @see <a href="https://prometheus.io/docs/instrumenting/exposition_formats/">Exposition formats</a>
+ */
+public final class PrometheusWriter {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final StringBuilder out = new StringBuilder(4096);
+
+    /**
+     * Start a metric
+     * @param name metric name
+     * @param type counter, gauge, summary or histogram
+     * @param help description
+     * @return this writer
+     */
+    public PrometheusWriter metric(String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ');
+        for (int i = 0; i < help.length(); i++) {
+            char c = help.charAt(i);
+            if(c == '\\') {
+                out.append("\\\\");
+            } else if(c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    /**
+     * Add a sample
+     * @param name   metric name, may have a suffix such as {@code _sum}
+     * @param value  value
+     * @param labels label names and values in pairs
+     * @return this writer
+     */
+    public PrometheusWriter sample(String name, long value, String... labels) {
+        labels(name, labels);
+        out.append(value).append('\n');
+        return this;
+    }
+
+    /**
+     * Add a sample
+     * @param name   metric name, may have a suffix such as {@code _sum}
+     * @param value  value
+     * @param labels label names and values in pairs
+     * @return this writer
+     */
+    public PrometheusWriter sample(String name, double value, String... labels) {
+        labels(name, labels);
+        if(Double.isNaN(value)) {
+            out.append("NaN");
+        } else if(Double.isInfinite(value)) {
+            out.append(value > 0 ? "+Inf" : "-Inf");
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+        return this;
+    }
+
+    private void labels(String name, String[] labels) {
+        if(labels.length % 2 != 0) {
+            throw new IllegalArgumentException("labels must be name and value pairs");
+        }
+
+        out.append(name);
+        if(labels.length > 0) {
+            out.append('{');
+            for (int i = 0; i < labels.length; i += 2) {
+                if(i > 0) {
+                    out.append(',');
+                }
+                out.append(labels[i]).append("=\"");
+                String value = labels[i + 1];
+                for (int j = 0; j < value.length(); j++) {
+                    char c = value.charAt(j);
+                    switch (c) {
+                        case '\\' -> out.append("\\\\");
+                        case '"' -> out.append("\\\"");
+                        case '\n' -> out.append("\\n");
+                        default -> out.append(c);
+                    }
+                }
+                out.append('"');
+            }
+            out.append('}');
+        }
+        out.append(' ');
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+}
@@ -0,0 +1,108 @@
+package etsf20.basesystem.monitoring;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends to a file and rotates it when it grows too large.
+ *
+ * <p>On rotation {@code file} is renamed to {@code file.1}, {@code file.1} to {@code file.2} and so on, the oldest
+ * file is deleted. Rotation happens between writes, a single write is never split across files.</p>
+ *
+ * <p><b>Remarks:</b> not thread-safe, sizes are counted in characters which matches bytes for ASCII.</p>
+ */
+public class RotatingFileWriter extends Writer {
+    private final Path file;
+    private final long maxSize;
+    private final int maxFiles;
+    private Writer out;
+    private long size;
+
+    /**
+     * @param file     file to append to, created if missing
+     * @param maxSize  size in bytes that triggers a rotation
+     * @param maxFiles number of rotated files to keep, zero truncates the file instead
+     * @throws IOException if the file could not be opened
+     */
+    public RotatingFileWriter(Path file, long maxSize, int maxFiles) throws IOException {
+        if(maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        if(maxFiles < 0) {
+            throw new IllegalArgumentException("maxFiles must not be negative");
+        }
+        this.file = file;
+        this.maxSize = maxSize;
+        this.maxFiles = maxFiles;
+        open();
+    }
+
+    private void open() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if(parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        out = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+        size = Files.size(file);
+    }
+
+    private Path rotated(int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    private void rotate() throws IOException {
+        out.close();
+
+        if(maxFiles == 0) {
+            Files.delete(file);
+        } else {
+            Files.deleteIfExists(rotated(maxFiles));
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                if(Files.exists(rotated(i))) {
+                    Files.move(rotated(i), rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        open();
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) throws IOException {
+        if(size > 0 && size + length > maxSize) {
+            rotate();
+        }
+
+        out.write(buffer, offset, length);
+        size += length;
+    }
+
+    @Override
+    public void write(String str, int offset, int length) throws IOException {
+        if(size > 0 && size + length > maxSize) {
+            rotate();
+        }
+
+        out.write(str, offset, length);
+        size += length;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
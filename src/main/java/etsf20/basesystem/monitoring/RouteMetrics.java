@@ -0,0 +1,172 @@
+package etsf20.basesystem.monitoring;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency, status codes and requests in progress per route.
+ *
+ * <p>A route is the request method and the matched path template, e.g. {@code GET /notes/{note-uuid}/}, so the
+ * number of routes does not depend on the URLs requested. Requests that did not match any endpoint, such as static
+ * files and pages not found, share the route {@value #UNMATCHED} per method. They are not counted as in progress.</p>
+ *
+ * <p>{@link RouteMetrics#started(Context)} has to be the first before-matched handler and
+ * {@link RouteMetrics#finished(Context, float)} is called from the request logger, which runs for every request.
+ * Recording is lock-free and does not allocate once a route has been seen.</p>
+ */
+public final class RouteMetrics {
+    public static final String UNMATCHED = "unmatched";
+
+    /**
+     * Upper bound of tracked routes, routes are registered at startup so this should never be reached
+     */
+    private static final int MAX_ROUTES = 1024;
+
+    private static final int MIN_STATUS = 100;
+    private static final int MAX_STATUS = 599;
+
+    /**
+     * Metrics of a single route
+     */
+    public static final class Route {
+        private final HandlerType method;
+        private final String path;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLongArray statuses = new AtomicLongArray(MAX_STATUS - MIN_STATUS + 1);
+        private final LongAdder inFlight = new LongAdder();
+
+        private Route(HandlerType method, String path) {
+            this.method = method;
+            this.path = path;
+        }
+
+        /** Request method */
+        public HandlerType method() {
+            return method;
+        }
+
+        /** Matched path template or {@value RouteMetrics#UNMATCHED} */
+        public String path() {
+            return path;
+        }
+
+        /** Request durations */
+        public LatencyHistogram latency() {
+            return latency;
+        }
+
+        /** Number of requests in progress */
+        public long inFlight() {
+            return inFlight.sum();
+        }
+
+        /**
+         * Number of responses per status code
+         * @return status code to count, only codes that have been returned
+         */
+        public Map<Integer, Long> statuses() {
+            Map<Integer, Long> result = new TreeMap<>();
+            for (int i = 0; i < statuses.length(); i++) {
+                long count = statuses.get(i);
+                if(count > 0) {
+                    result.put(i + MIN_STATUS, count);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Routes by method and path, every method is added up front so that the map itself is never changed
+     */
+    private static final Map<HandlerType, Map<String, Route>> routes = new EnumMap<>(HandlerType.class);
+    static {
+        for (HandlerType method : HandlerType.values()) {
+            routes.put(method, new ConcurrentHashMap<>());
+        }
+    }
+
+    private RouteMetrics() {
+    }
+
+    private static String endpointPath(Context ctx) {
+        try {
+            String path = ctx.endpointHandlerPath();
+            // Before-matched handlers see the wildcard endpoint of the resource handler for static files
+            return path.equals("*") ? UNMATCHED : path;
+        } catch (IllegalStateException e) {
+            return UNMATCHED;
+        }
+    }
+
+    private static Route unmatched(HandlerType method) {
+        return routes.get(method).computeIfAbsent(UNMATCHED, p -> new Route(method, p));
+    }
+
+    /**
+     * Before-matched handler, counts the request as in progress
+     * @param ctx context
+     */
+    public static void started(Context ctx) {
+        String path = endpointPath(ctx);
+        if(path.equals(UNMATCHED)) {
+            // recorded by finished() only, requests that are not found never reach this handler
+            return;
+        }
+
+        Map<String, Route> byPath = routes.get(ctx.method());
+        Route route = byPath.get(path);
+        if(route == null) {
+            if(byPath.size() >= MAX_ROUTES) {
+                return;
+            }
+            route = byPath.computeIfAbsent(path, p -> new Route(ctx.method(), p));
+        }
+
+        route.inFlight.increment();
+    }
+
+    /**
+     * Record a finished request, called from the request logger
+     * @param ctx context
+     * @param ms  time to handle the request in milliseconds
+     */
+    public static void finished(Context ctx, float ms) {
+        // Routes are only created by started(), without a matched endpoint the path is a description from Javalin
+        Route route = routes.get(ctx.method()).get(endpointPath(ctx));
+        if(route != null && !route.path.equals(UNMATCHED)) {
+            route.inFlight.decrement();
+        } else {
+            route = unmatched(ctx.method());
+        }
+
+        route.latency.record((long) (ms * 1_000_000.0));
+
+        int status = ctx.statusCode();
+        if(status >= MIN_STATUS && status <= MAX_STATUS) {
+            route.statuses.incrementAndGet(status - MIN_STATUS);
+        }
+    }
+
+    /**
+     * All routes that have received requests, sorted by path and method
+     */
+    public static List<Route> routes() {
+        List<Route> result = new ArrayList<>();
+        for (Map<String, Route> byPath : routes.values()) {
+            result.addAll(byPath.values());
+        }
+        result.sort(Comparator.comparing(Route::path).thenComparing(Route::method));
+        return result;
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Request logging and runtime statistics
+ */
+package etsf20.basesystem.monitoring;
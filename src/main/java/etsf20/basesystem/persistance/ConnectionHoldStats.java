@@ -0,0 +1,101 @@
+package etsf20.basesystem.persistance;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * How long request handlers keep pooled connections checked out, per route.
+ *
+ * <p>Every checkout of a request connection is recorded when it is released, see {@link Database#release(io.javalin.http.Context)}.
+ * A route with a long hold time keeps other requests waiting for a connection.</p>
+ */
+public final class ConnectionHoldStats {
+    /**
+     * Hold times of a single route
+     * @param count      number of checkouts
+     * @param totalNanos sum of hold times
+     * @param maxNanos   longest hold time
+     */
+    public record Summary(long count, long totalNanos, long maxNanos) {
+        /** Average hold time in nanoseconds */
+        public double meanNanos() {
+            return count == 0 ? 0.0 : (double) totalNanos / count;
+        }
+    }
+
+    private static final class Route {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+    }
+
+    /**
+     * Upper bound of tracked routes, routes are registered at startup so this should never be reached
+     */
+    private static final int MAX_ROUTES = 1024;
+
+    private static final Map<String, Route> routes = new ConcurrentHashMap<>();
+    private static final LongAdder reacquired = new LongAdder();
+
+    private ConnectionHoldStats() {
+    }
+
+    /**
+     * Record that a connection has been released
+     * @param route route that held the connection
+     * @param nanos time the connection was held
+     */
+    static void record(String route, long nanos) {
+        Route stats = routes.get(route);
+        if(stats == null) {
+            if(routes.size() >= MAX_ROUTES) {
+                return;
+            }
+            stats = routes.computeIfAbsent(route, r -> new Route());
+        }
+
+        stats.count.increment();
+        stats.total.add(nanos);
+        stats.max.accumulate(nanos);
+    }
+
+    /**
+     * Record that a request needed a connection again after it had been released
+     */
+    static void reacquired() {
+        reacquired.increment();
+    }
+
+    /** Number of connections checked out again after an early release */
+    public static long reacquiredCount() {
+        return reacquired.sum();
+    }
+
+    /**
+     * Get current hold times
+     * @return summary per route, sorted by route
+     */
+    public static Map<String, Summary> snapshot() {
+        Map<String, Summary> result = new TreeMap<>();
+        routes.forEach((route, stats) -> result.put(route, new Summary(stats.count.sum(), stats.total.sum(), stats.max.get())));
+        return result;
+    }
+
+    /**
+     * Log hold times of all routes
+     */
+    public static void log() {
+        Logger logger = LoggerFactory.getLogger(ConnectionHoldStats.class);
+        snapshot().forEach((route, summary) -> logger.info("Connection held by {}: {} times, mean {} ms, max {} ms",
+                route, summary.count(),
+                String.format("%.2f", summary.meanNanos() / 1e6),
+                String.format("%.2f", summary.maxNanos() / 1e6)));
+        logger.info("Connections checked out again after release: {}", reacquiredCount());
+    }
+}
@@ -2,6 +2,9 @@ package etsf20.basesystem.persistance;
 
 import java.sql.*;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
@@ -21,10 +24,33 @@ import etsf20.basesystem.Config;
 public class Database implements AutoCloseable {
     public static final Key<HikariDataSource> PoolKey = new Key<>("db.pool");
 
+    private static volatile int defaultFetchSize = 256;
+
+    private static final String ConnectionAttribute = "db";
+    private static final String AcquiredAttribute = "db.acquired";
+    private static final String ReleasedAttribute = "db.released";
+    private static final String TransactionAttribute = "db.transaction";
+
     private final Connection conn;
+    private final Context ctx;
+    private StatementCache statementCache;
+    private Connection statementCacheOwner;
+    private Transaction transaction;
 
+    /**
+     * State of the current transaction kept outside the database, dropped on commit and rollback
+     */
+    private static final class Transaction {
+        private final List<Runnable> afterCommit = new ArrayList<>();
+        private final Map<String, Set<Object>> changed = new HashMap<>();
+    }
+
+    /**
+     * Get the connection, for an instance bound to a request one is checked out from the pool if needed
+     * @throws DatabaseException when a new connection cannot be created
+     */
     public Connection connection() {
-        return conn;
+        return ctx != null ? acquire(ctx) : conn;
     }
 
     /**
@@ -33,52 +59,198 @@ public class Database implements AutoCloseable {
      */
     public Database(Connection conn) {
         this.conn = conn;
+        this.ctx = null;
     }
 
+    private Database(Context ctx) {
+        this.conn = null;
+        this.ctx = ctx;
+    }
 
+
+    /**
+     * Create connection pool
+     * @param systemConfig system configuration
+     * @return connection pool
+     */
     public static HikariDataSource createPool(Config systemConfig) {
+        configureStatements(systemConfig);
+
         HikariConfig config = new HikariConfig();
-        config.setMaximumPoolSize(16);
+        config.setMaximumPoolSize(systemConfig.getPoolSize());
+        config.setConnectionTimeout(systemConfig.getPoolAcquireTimeout().toMillis());
         config.setJdbcUrl(systemConfig.getJdbcUrl());
         config.setUsername(systemConfig.getDbUsername());
         config.setPassword(systemConfig.getDbPassword());
         config.setAutoCommit(false); // we will be using transactions
         config.setTransactionIsolation("TRANSACTION_READ_COMMITTED"); // minimum isolation is to only read committed
+        config.setMetricsTrackerFactory(new PoolMetrics(systemConfig.getPoolAcquireWarning()));
 
         return new HikariDataSource(config);
     }
 
+    /**
+     * Apply changed settings to a running pool and the statement settings, see {@link etsf20.basesystem.ConfigReloader}
+     *
+     * <p><b>Remarks:</b> a larger pool opens new connections when requests wait for one. When the pool shrinks idle
+     * connections are closed right away and connections in use when they are returned.</p>
+     *
+     * @param pool         pool created by {@link Database#createPool(Config)}
+     * @param systemConfig system configuration
+     */
+    public static void reconfigure(HikariDataSource pool, Config systemConfig) {
+        configureStatements(systemConfig);
+
+        int previousSize = pool.getHikariConfigMXBean().getMaximumPoolSize();
+        int size = systemConfig.getPoolSize();
+        if(size > previousSize) {
+            pool.getHikariConfigMXBean().setMaximumPoolSize(size);
+            pool.getHikariConfigMXBean().setMinimumIdle(size);
+        } else if(size < previousSize) {
+            pool.getHikariConfigMXBean().setMinimumIdle(size);
+            pool.getHikariConfigMXBean().setMaximumPoolSize(size);
+            pool.getHikariPoolMXBean().softEvictConnections();
+        }
+        pool.getHikariConfigMXBean().setConnectionTimeout(systemConfig.getPoolAcquireTimeout().toMillis());
+        PoolMetrics.of(pool).setWarningThreshold(systemConfig.getPoolAcquireWarning());
+    }
+
+    /**
+     * Settings shared by all connections
+     */
+    private static void configureStatements(Config systemConfig) {
+        StatementCache.setMaxSize(systemConfig.getStatementCacheSize());
+        QueryStats.setSlowThreshold(systemConfig.getSlowQueryThreshold());
+        defaultFetchSize = systemConfig.getQueryFetchSize();
+    }
+
     /**
      * Get database connection from a request context
-     * <p><b>Remarks:</b> Reuses an ongoing connection if one is available</p>
+     * <p><b>Remarks:</b> No connection is checked out from the pool until the first query, the ongoing connection
+     * of the request is reused if there is one. A connection released with {@link Database#release(Context)} is
+     * replaced by a new one when needed.</p>
      * @param ctx request context
      * @return new instance of database
-     * @throws DatabaseException when a new connection cannot be created
      */
     public static Database get(Context ctx) {
-        try {
-            Connection conn = ctx.attribute("db");
-            if(conn == null) {
+        return new Database(ctx);
+    }
+
+    /**
+     * Get the connection of a request, checking one out from the pool if there is none
+     * @throws DatabaseException when a new connection cannot be created
+     */
+    private static Connection acquire(Context ctx) {
+        Connection conn = ctx.attribute(ConnectionAttribute);
+        if(conn == null) {
+            try {
                 // Could not find an active connection - create new one (get one from the pool or block until available)
                 conn = ctx.appData(PoolKey).getConnection();
-                ctx.attribute("db", conn);
+            } catch (SQLException e) {
+                throw new DatabaseException("Failed to get a connection to the database.", e);
+            }
+
+            ctx.attribute(ConnectionAttribute, conn);
+            ctx.attribute(AcquiredAttribute, System.nanoTime());
+            if(ctx.attribute(ReleasedAttribute) != null) {
+                ConnectionHoldStats.reacquired();
             }
-            return new Database(conn);
-        } catch (SQLException e) {
-            throw new DatabaseException("Failed to get a connection to the database.", e);
         }
+        return conn;
+    }
+
+    /**
+     * Get the connection if one is checked out, never acquires a new connection
+     */
+    private Connection activeConnection() {
+        return ctx != null ? ctx.attribute(ConnectionAttribute) : conn;
     }
     
+    /**
+     * Get the state of the current transaction, for an instance bound to a request it is shared by all instances
+     * for the same request
+     * @param create create the state if there is none
+     * @return state or null if there is none and create is false
+     */
+    private Transaction transaction(boolean create) {
+        if(ctx == null) {
+            if(transaction == null && create) {
+                transaction = new Transaction();
+            }
+            return transaction;
+        }
+
+        Transaction current = ctx.attribute(TransactionAttribute);
+        if(current == null && create) {
+            current = new Transaction();
+            ctx.attribute(TransactionAttribute, current);
+        }
+        return current;
+    }
+
+    /**
+     * Drop the state of the current transaction
+     * @return the dropped state, null if there was none
+     */
+    private Transaction endTransaction() {
+        Transaction ended = transaction(false);
+        if(ctx == null) {
+            transaction = null;
+        } else {
+            ctx.attribute(TransactionAttribute, null);
+        }
+        return ended;
+    }
+
     /**
      * Commit current transaction
      * @throws DatabaseException runtime exception for any database failure
      */
     public void commit() {
         try {
-            conn.commit();
+            Connection conn = activeConnection();
+            if(conn != null) {
+                conn.commit();
+            }
         } catch (SQLException e) {
             throw new DatabaseException("Failed to commit.", e);
         }
+
+        Transaction committed = endTransaction();
+        if(committed != null) {
+            committed.afterCommit.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * Run an action once the current transaction has been committed, e.g. to invalidate cached data
+     * <p><b>Remarks:</b> the action is dropped on rollback. Instances for the same request share the transaction,
+     * the action runs when any of them commits.</p>
+     * @param action action to run after commit
+     */
+    public void afterCommit(Runnable action) {
+        transaction(true).afterCommit.add(action);
+    }
+
+    /**
+     * Keys changed in the current transaction, e.g. to read them from the database instead of a cache until the
+     * change is committed
+     * <p><b>Remarks:</b> cleared on commit and rollback</p>
+     * @param name name of the set, separates different kinds of keys
+     * @return modifiable set of changed keys
+     */
+    public Set<Object> changed(String name) {
+        return transaction(true).changed.computeIfAbsent(name, n -> new HashSet<>());
+    }
+
+    /**
+     * Check if a key has been changed in the current transaction, see {@link Database#changed(String)}
+     * @param name name of the set
+     * @param key  key to look for
+     */
+    public boolean isChanged(String name, Object key) {
+        Transaction current = transaction(false);
+        return current != null && current.changed.getOrDefault(name, Set.of()).contains(key);
     }
 
     /**
@@ -86,8 +258,12 @@ public class Database implements AutoCloseable {
      * @throws DatabaseException runtime exception for any database failure
      */
     public void rollback() {
+        endTransaction();
         try {
-            conn.rollback();
+            Connection conn = activeConnection();
+            if(conn != null) {
+                conn.rollback();
+            }
         } catch (SQLException e) {
             throw new DatabaseException("Failed to rollback.", e);
         }
@@ -98,7 +274,19 @@ public class Database implements AutoCloseable {
      * @param ctx Request Context
      */
     public static void dispose(Context ctx) {
-        Connection conn = ctx.attribute("db");
+        release(ctx);
+    }
+
+    /**
+     * Return the connection of a request to the pool before the request has finished, e.g. before rendering
+     *
+     * <p>Anything that has not been commited is rolled back. Later queries in the same request check out a new
+     * connection.</p>
+     *
+     * @param ctx Request Context
+     */
+    public static void release(Context ctx) {
+        Connection conn = ctx.attribute(ConnectionAttribute);
         if(conn != null) {
 
             // Rollback if something has not been commited - happens if a request handler
@@ -110,6 +298,9 @@ public class Database implements AutoCloseable {
                 LoggerFactory.getLogger(Database.class).error("Failed to rollback during dispose", e);
             }
 
+            // Cached statements stay with the physical connection, drop any parameters bound by this request
+            StatementCache.release(conn);
+
             // Try to close the connection
             try {
                 conn.close();
@@ -118,8 +309,34 @@ public class Database implements AutoCloseable {
                 LoggerFactory.getLogger(Database.class).error("Failed to close connection during dispose", e);
             }
 
-            // Mark that no connection is active on this request
-            ctx.attribute("db", null);
+            // Mark that no connection is active on this request, the transaction has ended
+            ctx.attribute(ConnectionAttribute, null);
+            ctx.attribute(TransactionAttribute, null);
+            ctx.attribute(ReleasedAttribute, Boolean.TRUE);
+
+            Long acquired = ctx.attribute(AcquiredAttribute);
+            if(acquired != null) {
+                ConnectionHoldStats.record(routeName(ctx), System.nanoTime() - acquired);
+            }
+        }
+    }
+
+    private static String routeName(Context ctx) {
+        try {
+            return ctx.method() + " " + ctx.endpointHandlerPath();
+        } catch (IllegalStateException e) {
+            // no endpoint matched, e.g. static files or not found
+            return ctx.method() + " " + ctx.matchedPath();
+        }
+    }
+
+    /**
+     * Release the connection before rendering if enabled by {@link Config#isReleaseConnectionBeforeRender()}
+     * @param ctx Request Context
+     */
+    public static void releaseBeforeRender(Context ctx) {
+        if(ctx.appData(Config.Key).isReleaseConnectionBeforeRender()) {
+            release(ctx);
         }
     }
 
@@ -177,7 +394,7 @@ public class Database implements AutoCloseable {
      * @throws DatabaseException if a database access error occurs, this method is called on a closed connection.
      */
     public boolean exists(String sql, Object...params) {
-        List<Boolean> result = list(sql, (res) -> Boolean.TRUE, params, 1);
+        List<Boolean> result = list(sql, (res) -> Boolean.TRUE, objectParameterSetter(params), 1);
         return !result.isEmpty();
     }
 
@@ -205,31 +422,257 @@ public class Database implements AutoCloseable {
      * @throws DatabaseException if a database access error occurs, this method is called on a closed connection.
      */
     public <T> List<T> list(String sql, ResultFunction<T> mapper, ParameterSetter parameterSetter, int limit) {
-        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+        long start = 0;
+        ArrayList<T> data = new ArrayList<>();
+        boolean completed = false;
+        try {
+            PreparedStatement statement = cachedStatement(sql, false);
             parameterSetter.accept(statement);
+            start = System.nanoTime();
 
-            ArrayList<T> data = new ArrayList<>();
-            ResultSet result = statement.executeQuery();
-            while(result.next() && (limit == 0 || data.size() < limit)) {
-                data.add(mapper.apply(result));
+            try (ResultSet result = statement.executeQuery()) {
+                // check limit first, there is no reason to fetch a row that will not be used
+                while ((limit == 0 || data.size() < limit) && result.next()) {
+                    data.add(mapper.apply(result));
+                }
             }
 
-            result.close();
+            completed = true;
             return data;
         } catch (SQLException e) {
             throw new DatabaseException("failed to run query: " + sql, e);
+        } finally {
+            recordQuery(sql, start == 0 ? 0 : System.nanoTime() - start, data.size(), completed);
+        }
+    }
+
+    /**
+     * Record a query in {@link QueryStats}, also when it failed with an exception of any type
+     * @param nanos     time spent executing the query and reading the result
+     * @param completed false if the query, the mapper or the consumer of the rows threw
+     */
+    private static void recordQuery(String sql, long nanos, long rows, boolean completed) {
+        if(completed) {
+            QueryStats.record(sql, nanos, rows);
+        } else {
+            QueryStats.failed(sql, nanos);
+        }
+    }
+
+    /**
+     * Query data from the database and hand rows to a consumer one at a time
+     * @param <T> mapped output type
+     * @param sql sql query
+     * @param mapper result mapper
+     * @param consumer receives every mapped row
+     * @param params optional params for query
+     * @return number of rows given to the consumer
+     * @throws DatabaseException if a database access error occurs, this method is called on a closed connection.
+     * @see Database#forEach(String, ResultFunction, Consumer, ParameterSetter, int)
+     */
+    public <T> int forEach(String sql, ResultFunction<T> mapper, Consumer<? super T> consumer, Object...params) {
+        return forEach(sql, mapper, consumer, objectParameterSetter(params), defaultFetchSize);
+    }
+
+    /**
+     * Query data from the database and hand rows to a consumer one at a time
+     *
+     * <p>Unlike {@link Database#list(String, ResultFunction, Object...)} no rows are collected, memory use does not
+     * grow with the size of the result. The cursor is closed when all rows have been consumed or if the mapper or
+     * consumer throws.</p>
+     *
+     * <p><b>Remarks:</b> the consumer must not run the same query again on this connection while iterating,
+     * the statement is shared and doing so closes the cursor.</p>
+     *
+     * @param <T> mapped output type
+     * @param sql sql query
+     * @param mapper result mapper
+     * @param consumer receives every mapped row
+     * @param parameterSetter lambda function that sets parameters
+     * @param fetchSize number of rows the driver should fetch per round trip, 0 to let the driver decide
+     * @return number of rows given to the consumer
+     * @throws DatabaseException if a database access error occurs, this method is called on a closed connection.
+     */
+    public <T> int forEach(String sql, ResultFunction<T> mapper, Consumer<? super T> consumer, ParameterSetter parameterSetter, int fetchSize) {
+        long elapsed = 0;
+        int count = 0;
+        boolean completed = false;
+        PreparedStatement statement = null;
+        int previousFetchSize = 0;
+        try {
+            statement = cachedStatement(sql, false);
+            previousFetchSize = statement.getFetchSize();
+            parameterSetter.accept(statement);
+            statement.setFetchSize(fetchSize);
+
+            // only time spent executing and reading rows is counted, not the time spent in the consumer, as for stream
+            long start = System.nanoTime();
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    T row = mapper.apply(result);
+                    elapsed += System.nanoTime() - start;
+                    consumer.accept(row);
+                    count++;
+                    start = System.nanoTime();
+                }
+                elapsed += System.nanoTime() - start;
+            }
+
+            completed = true;
+            return count;
+        } catch (SQLException e) {
+            throw new DatabaseException("failed to run query: " + sql, e);
+        } finally {
+            recordQuery(sql, elapsed, count, completed);
+            if(statement != null) {
+                // the statement is cached, later queries with the same sql must not inherit the fetch size
+                try {
+                    statement.setFetchSize(previousFetchSize);
+                } catch (SQLException e) {
+                    LoggerFactory.getLogger(Database.class).warn("Failed to reset fetch size of cached statement", e);
+                }
+            }
         }
     }
 
-    private void executeUpdate(String sql, ParameterSetter parameterSetters) {
-        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+    /**
+     * Query data from the database as a lazily evaluated stream
+     *
+     * <p>Rows are read from the cursor as the stream is consumed. The stream holds an open cursor and
+     * <b>must</b> be closed, use try-with-resources:</p>
+     * <pre>
+     * {@code
+     * try(Stream<Note> notes = db.stream(sql, this::mapNote, username)) {
+     *     notes.forEach(...);
+     * }
+     * }
+     * </pre>
+     *
+     * @param <T> mapped output type
+     * @param sql sql query
+     * @param mapper result mapper
+     * @param params optional params for query
+     * @return stream of mapped rows
+     * @throws DatabaseException if a database access error occurs, this method is called on a closed connection.
+     */
+    public <T> Stream<T> stream(String sql, ResultFunction<T> mapper, Object...params) {
+        PreparedStatement statement = null;
+        try {
+            // Not from the statement cache, the lifetime of the cursor is controlled by the caller.
+            statement = connection().prepareStatement(sql);
+            objectParameterSetter(params).accept(statement);
+            statement.setFetchSize(defaultFetchSize);
+
+            long start = System.nanoTime();
+            ResultSet result;
+            try {
+                result = statement.executeQuery();
+            } catch (SQLException e) {
+                QueryStats.failed(sql, System.nanoTime() - start);
+                throw e;
+            }
+            PreparedStatement owner = statement;
+            long[] elapsed = {System.nanoTime() - start, 0};
+            boolean[] failed = {false};
+
+            Spliterator<T> rows = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                @Override
+                public boolean tryAdvance(Consumer<? super T> action) {
+                    // only time spent reading rows is counted, not the time the caller spends on them, as for forEach
+                    long readStart = System.nanoTime();
+                    boolean completed = false;
+                    try {
+                        T row;
+                        try {
+                            if(!result.next()) {
+                                elapsed[0] += System.nanoTime() - readStart;
+                                completed = true;
+                                return false;
+                            }
+                            row = mapper.apply(result);
+                        } catch (SQLException e) {
+                            throw new DatabaseException("failed to read query result: " + sql, e);
+                        }
+                        elapsed[0] += System.nanoTime() - readStart;
+                        elapsed[1]++;
+                        action.accept(row);
+                        completed = true;
+                        return true;
+                    } finally {
+                        if(!completed) {
+                            failed[0] = true;
+                        }
+                    }
+                }
+            };
+
+            return StreamSupport.stream(rows, false).onClose(() -> {
+                recordQuery(sql, elapsed[0], elapsed[1], !failed[0]);
+                try {
+                    // closing the statement also closes the result set
+                    owner.close();
+                } catch (SQLException e) {
+                    throw new DatabaseException("failed to close query: " + sql, e);
+                }
+            });
+        } catch (SQLException e) {
+            if(statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw new DatabaseException("failed to run query: " + sql, e);
+        }
+    }
+
+    /**
+     * Get a prepared statement from the statement cache of this connection
+     * <p><b>Remarks:</b> the statement is owned by the cache and must not be closed</p>
+     * @param sql sql to prepare
+     * @param generatedKeys if generated keys should be returned
+     * @return cached or newly prepared statement
+     * @throws SQLException if a database access error occurs or this method is called on a closed connection
+     */
+    private PreparedStatement cachedStatement(String sql, boolean generatedKeys) throws SQLException {
+        Connection conn = connection();
+        if(statementCache == null || statementCacheOwner != conn) {
+            // the request connection changes if it has been released
+            statementCache = StatementCache.forConnection(conn);
+            statementCacheOwner = conn;
+        }
+        return statementCache.prepare(sql, generatedKeys);
+    }
+
+    /**
+     * Execute a data manipulation statement (INSERT, UPDATE, DELETE or MERGE)
+     * @param sql sql statement
+     * @param params optional params for statement
+     * @return number of changed rows
+     * @throws DatabaseValidationException if a constraint is violated
+     * @throws DatabaseException if a database access error occurs, this method is called on a closed connection.
+     */
+    public int execute(String sql, Object...params) {
+        return executeUpdate(sql, objectParameterSetter(params));
+    }
+
+    private int executeUpdate(String sql, ParameterSetter parameterSetters) {
+        long start = 0;
+        try {
+            PreparedStatement statement = cachedStatement(sql, false);
             parameterSetters.accept(statement);
-            statement.executeUpdate();
+            start = System.nanoTime();
+            int changes = statement.executeUpdate();
+            QueryStats.record(sql, System.nanoTime() - start, changes);
+            return changes;
         }
         catch(SQLIntegrityConstraintViolationException e) {
+            QueryStats.failed(sql, start == 0 ? 0 : System.nanoTime() - start);
             throw new DatabaseValidationException(e);
         }
         catch(SQLException e) {
+            QueryStats.failed(sql, start == 0 ? 0 : System.nanoTime() - start);
             throw new DatabaseException(e);
         }
     }
@@ -248,33 +691,8 @@ public class Database implements AutoCloseable {
             throw new IllegalArgumentException("table");
         }
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("INSERT INTO ").append(table);
-
-        if(values.isEmpty()) {
-            sb.append(" DEFAULT VALUES");
-            executeUpdate(sb.toString(), (stmt) -> {});
-        } else {
-            List<Map.Entry<String,Object>> entries = new ArrayList<>(values.entrySet());
-            entries.sort(Map.Entry.comparingByKey());
-
-            sb.append("(");
-            sb.append(entries.get(0).getKey());
-            for(int i = 1 ; i < entries.size(); i++) {
-                sb.append(",").append(entries.get(i).getKey());
-            }
-            sb.append(") VALUES (");
-
-            sb.append("?");
-            sb.append(",?".repeat(entries.size() - 1));
-            sb.append(")");
-
-            executeUpdate(sb.toString(), (PreparedStatement stmt) -> {
-                for(int i = 0; i < entries.size(); i++) {
-                    stmt.setObject(i+1, entries.get(i).getValue());
-                }
-            });
-        }
+        StatementShape shape = StatementShape.insert(table, values);
+        executeUpdate(shape.sql(), (PreparedStatement stmt) -> shape.bind(stmt, values, Collections.emptyMap()));
     }
 
     /**
@@ -291,48 +709,32 @@ public class Database implements AutoCloseable {
             throw new IllegalArgumentException("table");
         }
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("INSERT INTO ").append(table);
-
-        List<Map.Entry<String,Object>> entries = Collections.emptyList();
-
-        if(values.isEmpty()) {
-            sb.append(" DEFAULT VALUES");
-        } else {
-            entries = new ArrayList<>(values.entrySet());
-            entries.sort(Map.Entry.comparingByKey());
+        StatementShape shape = StatementShape.insert(table, values);
 
-            sb.append("(");
-            sb.append(entries.get(0).getKey());
-            for(int i = 1 ; i < entries.size(); i++) {
-                sb.append(",").append(entries.get(i).getKey());
-            }
-            sb.append(") VALUES (");
-
-            sb.append("?");
-            sb.append(",?".repeat(entries.size() - 1));
-            sb.append(")");
-        }
-
-        try (PreparedStatement statement = conn.prepareStatement(sb.toString(), Statement.RETURN_GENERATED_KEYS)) {
-            for(int i = 0; i < entries.size(); i++) {
-                statement.setObject(i+1, entries.get(i).getValue());
-            }
+        long start = 0;
+        try {
+            PreparedStatement statement = cachedStatement(shape.sql(), true);
+            shape.bind(statement, values, Collections.emptyMap());
 
-            statement.executeUpdate();
+            start = System.nanoTime();
+            int changes = statement.executeUpdate();
 
             try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
                 if(!generatedKeys.next()) {
                     throw new DatabaseException("expected generated keys - none given");
                 }
 
-                return generated.apply(generatedKeys);
+                T result = generated.apply(generatedKeys);
+                QueryStats.record(shape.sql(), System.nanoTime() - start, changes);
+                return result;
             }
         }
         catch(SQLIntegrityConstraintViolationException e) {
+            QueryStats.failed(shape.sql(), start == 0 ? 0 : System.nanoTime() - start);
             throw new DatabaseValidationException(e);
         }
         catch(SQLException e) {
+            QueryStats.failed(shape.sql(), start == 0 ? 0 : System.nanoTime() - start);
             throw new DatabaseException(e);
         }
     }
@@ -362,54 +764,20 @@ public class Database implements AutoCloseable {
             return true;
         }
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("UPDATE ").append(table).append(" SET ");
+        StatementShape shape = StatementShape.update(table, updates, key);
 
-        ArrayList<Object> params = new ArrayList<>();
-
-        // changes
-        {
-            var iter = updates.entrySet().iterator();
-
-            var elem = iter.next();
-            sb.append(elem.getKey()).append(" = ").append("?");
-            params.add(elem.getValue());
-
-            while (iter.hasNext()) {
-                sb.append(",");
-                elem = iter.next();
-                sb.append(elem.getKey()).append(" = ").append("?");
-                params.add(elem.getValue());
-            }
-        }
-
-        sb.append(" WHERE ");
-
-        // key
-        {
-            var iter = key.entrySet().iterator();
-            var elem = iter.next();
-
-            sb.append(elem.getKey()).append(" = ").append("?");
-            params.add(elem.getValue());
-
-            while (iter.hasNext()) {
-                sb.append(" AND ");
-                elem = iter.next();
-                sb.append(elem.getKey()).append(" = ").append("?");
-                params.add(elem.getValue());
-            }
-        }
-
-        try (PreparedStatement updateStmt = conn.prepareStatement(sb.toString())) {
-            for (int i = 0; i < params.size(); i++) {
-                updateStmt.setObject(i + 1, params.get(i));
-            }
+        long start = 0;
+        try {
+            PreparedStatement updateStmt = cachedStatement(shape.sql(), false);
+            shape.bind(updateStmt, updates, key);
+            start = System.nanoTime();
             int changes = updateStmt.executeUpdate();
+            QueryStats.record(shape.sql(), System.nanoTime() - start, changes);
 
             return changes > 0;
         }
         catch (SQLException ex) {
+            QueryStats.failed(shape.sql(), start == 0 ? 0 : System.nanoTime() - start);
             throw new DatabaseException("failed to update " + table, ex);
         }
     }
@@ -429,34 +797,20 @@ public class Database implements AutoCloseable {
             throw new DatabaseException("missing a key for updating a row - required");
         }
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("DELETE FROM ").append(table).append(" WHERE ");
-
-        ArrayList<Object> params = new ArrayList<>();
-
-        // key
-        var iter = key.entrySet().iterator();
-        var elem = iter.next();
-
-        sb.append(elem.getKey()).append(" = ").append("?");
-        params.add(elem.getValue());
+        StatementShape shape = StatementShape.delete(table, key);
 
-        while (iter.hasNext()) {
-            sb.append(" AND ");
-            elem = iter.next();
-            sb.append(elem.getKey()).append(" = ").append("?");
-            params.add(elem.getValue());
-        }
-
-        try (PreparedStatement updateStmt = conn.prepareStatement(sb.toString())) {
-            for (int i = 0; i < params.size(); i++) {
-                updateStmt.setObject(i + 1, params.get(i));
-            }
+        long start = 0;
+        try {
+            PreparedStatement updateStmt = cachedStatement(shape.sql(), false);
+            shape.bind(updateStmt, Collections.emptyMap(), key);
+            start = System.nanoTime();
             int changes = updateStmt.executeUpdate();
+            QueryStats.record(shape.sql(), System.nanoTime() - start, changes);
 
             return changes > 0;
         }
         catch (SQLException ex) {
+            QueryStats.failed(shape.sql(), start == 0 ? 0 : System.nanoTime() - start);
             throw new DatabaseException("failed to delete from " + table, ex);
         }
     }
@@ -464,12 +818,17 @@ public class Database implements AutoCloseable {
     /**
      * Prepare a custom query
      *
+     * <p><b>Remarks:</b> the statement is not cached and must be closed by the caller, prefer
+     * {@link Database#list(String, ResultFunction, Object...)} or {@link Database#execute(String, Object...)}
+     * which reuse prepared statements between requests. Statements executed by the caller are not recorded in
+     * {@link QueryStats}.</p>
+     *
      * @param sql sql
      * @return prepared statement
      * @throws SQLException if a database access error occurs or this method is called on a closed connection
      */
     public PreparedStatement prepare(String sql) throws SQLException {
-        return conn.prepareStatement(sql);
+        return connection().prepareStatement(sql);
     }
 
     /**
@@ -479,7 +838,7 @@ public class Database implements AutoCloseable {
      */
     public void setSerializedIsolation() {
         try {
-            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+            connection().setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
         } catch (SQLException e) {
             throw new DatabaseException(e);
         }
@@ -487,11 +846,23 @@ public class Database implements AutoCloseable {
 
     /**
      * Manually close the connection. Only used for special cases.
+     * <p><b>Remarks:</b> anything that has not been commited is rolled back</p>
      * @see Database#dispose(Context)
      * @throws SQLException if a database access error occurs
      */
     @Override
     public void close() throws SQLException {
+        if(ctx != null) {
+            release(ctx);
+            return;
+        }
+
+        // Cached statements are not visible to the pool, which therefore can't tell if a rollback is needed.
+        if(!this.conn.isClosed() && !this.conn.getAutoCommit()) {
+            this.conn.rollback();
+        }
+
+        StatementCache.release(this.conn);
         this.conn.close();
     }
 }
\ No newline at end of file
@@ -0,0 +1,147 @@
+package etsf20.basesystem.persistance;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded in-process cache where every entry expires after a fixed time.
+ *
+ * <p>Intended for small lookups done on almost every request where a slightly outdated value is acceptable for a
+ * short while. Entries should also be invalidated explicitly whenever the underlying data changes, the expiry only
+ * bounds how long a missed invalidation can go unnoticed.</p>
+ *
+ * <p><b>Remarks:</b> a value loaded concurrently with an invalidation is not stored, so an invalidation is never
+ * undone by a load that read the old data. A cache with a maximum size of zero never stores anything.</p>
+ *
+ * @param <K> key type
+ * @param <V> value type, must not be null - use {@link java.util.Optional} to cache missing values
+ */
+public final class ExpiringCache<K, V> {
+    private record Entry<V>(V value, long expires) {}
+
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile int maxSize;
+    private volatile long ttlNanos;
+
+    /**
+     * @param maxSize maximum number of entries, zero disables the cache
+     * @param ttl     time until an entry expires
+     */
+    public ExpiringCache(int maxSize, Duration ttl) {
+        resize(maxSize, ttl);
+    }
+
+    /**
+     * Change size and expiry, entries beyond the new size are dropped and entries already cached keep their expiry
+     * @param maxSize maximum number of entries, zero disables the cache
+     * @param ttl     time until an entry expires
+     */
+    public void resize(int maxSize, Duration ttl) {
+        if(maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative");
+        }
+        if(ttl.isNegative()) {
+            throw new IllegalArgumentException("ttl must not be negative");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        if(entries.size() > maxSize) {
+            evict();
+        }
+    }
+
+    /**
+     * Get cached value or load it
+     * @param key    key to look up
+     * @param loader loads the value on a miss, may throw to abort without caching anything
+     * @return cached or loaded value
+     */
+    public V get(K key, Function<K, V> loader) {
+        long now = System.nanoTime();
+        Entry<V> entry = entries.get(key);
+        if(entry != null && entry.expires() - now > 0) {
+            hits.increment();
+            return entry.value();
+        }
+
+        misses.increment();
+        long loadGeneration = generation.get();
+        V value = Objects.requireNonNull(loader.apply(key));
+
+        int max = maxSize;
+        if(max > 0) {
+            entries.put(key, new Entry<>(value, System.nanoTime() + ttlNanos));
+
+            // Invalidated while loading, the value might be outdated
+            if(generation.get() != loadGeneration) {
+                entries.remove(key);
+            } else if(entries.size() > max) {
+                evict();
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Remove a single entry
+     * @param key key to remove
+     */
+    public void invalidate(K key) {
+        generation.incrementAndGet();
+        entries.remove(key);
+    }
+
+    /**
+     * Remove all entries
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * Make room by dropping expired entries, or arbitrary entries if none have expired
+     */
+    private void evict() {
+        long now = System.nanoTime();
+        entries.values().removeIf(e -> e.expires() - now <= 0);
+
+        Iterator<K> keys = entries.keySet().iterator();
+        while(entries.size() > maxSize && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    /** Number of entries, including expired ones not yet removed */
+    public int size() {
+        return entries.size();
+    }
+
+    /** Number of lookups answered by the cache */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /** Number of lookups that had to load the value */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /** Share of lookups answered by the cache, zero before the first lookup */
+    public double hitRatio() {
+        long hits = hits();
+        long total = hits + misses();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+}
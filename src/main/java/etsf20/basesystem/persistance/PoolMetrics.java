@@ -0,0 +1,183 @@
+package etsf20.basesystem.persistance;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import etsf20.basesystem.monitoring.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connection pool statistics, recorded by HikariCP.
+ *
+ * <p>Time to acquire a connection is how long a request waited for the pool, a high value means the pool is too
+ * small for the load. Usage time is how long a connection was held, see also {@link ConnectionHoldStats} for the
+ * time per route.</p>
+ *
+ * <p>The acquire time is also checked over a window: if its 99th percentile exceeds the warning threshold a warning
+ * is logged, at most once per window. Connection counts come from HikariCP, which refreshes them at most once a
+ * second.</p>
+ */
+public final class PoolMetrics implements MetricsTrackerFactory {
+    private static final Logger logger = LoggerFactory.getLogger(PoolMetrics.class);
+
+    /**
+     * Length of the window the acquire time is checked over
+     */
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * Minimum number of acquires in a window before it is checked, a few slow ones are not a trend
+     */
+    private static final long MIN_WINDOW_SAMPLES = 20;
+
+    private final LatencyHistogram acquire = new LatencyHistogram();
+    private final LatencyHistogram usage = new LatencyHistogram();
+    private final LatencyHistogram creation = new LatencyHistogram();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder warnings = new LongAdder();
+    private volatile long warningNanos;
+
+    private volatile LatencyHistogram window = new LatencyHistogram();
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private volatile PoolStats poolStats;
+
+    /**
+     * @param warningThreshold acquire time p99 that triggers a warning, null to never warn
+     */
+    public PoolMetrics(Duration warningThreshold) {
+        setWarningThreshold(warningThreshold);
+    }
+
+    /**
+     * Change the acquire time p99 that triggers a warning, applies from the next window
+     * @param warningThreshold threshold, null to never warn
+     */
+    public void setWarningThreshold(Duration warningThreshold) {
+        this.warningNanos = warningThreshold == null ? Long.MAX_VALUE : warningThreshold.toNanos();
+    }
+
+    /**
+     * Get metrics of a pool
+     * @param pool pool created by {@link Database#createPool}
+     * @return metrics of the pool
+     */
+    public static PoolMetrics of(HikariDataSource pool) {
+        if(pool.getMetricsTrackerFactory() instanceof PoolMetrics metrics) {
+            return metrics;
+        }
+        throw new IllegalArgumentException("pool has no PoolMetrics");
+    }
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolStats = poolStats;
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionCreatedMillis(long millis) {
+                creation.record(TimeUnit.MILLISECONDS.toNanos(millis));
+            }
+
+            @Override
+            public void recordConnectionAcquiredNanos(long nanos) {
+                acquire.record(nanos);
+                window.record(nanos);
+                checkWindow();
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long millis) {
+                usage.record(TimeUnit.MILLISECONDS.toNanos(millis));
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+            }
+        };
+    }
+
+    /**
+     * Start a new window when the current one is over and warn if acquires were slow in it
+     */
+    private void checkWindow() {
+        long start = windowStart.get();
+        long now = System.nanoTime();
+        if(now - start < WINDOW_NANOS || !windowStart.compareAndSet(start, now)) {
+            return;
+        }
+
+        // Only one thread gets here per window, acquires recorded while swapping are lost which is fine
+        LatencyHistogram finished = window;
+        window = new LatencyHistogram();
+
+        if(finished.count() < MIN_WINDOW_SAMPLES) {
+            return;
+        }
+
+        long p99 = finished.quantile(0.99);
+        if(p99 > warningNanos) {
+            warnings.increment();
+            logger.warn("Connection pool acquire time p99 {} ms over the last {} s is above {} ms " +
+                        "(active {}, idle {}, waiting {}, max {}), the pool may be too small",
+                        String.format("%.1f", p99 / 1e6), TimeUnit.NANOSECONDS.toSeconds(now - start),
+                        String.format("%.1f", warningNanos / 1e6),
+                        activeConnections(), idleConnections(), pendingThreads(), maxConnections());
+        }
+    }
+
+    /** Time to acquire a connection from the pool */
+    public LatencyHistogram acquireTime() {
+        return acquire;
+    }
+
+    /** Time a connection was used before it was returned to the pool */
+    public LatencyHistogram usageTime() {
+        return usage;
+    }
+
+    /** Time to open a new connection */
+    public LatencyHistogram creationTime() {
+        return creation;
+    }
+
+    /** Number of requests for a connection that timed out */
+    public long timeouts() {
+        return timeouts.sum();
+    }
+
+    /** Number of warnings about slow acquires */
+    public long warnings() {
+        return warnings.sum();
+    }
+
+    /** Connections in use */
+    public int activeConnections() {
+        PoolStats stats = poolStats;
+        return stats == null ? 0 : stats.getActiveConnections();
+    }
+
+    /** Open connections not in use */
+    public int idleConnections() {
+        PoolStats stats = poolStats;
+        return stats == null ? 0 : stats.getIdleConnections();
+    }
+
+    /** Threads waiting for a connection */
+    public int pendingThreads() {
+        PoolStats stats = poolStats;
+        return stats == null ? 0 : stats.getPendingThreads();
+    }
+
+    /** Maximum number of connections */
+    public int maxConnections() {
+        PoolStats stats = poolStats;
+        return stats == null ? 0 : stats.getMaxConnections();
+    }
+}
@@ -0,0 +1,233 @@
+package etsf20.basesystem.persistance;
+
+import etsf20.basesystem.monitoring.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Execution time, row counts and failures per query.
+ *
+ * <p>Queries are grouped by a fingerprint of their SQL, see {@link QueryStats#fingerprint(String)}, so the same
+ * repository query is counted together regardless of formatting or inlined literals. Every query run through
+ * {@link Database} is recorded, queries slower than the threshold are also logged.</p>
+ */
+public final class QueryStats {
+    private static final Logger logger = LoggerFactory.getLogger(QueryStats.class);
+
+    /**
+     * Default time above which a query is logged as slow
+     */
+    public static final Duration DEFAULT_SLOW_THRESHOLD = Duration.ofMillis(100);
+
+    /**
+     * Upper bound of tracked queries, repositories use a fixed set of statements so this should never be reached
+     */
+    private static final int MAX_QUERIES = 1024;
+
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\?(\\s*,\\s*\\?)+");
+
+    /**
+     * Statistics of a single query
+     * @param fingerprint normalized sql
+     * @param count       number of executions
+     * @param failures    number of executions that failed
+     * @param slow        number of executions above the slow query threshold
+     * @param rows        rows returned or changed by all executions
+     * @param totalNanos  sum of execution times
+     * @param p95Nanos    estimated 95th percentile of execution times
+     * @param maxNanos    longest execution time
+     */
+    public record Summary(String fingerprint, long count, long failures, long slow, long rows,
+                          long totalNanos, long p95Nanos, long maxNanos) {
+        /** Average execution time in nanoseconds */
+        public double meanNanos() {
+            return count == 0 ? 0.0 : (double) totalNanos / count;
+        }
+
+        /** Average number of rows per execution */
+        public double meanRows() {
+            return count == 0 ? 0.0 : (double) rows / count;
+        }
+    }
+
+    private static final class Query {
+        private final String fingerprint;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder slow = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+
+        private Query(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    /** Query per exact sql, avoids computing the fingerprint on every execution */
+    private static final Map<String, Query> bySql = new ConcurrentHashMap<>();
+    private static final Map<String, Query> byFingerprint = new ConcurrentHashMap<>();
+    private static final LongAdder slowTotal = new LongAdder();
+    private static volatile long slowNanos = DEFAULT_SLOW_THRESHOLD.toNanos();
+
+    private QueryStats() {
+    }
+
+    /**
+     * Change the time above which a query is logged as slow
+     * @param threshold threshold, null to never log queries
+     */
+    public static void setSlowThreshold(Duration threshold) {
+        slowNanos = threshold == null ? Long.MAX_VALUE : threshold.toNanos();
+    }
+
+    /**
+     * Normalize sql so that the same query is grouped together
+     *
+     * <p>Whitespace is collapsed, string and number literals are replaced by {@code ?} and lists of placeholders
+     * such as {@code IN (?, ?, ?)} are shortened to {@code IN (?, ...)}.</p>
+     *
+     * @param sql sql
+     * @return fingerprint
+     */
+    public static String fingerprint(String sql) {
+        StringBuilder out = new StringBuilder(sql.length());
+        int i = 0;
+        int n = sql.length();
+        while (i < n) {
+            char c = sql.charAt(i);
+            if(Character.isWhitespace(c)) {
+                while (i < n && Character.isWhitespace(sql.charAt(i))) {
+                    i++;
+                }
+                if(!out.isEmpty() && i < n) {
+                    out.append(' ');
+                }
+            } else if(c == '\'') {
+                // string literal, '' is an escaped quote
+                i++;
+                while (i < n) {
+                    if(sql.charAt(i) == '\'') {
+                        if(i + 1 < n && sql.charAt(i + 1) == '\'') {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                i++;
+                out.append('?');
+            } else if(c == '"') {
+                // quoted identifier, kept as is
+                int end = sql.indexOf('"', i + 1);
+                end = end < 0 ? n : end + 1;
+                out.append(sql, i, end);
+                i = end;
+            } else if(Character.isDigit(c) && (out.isEmpty() || !isIdentifierPart(out.charAt(out.length() - 1)))) {
+                while (i < n && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                out.append('?');
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+        return PLACEHOLDER_LIST.matcher(out).replaceAll("?, ...");
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static Query query(String sql) {
+        Query query = bySql.get(sql);
+        if(query == null) {
+            if(bySql.size() >= MAX_QUERIES) {
+                return null;
+            }
+            String fingerprint = fingerprint(sql);
+            query = byFingerprint.computeIfAbsent(fingerprint, Query::new);
+            bySql.putIfAbsent(sql, query);
+        }
+        return query;
+    }
+
+    /**
+     * Record an executed query
+     * @param sql   executed sql
+     * @param nanos execution time including reading the result
+     * @param rows  rows returned or changed
+     */
+    static void record(String sql, long nanos, long rows) {
+        Query query = query(sql);
+        if(query != null) {
+            query.latency.record(nanos);
+            query.rows.add(rows);
+        }
+
+        if(nanos > slowNanos) {
+            slowTotal.increment();
+            if(query != null) {
+                query.slow.increment();
+            }
+            logger.warn("Slow query, {} ms and {} rows: {}",
+                        String.format("%.1f", nanos / 1e6), rows, query != null ? query.fingerprint : fingerprint(sql));
+        }
+    }
+
+    /**
+     * Record a query that failed
+     * @param sql   executed sql
+     * @param nanos time until it failed
+     */
+    static void failed(String sql, long nanos) {
+        Query query = query(sql);
+        if(query != null) {
+            query.latency.record(nanos);
+            query.failures.increment();
+        }
+    }
+
+    /** Number of queries above the slow query threshold */
+    public static long slowQueries() {
+        return slowTotal.sum();
+    }
+
+    /**
+     * Get statistics of all queries
+     * @return summary per fingerprint, sorted by total execution time, longest first
+     */
+    public static List<Summary> snapshot() {
+        List<Summary> result = new ArrayList<>();
+        for (Query query : byFingerprint.values()) {
+            LatencyHistogram latency = query.latency;
+            result.add(new Summary(query.fingerprint, latency.count(), query.failures.sum(), query.slow.sum(),
+                                   query.rows.sum(), latency.sumNanos(), latency.quantile(0.95), latency.maxNanos()));
+        }
+        result.sort(Comparator.comparingLong(Summary::totalNanos).reversed());
+        return result;
+    }
+
+    /**
+     * Log the queries with the longest total execution time
+     * @param limit maximum number of queries to log
+     */
+    public static void log(int limit) {
+        snapshot().stream().limit(limit).forEach(summary -> logger.info("Query {} times, total {} ms, mean {} ms, max {} ms: {}",
+                summary.count(),
+                TimeUnit.NANOSECONDS.toMillis(summary.totalNanos()),
+                String.format("%.2f", summary.meanNanos() / 1e6),
+                String.format("%.2f", summary.maxNanos() / 1e6),
+                summary.fingerprint()));
+    }
+}
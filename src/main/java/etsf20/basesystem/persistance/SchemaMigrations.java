@@ -0,0 +1,109 @@
+package etsf20.basesystem.persistance;
+
+import org.h2.tools.RunScript;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Versioned changes to the database schema applied on top of {@code schema.sql}.
+ *
+ * <p>Each migration is a script in {@code /migrations} named {@code V<version>__<description>.sql} and is applied
+ * exactly once, in version order. Applied versions are recorded in the {@code schema_migrations} table, so existing
+ * databases are brought up to date at startup.</p>
+ *
+ * <p><b>Remarks:</b> never change a script that has been released, add a new version instead.</p>
+ */
+public final class SchemaMigrations {
+    /**
+     * All migrations in version order, new scripts must be added last
+     */
+    private static final String[] SCRIPTS = {
+            "V001__note_and_member_indexes.sql",
+            "V002__sessions.sql",
+            "V003__note_search.sql",
+            "V004__project_name_index.sql",
+    };
+
+    private SchemaMigrations() {
+    }
+
+    /**
+     * Apply all migrations that have not been applied yet
+     * @param conn connection to migrate, changes are committed
+     * @return number of applied migrations
+     * @throws SQLException if a migration fails, previously applied migrations are kept
+     */
+    public static int migrate(Connection conn) throws SQLException {
+        Logger logger = LoggerFactory.getLogger(SchemaMigrations.class);
+
+        try(Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_migrations(" +
+                         "version INT NOT NULL, " +
+                         "script VARCHAR(255) NOT NULL, " +
+                         "applied TIMESTAMP WITH TIME ZONE DEFAULT NOW(), " +
+                         "primary key (version))");
+        }
+
+        Set<Integer> applied = new HashSet<>();
+        try(Statement stmt = conn.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT version FROM schema_migrations")) {
+            while(rs.next()) {
+                applied.add(rs.getInt(1));
+            }
+        }
+
+        int count = 0;
+        for (String script : SCRIPTS) {
+            int version = version(script);
+            if(applied.contains(version)) {
+                continue;
+            }
+
+            logger.info("Applying schema migration {}", script);
+            try(InputStream resource = SchemaMigrations.class.getResourceAsStream("/migrations/" + script)) {
+                if(resource == null) {
+                    throw new SQLException("Missing migration script " + script);
+                }
+                RunScript.execute(conn, new InputStreamReader(resource, StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new SQLException("Failed to read migration script " + script, e);
+            }
+
+            try(PreparedStatement stmt = conn.prepareStatement("INSERT INTO schema_migrations(version, script) VALUES (?, ?)")) {
+                stmt.setInt(1, version);
+                stmt.setString(2, script);
+                stmt.executeUpdate();
+            }
+
+            if(!conn.getAutoCommit()) {
+                conn.commit();
+            }
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Get the version from a script name such as {@code V001__description.sql}
+     */
+    static int version(String script) {
+        int end = script.indexOf("__");
+        if(!script.startsWith("V") || end == -1) {
+            throw new IllegalArgumentException("Invalid migration script name: " + script);
+        }
+        return Integer.parseInt(script.substring(1, end));
+    }
+}
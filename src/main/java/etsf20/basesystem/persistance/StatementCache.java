@@ -0,0 +1,288 @@
+package etsf20.basesystem.persistance;
+
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded LRU cache of prepared statements for a single physical connection.
+ *
+ * <p>Pooled connections are handed out as proxies which close every statement they have created when the
+ * connection is returned to the pool. Statements in this cache are prepared on the physical connection
+ * (unwrapped from the pool proxy) so that they survive between requests and H2 does not have to parse and plan
+ * the same SQL again.</p>
+ *
+ * <p><b>Remarks:</b> a physical connection is only used by one thread at a time (the one that has checked it out
+ * of the pool), statements must therefore never be shared outside the request that borrowed the connection.</p>
+ */
+public final class StatementCache {
+    /**
+     * Default maximum number of statements kept per connection
+     */
+    public static final int DEFAULT_MAX_SIZE = 64;
+
+    private static final Map<Connection, StatementCache> caches = new ConcurrentHashMap<>();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+    private static volatile int maxSize = DEFAULT_MAX_SIZE;
+
+    /**
+     * Cache key, the same sql can be prepared with and without generated keys
+     */
+    private record Key(String sql, boolean generatedKeys) {}
+
+    private final Connection physical;
+    // Not synchronized, a virtual thread blocked in JDBC inside a monitor would pin its carrier thread
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Key, PreparedStatement> statements;
+    private final Set<PreparedStatement> borrowed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private StatementCache(Connection physical) {
+        this.physical = physical;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Get the statement cache for a connection
+     * @param conn pooled or plain JDBC connection
+     * @return cache bound to the underlying physical connection
+     * @throws SQLException if the connection could not be unwrapped
+     */
+    static StatementCache forConnection(Connection conn) throws SQLException {
+        Connection physical = conn.unwrap(Connection.class);
+        StatementCache cache = caches.get(physical);
+        if(cache == null) {
+            // New physical connection, the pool might have retired old ones since the last time.
+            pruneClosed();
+            cache = caches.computeIfAbsent(physical, StatementCache::new);
+        }
+        return cache;
+    }
+
+    /**
+     * Release statements borrowed by a connection, called when a request is done with it
+     * @param conn pooled or plain JDBC connection
+     */
+    static void release(Connection conn) {
+        try {
+            StatementCache cache = caches.get(conn.unwrap(Connection.class));
+            if(cache != null) {
+                cache.clearBorrowed();
+            }
+        } catch (SQLException e) {
+            LoggerFactory.getLogger(StatementCache.class).warn("Failed to release cached statements", e);
+        }
+    }
+
+    /**
+     * Close every cached statement for every connection, used when the connection pool is shutting down
+     */
+    public static void closeAll() {
+        for (StatementCache cache : caches.values()) {
+            cache.close();
+        }
+        caches.clear();
+    }
+
+    private static void pruneClosed() {
+        caches.entrySet().removeIf(e -> {
+            try {
+                return e.getKey().isClosed();
+            } catch (SQLException ex) {
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Get a cached statement or prepare a new one
+     * @param sql sql to prepare
+     * @param generatedKeys if generated keys should be returned by the statement
+     * @return prepared statement, must not be closed by the caller
+     * @throws SQLException if the statement could not be prepared
+     */
+    PreparedStatement prepare(String sql, boolean generatedKeys) throws SQLException {
+        Key key = new Key(sql, generatedKeys);
+
+        PreparedStatement stmt;
+        lock.lock();
+        try {
+            stmt = statements.get(key);
+            if(stmt != null) {
+                // Borrowed in the same step as it is found so that trim() cannot close it in between
+                borrowed.add(stmt);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if(stmt != null && !stmt.isClosed()) {
+            hits.increment();
+        } else {
+            misses.increment();
+            stmt = generatedKeys ? physical.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)
+                                 : physical.prepareStatement(sql);
+
+            List<PreparedStatement> evicted;
+            lock.lock();
+            try {
+                statements.put(key, stmt);
+                borrowed.add(stmt);
+                evicted = evictEldest();
+            } finally {
+                lock.unlock();
+            }
+            closeEvicted(evicted);
+        }
+        return stmt;
+    }
+
+    /**
+     * Remove the least recently used statements until the cache fits its maximum size, must hold the lock
+     *
+     * <p>Statements borrowed by the ongoing request are kept as they may still be in use, e.g. by an open cursor.
+     * The cache can then be too large until a miss after the connection has been released.</p>
+     *
+     * @return removed statements to close once the lock is released
+     */
+    private List<PreparedStatement> evictEldest() {
+        List<PreparedStatement> evicted = new ArrayList<>();
+        var eldest = statements.values().iterator();
+        while (statements.size() > maxSize && eldest.hasNext()) {
+            PreparedStatement stmt = eldest.next();
+            if(!borrowed.contains(stmt)) {
+                eldest.remove();
+                evicted.add(stmt);
+            }
+        }
+        return evicted;
+    }
+
+    private static void closeEvicted(List<PreparedStatement> evicted) {
+        for (PreparedStatement stmt : evicted) {
+            evictions.increment();
+            closeQuietly(stmt);
+        }
+    }
+
+    /**
+     * Shrink the cache after the maximum size was lowered
+     */
+    private void trim() {
+        List<PreparedStatement> evicted;
+        lock.lock();
+        try {
+            evicted = evictEldest();
+        } finally {
+            lock.unlock();
+        }
+        closeEvicted(evicted);
+    }
+
+    /**
+     * Drop parameters bound during the request so that no request data is retained by idle statements
+     */
+    private void clearBorrowed() {
+        lock.lock();
+        try {
+            for (PreparedStatement stmt : borrowed) {
+                try {
+                    if(!stmt.isClosed()) {
+                        stmt.clearParameters();
+                    }
+                } catch (SQLException e) {
+                    // statement is broken - make sure it is not reused
+                    statements.values().remove(stmt);
+                    closeQuietly(stmt);
+                }
+            }
+            borrowed.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void close() {
+        lock.lock();
+        try {
+            statements.values().forEach(StatementCache::closeQuietly);
+            statements.clear();
+            borrowed.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            LoggerFactory.getLogger(StatementCache.class).warn("Failed to close cached statement", e);
+        }
+    }
+
+    /**
+     * Change the maximum number of statements kept per connection, caches that are too large are trimmed
+     * @param size maximum number of statements, must be positive
+     */
+    public static void setMaxSize(int size) {
+        if(size < 1) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        int previous = maxSize;
+        maxSize = size;
+        if(size < previous) {
+            for (StatementCache cache : caches.values()) {
+                cache.trim();
+            }
+        }
+    }
+
+    /** Get the maximum number of statements kept per connection */
+    public static int getMaxSize() {
+        return maxSize;
+    }
+
+    /** Number of statements currently cached over all connections */
+    public static int size() {
+        int size = 0;
+        for (StatementCache cache : caches.values()) {
+            cache.lock.lock();
+            try {
+                size += cache.statements.size();
+            } finally {
+                cache.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    /** Number of statements that were reused */
+    public static long hits() {
+        return hits.sum();
+    }
+
+    /** Number of statements that had to be prepared */
+    public static long misses() {
+        return misses.sum();
+    }
+
+    /** Number of statements closed because the cache was full */
+    public static long evictions() {
+        return evictions.sum();
+    }
+}
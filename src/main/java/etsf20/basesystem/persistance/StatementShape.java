@@ -0,0 +1,144 @@
+package etsf20.basesystem.persistance;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled SQL for a simple INSERT, UPDATE or DELETE on a table with a given set of columns.
+ *
+ * <p>The generated SQL only depends on the table and the column names, not the values. Shapes are therefore
+ * memoized so that repeated writes, e.g. {@code NoteRepository.update}, skip building and sorting on every call.
+ * Columns are always bound in sorted order, first the value columns then the key columns.</p>
+ *
+ * <p><b>Remarks:</b> table and column names are inserted verbatim, see {@link Database#update(String, Map, Map)}</p>
+ */
+final class StatementShape {
+    /**
+     * Upper bound of memoized shapes, tables and columns are hardcoded so this should never be reached.
+     */
+    private static final int MAX_SHAPES = 1024;
+
+    private enum Kind { INSERT, UPDATE, DELETE }
+
+    private record Key(Kind kind, String table, Set<String> columns, Set<String> keyColumns) {}
+
+    private static final Map<Key, StatementShape> shapes = new ConcurrentHashMap<>();
+
+    private final String sql;
+    private final String[] columns;
+    private final String[] keyColumns;
+
+    private StatementShape(String sql, String[] columns, String[] keyColumns) {
+        this.sql = sql;
+        this.columns = columns;
+        this.keyColumns = keyColumns;
+    }
+
+    /**
+     * Shape of {@code INSERT INTO table(columns...) VALUES (?...)} or {@code INSERT INTO table DEFAULT VALUES}
+     * @param table  table to insert into
+     * @param values the values to insert, only the column names are used
+     */
+    static StatementShape insert(String table, Map<String,?> values) {
+        return lookup(new Key(Kind.INSERT, table, values.keySet(), Collections.emptySet()));
+    }
+
+    /**
+     * Shape of {@code UPDATE table SET column = ?... WHERE key = ? AND ...}
+     * @param table   table to update
+     * @param updates changes, only the column names are used
+     * @param key     row selection, only the column names are used
+     */
+    static StatementShape update(String table, Map<String,?> updates, Map<String,?> key) {
+        return lookup(new Key(Kind.UPDATE, table, updates.keySet(), key.keySet()));
+    }
+
+    /**
+     * Shape of {@code DELETE FROM table WHERE key = ? AND ...}
+     * @param table table to delete from
+     * @param key   row selection, only the column names are used
+     */
+    static StatementShape delete(String table, Map<String,?> key) {
+        return lookup(new Key(Kind.DELETE, table, Collections.emptySet(), key.keySet()));
+    }
+
+    private static StatementShape lookup(Key key) {
+        StatementShape shape = shapes.get(key);
+        if(shape == null) {
+            shape = compile(key);
+
+            if(shapes.size() < MAX_SHAPES) {
+                // Copy the column sets, the lookup key references the callers maps
+                shapes.putIfAbsent(new Key(key.kind(), key.table(), Set.copyOf(key.columns()), Set.copyOf(key.keyColumns())), shape);
+            }
+        }
+        return shape;
+    }
+
+    private static StatementShape compile(Key key) {
+        String[] columns = key.columns().stream().sorted().toArray(String[]::new);
+        String[] keyColumns = key.keyColumns().stream().sorted().toArray(String[]::new);
+
+        StringBuilder sb = new StringBuilder();
+        switch (key.kind()) {
+            case INSERT -> {
+                sb.append("INSERT INTO ").append(key.table());
+                if(columns.length == 0) {
+                    sb.append(" DEFAULT VALUES");
+                } else {
+                    sb.append("(").append(String.join(",", columns)).append(") VALUES (");
+                    sb.append("?");
+                    sb.append(",?".repeat(columns.length - 1));
+                    sb.append(")");
+                }
+            }
+            case UPDATE -> {
+                sb.append("UPDATE ").append(key.table()).append(" SET ");
+                appendAssignments(sb, columns, ",");
+                sb.append(" WHERE ");
+                appendAssignments(sb, keyColumns, " AND ");
+            }
+            case DELETE -> {
+                sb.append("DELETE FROM ").append(key.table()).append(" WHERE ");
+                appendAssignments(sb, keyColumns, " AND ");
+            }
+        }
+
+        return new StatementShape(sb.toString(), columns, keyColumns);
+    }
+
+    private static void appendAssignments(StringBuilder sb, String[] columns, String separator) {
+        for (int i = 0; i < columns.length; i++) {
+            if(i > 0) {
+                sb.append(separator);
+            }
+            sb.append(columns[i]).append(" = ?");
+        }
+    }
+
+    /** Get the SQL for this shape */
+    String sql() {
+        return sql;
+    }
+
+    /**
+     * Bind parameters in the order given by the shape
+     * @param stmt   statement prepared from {@link StatementShape#sql()}
+     * @param values value columns, may be empty for DELETE
+     * @param key    key columns, may be empty for INSERT
+     * @throws SQLException if a parameter could not be set
+     */
+    void bind(PreparedStatement stmt, Map<String,?> values, Map<String,?> key) throws SQLException {
+        int pos = 1;
+        for (String column : columns) {
+            stmt.setObject(pos++, values.get(column));
+        }
+        for (String column : keyColumns) {
+            stmt.setObject(pos++, key.get(column));
+        }
+    }
+}
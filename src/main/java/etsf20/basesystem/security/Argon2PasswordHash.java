@@ -3,6 +3,7 @@ package etsf20.basesystem.security;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
+import java.time.Duration;
 import java.util.Base64;
 import java.util.Scanner;
 import java.util.Base64.Decoder;
@@ -10,93 +11,249 @@ import java.util.Base64.Encoder;
 
 import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
 import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.slf4j.LoggerFactory;
 
 /**
  * Argon2 - Modern secure password hashing
  * <p>Read more about algorithm: <a href="https://ieeexplore.ieee.org/document/7467361">Argon2 Paper</a>
+ *
+ * <p>Hashes are stored as {@code 2$m=<memory KB>,t=<iterations>,p=<parallelism>$salt$hash} so that the cost can be
+ * changed per deployment, see {@link Argon2PasswordHash#configure(Parameters)} and
+ * {@link Argon2PasswordHash#calibrate(Duration)}. Hashes created with other parameters still verify and can be
+ * replaced on the next login, see {@link Argon2PasswordHash#needsRehash(String)}. The original format
+ * {@code 1$salt$hash} always used {@link Argon2PasswordHash#DEFAULT_PARAMETERS}.</p>
  */
 public class Argon2PasswordHash {
 
+    /**
+     * Argon2 cost parameters
+     * @param memoryKB    memory used per hash in KB
+     * @param iterations  number of passes over the memory
+     * @param parallelism number of lanes
+     */
+    public record Parameters(int memoryKB, int iterations, int parallelism) {
+        public Parameters {
+            if(memoryKB < 8 * parallelism || memoryKB > MAX_MEMORY_KB) {
+                throw new IllegalArgumentException("memoryKB out of range: " + memoryKB);
+            }
+            if(iterations < 1 || iterations > MAX_ITERATIONS) {
+                throw new IllegalArgumentException("iterations out of range: " + iterations);
+            }
+            if(parallelism < 1 || parallelism > 16) {
+                throw new IllegalArgumentException("parallelism out of range: " + parallelism);
+            }
+        }
+
+        private String encode() {
+            return "m=" + memoryKB + ",t=" + iterations + ",p=" + parallelism;
+        }
+
+        private static Parameters decode(String encoded) {
+            int memoryKB = -1, iterations = -1, parallelism = -1;
+            for (String part : encoded.split(",")) {
+                String[] keyValue = part.split("=", 2);
+                if(keyValue.length != 2) {
+                    throw new IllegalArgumentException("invalid parameter: " + part);
+                }
+
+                int value = Integer.parseInt(keyValue[1]);
+                switch (keyValue[0]) {
+                    case "m" -> memoryKB = value;
+                    case "t" -> iterations = value;
+                    case "p" -> parallelism = value;
+                    default -> throw new IllegalArgumentException("unknown parameter: " + keyValue[0]);
+                }
+            }
+            return new Parameters(memoryKB, iterations, parallelism);
+        }
+    }
+
+    /**
+     * Recommended specifications by OWASP, also the parameters of every hash in the original {@code 1$} format
+     * <p>Source: <a href="https://cheatsheetseries.owasp.org/cheatsheets/Password_Storage_Cheat_Sheet.html">OWASP</a></p>
+     */
+    public static final Parameters DEFAULT_PARAMETERS = new Parameters(19456, 2, 1);
+
+    /**
+     * Upper bound of iterations, both for calibration and for stored hashes
+     */
+    private static final int MAX_ITERATIONS = 32;
+
+    /**
+     * Upper bound of memory, a stored hash can never make the server allocate more than this
+     */
+    private static final int MAX_MEMORY_KB = 1024 * 1024;
+
+    private static volatile Parameters current = DEFAULT_PARAMETERS;
+
     /**
      * Construct Argon2 parameters
+     * @param parameters cost parameters
      * @param salt salt to use, make sure it has high entropy (sufficient randomness)
      * @return parameters to use
      */
-    private static Argon2Parameters getParameters(byte[] salt) {
+    private static Argon2Parameters getParameters(Parameters parameters, byte[] salt) {
          // Configure Argon2 parameters
          Argon2Parameters.Builder builder = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id);
 
-        // Recommended specifications by OWASP
-        // Source: https://cheatsheetseries.owasp.org/cheatsheets/Password_Storage_Cheat_Sheet.html
-        builder.withIterations(2)
-               .withMemoryAsKB(19456)
-               .withParallelism(1)
+        builder.withIterations(parameters.iterations())
+               .withMemoryAsKB(parameters.memoryKB())
+               .withParallelism(parameters.parallelism())
                .withSalt(salt);
 
         return builder.build();
     }
 
+    /**
+     * Change the parameters used for new hashes
+     * @param parameters cost parameters
+     */
+    public static void configure(Parameters parameters) {
+        current = parameters;
+    }
+
+    /**
+     * Get the parameters used for new hashes
+     */
+    public static Parameters current() {
+        return current;
+    }
+
+    /**
+     * Find the number of iterations that makes a hash take about the target time on this machine
+     *
+     * <p>Memory and parallelism are kept at {@link Argon2PasswordHash#DEFAULT_PARAMETERS}, the iterations are never
+     * lowered below the default. Runs on the calling thread and takes a few times the target, call it at startup.</p>
+     *
+     * @param target wanted time to verify a password
+     * @return calibrated parameters
+     */
+    public static Parameters calibrate(Duration target) {
+        byte[] salt = new byte[16];
+        new SecureRandom().nextBytes(salt);
+
+        // first run warms up the JIT and is not measured
+        generate(DEFAULT_PARAMETERS, "calibration", salt);
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            generate(DEFAULT_PARAMETERS, "calibration", salt);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        // the cost grows linearly with the number of iterations
+        double perIteration = (double) best / DEFAULT_PARAMETERS.iterations();
+        int iterations = (int) Math.round(target.toNanos() / perIteration);
+        iterations = Math.max(DEFAULT_PARAMETERS.iterations(), Math.min(MAX_ITERATIONS, iterations));
+
+        Parameters calibrated = new Parameters(DEFAULT_PARAMETERS.memoryKB(), iterations, DEFAULT_PARAMETERS.parallelism());
+        LoggerFactory.getLogger(Argon2PasswordHash.class).info("Calibrated password hashing to {} ({} ms per iteration)",
+                calibrated.encode(), String.format("%.1f", perIteration / 1e6));
+        return calibrated;
+    }
+
     /**
      * Create new hash of password
      * <b>Remarks</b>: This will generate a new hash each time dependent on the salt
      * @param password plain-text password
      * @see Argon2PasswordHash#verify for verifying a created hash
-     * @see Argon2PasswordHash#getParameters for the parameters chosen for this hash
-     * @return hashed password, consists of salt + hash encoded as base64
+     * @see Argon2PasswordHash#current for the parameters chosen for this hash
+     * @return hashed password, consists of parameters + salt + hash, the last two encoded as base64
+     * @throws HashingRejectedException if too many hashes are in progress
      */
     public static String create(String password) {
-        Argon2BytesGenerator generator = new Argon2BytesGenerator();
-        byte[] passwordBytes = password.getBytes(StandardCharsets.UTF_8);
+        Parameters parameters = current;
         byte[] salt = new byte[16]; // 16 bytes salt
-        byte[] hash = new byte[32]; // 32 bytes hash
 
         SecureRandom secureRandom = new SecureRandom();
         secureRandom.nextBytes(salt);
-        
-        generator.init(getParameters(salt));
-        generator.generateBytes(passwordBytes, hash);
-        
+
+        byte[] hash = hash(parameters, password, salt);
+
         // Salt must be stored with the password
         Encoder b64encoder = Base64.getEncoder();
 
-        // Encoded as type id (future-proofing for multiple algorithms) $ salt $ hash
-        return "1$" + b64encoder.encodeToString(salt) + "$" + b64encoder.encodeToString(hash);
+        // Encoded as type id (future-proofing for multiple algorithms) $ parameters $ salt $ hash
+        return "2$" + parameters.encode() + "$" + b64encoder.encodeToString(salt) + "$" + b64encoder.encodeToString(hash);
     }
 
     /**
      * Compare plain-text password with saved hashed variant
-     * @param savedHash     salt + hash encoded as base64
+     * @param savedHash     parameters + salt + hash, see {@link Argon2PasswordHash#create(String)}
      * @param testPassword  plain-text password to check if it matches
      * @return true if saved hash matches test password
+     * @throws HashingRejectedException if too many hashes are in progress
      */
     public static boolean verify(String savedHash, String testPassword) {
-        String[] parts = savedHash.split("\\$", 3);
-        if(parts.length < 3) {
-            // incorrect format
+        String[] parts = savedHash.split("\\$", 4);
+
+        Decoder decoder = Base64.getDecoder();
+        Parameters parameters;
+        byte[] salt;
+        byte[] testHash;
+        try {
+            if(parts.length == 3 && parts[0].equals("1")) {
+                parameters = DEFAULT_PARAMETERS;
+                salt = decoder.decode(parts[1]);
+                testHash = decoder.decode(parts[2]);
+            } else if(parts.length == 4 && parts[0].equals("2")) {
+                parameters = Parameters.decode(parts[1]);
+                salt = decoder.decode(parts[2]);
+                testHash = decoder.decode(parts[3]);
+            } else {
+                // incorrect format or type does not match
+                return false;
+            }
+        } catch (IllegalArgumentException e) {
+            // invalid parameters or encoding
             return false;
         }
 
-        Decoder decoder = Base64.getDecoder();
+        byte[] verifyHash = hash(parameters, testPassword, salt);
+
+        // To mitigate timing attacks, i.e. it does not escape at first non equal byte
+        return MessageDigest.isEqual(testHash, verifyHash);
+    }
 
-        String type = parts[0];
-        byte[] salt = decoder.decode(parts[1]);
-        byte[] testHash = decoder.decode(parts[2]);
+    /**
+     * Check if a saved hash was created with other parameters than the current ones
+     * @param savedHash saved hash
+     * @return true if the password should be hashed again, which requires the plain-text password
+     */
+    public static boolean needsRehash(String savedHash) {
+        String[] parts = savedHash.split("\\$", 4);
+        if(parts.length != 4 || !parts[0].equals("2")) {
+            return true;
+        }
 
-        if(!type.equals("1")) {
-            // type does not match
-            return false;
+        try {
+            return !Parameters.decode(parts[1]).equals(current);
+        } catch (IllegalArgumentException e) {
+            return true;
         }
+    }
 
-        Argon2BytesGenerator generator = new Argon2BytesGenerator();
-        
-        byte[] passwordBytes = testPassword.getBytes(StandardCharsets.UTF_8);
-        byte[] verifyHash = new byte[32]; // 32 bytes hash
+    /**
+     * Compute the Argon2 hash on the hashing executor
+     * @param parameters cost parameters
+     * @param password plain-text password
+     * @param salt salt to use
+     * @return 32 bytes hash
+     * @see HashingExecutor
+     */
+    private static byte[] hash(Parameters parameters, String password, byte[] salt) {
+        return HashingExecutor.run(() -> generate(parameters, password, salt));
+    }
 
-        generator.init(getParameters(salt));
-        generator.generateBytes(passwordBytes, verifyHash);
+    private static byte[] generate(Parameters parameters, String password, byte[] salt) {
+        Argon2BytesGenerator generator = new Argon2BytesGenerator();
+        byte[] passwordBytes = password.getBytes(StandardCharsets.UTF_8);
+        byte[] hash = new byte[32]; // 32 bytes hash
 
-        // To mitigate timing attacks, i.e. it does not escape at first non equal byte
-        return MessageDigest.isEqual(testHash, verifyHash);
+        generator.init(getParameters(parameters, salt));
+        generator.generateBytes(passwordBytes, hash);
+        return hash;
     }
 
     /**
@@ -105,7 +262,7 @@ public class Argon2PasswordHash {
     public static void main(String[] args) {
         System.out.println("Argon2id Password Generator Utility");
         System.out.println("Enter password:");
-        
+
         try (Scanner scanner = new Scanner(System.in)) {
             if(scanner.hasNextLine()) {
                 String password = scanner.nextLine();
@@ -0,0 +1,149 @@
+package etsf20.basesystem.security;
+
+import etsf20.basesystem.monitoring.LatencyHistogram;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-limited executor for password hashing.
+ *
+ * <p>Every Argon2 hash uses about 19 MB and a full CPU core for a noticeable time. Hashes are therefore computed by a
+ * fixed number of threads with a bounded queue in front, which limits the memory and CPU used by a burst of logins.
+ * When the queue is full new hashes are rejected at once with {@link HashingRejectedException} instead of letting
+ * request threads pile up.</p>
+ *
+ * <p><b>Remarks:</b> the calling thread waits for the result, it does not compute the hash itself.</p>
+ */
+public final class HashingExecutor {
+    /**
+     * Default number of hashing threads, half of the cores so that normal requests are served during a burst
+     */
+    public static final int DEFAULT_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    /**
+     * Default number of hashes waiting for a thread before new ones are rejected
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 32;
+
+    /**
+     * Current hashing statistics
+     * @param threads       number of hashing threads
+     * @param active        hashes being computed
+     * @param queued        hashes waiting for a thread
+     * @param completed     hashes computed
+     * @param rejected      hashes rejected because the queue was full
+     * @param hashTime      time spent computing each hash
+     * @param waitTime      time each hash waited in the queue for a thread, grows before hashes are rejected
+     */
+    public record Stats(int threads, int active, int queued, long completed, long rejected,
+                        LatencyHistogram hashTime, LatencyHistogram waitTime) {}
+
+    private static volatile HashingExecutor instance = new HashingExecutor(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+
+    private final ThreadPoolExecutor executor;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LatencyHistogram hashTime = new LatencyHistogram();
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+
+    private HashingExecutor(int threads, int queueSize) {
+        if(threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        if(queueSize < 1) {
+            throw new IllegalArgumentException("queueSize must be positive");
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "password-hashing-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                                               new ArrayBlockingQueue<>(queueSize), threadFactory,
+                                               new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Replace the hashing executor, hashes already submitted to the previous one are completed
+     * @param threads   number of hashing threads
+     * @param queueSize number of hashes that may wait for a thread
+     */
+    public static void configure(int threads, int queueSize) {
+        HashingExecutor previous = instance;
+        instance = new HashingExecutor(threads, queueSize);
+        previous.executor.shutdown();
+    }
+
+    /**
+     * Compute a hash on the hashing executor and wait for the result
+     * @param task hashing task
+     * @return result of the task
+     * @param <T> result type
+     * @throws HashingRejectedException if too many hashes are already waiting
+     */
+    static <T> T run(Callable<T> task) {
+        return instance.execute(task);
+    }
+
+    private <T> T execute(Callable<T> task) {
+        long submitted = System.nanoTime();
+
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                long started = System.nanoTime();
+                waitTime.record(started - submitted);
+                try {
+                    return task.call();
+                } finally {
+                    hashTime.record(System.nanoTime() - started);
+                    completed.increment();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new HashingRejectedException(e);
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for password hash", e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Password hashing failed", e.getCause());
+        }
+    }
+
+    /**
+     * Get current statistics of the hashing executor
+     */
+    public static Stats stats() {
+        HashingExecutor current = instance;
+        return new Stats(
+                current.executor.getCorePoolSize(),
+                current.executor.getActiveCount(),
+                current.executor.getQueue().size(),
+                current.completed.sum(),
+                current.rejected.sum(),
+                current.hashTime,
+                current.waitTime
+        );
+    }
+}
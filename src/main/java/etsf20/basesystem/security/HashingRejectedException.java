@@ -0,0 +1,17 @@
+package etsf20.basesystem.security;
+
+/**
+ * Thrown when a password hash can not be computed right now because too many are already waiting.
+ *
+ * <p>The request should be answered with 503 Service Unavailable and retried later.</p>
+ */
+public class HashingRejectedException extends RuntimeException {
+    /**
+     * Suggested number of seconds to wait before trying again
+     */
+    public static final int RETRY_AFTER_SECONDS = 2;
+
+    public HashingRejectedException(Throwable cause) {
+        super("Too many password hashes in progress", cause);
+    }
+}
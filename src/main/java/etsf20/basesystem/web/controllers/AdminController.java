@@ -2,6 +2,8 @@ package etsf20.basesystem.web.controllers;
 
 import io.javalin.http.Context;
 import etsf20.basesystem.domain.models.UserRole;
+import etsf20.basesystem.web.controllers.admin.AdminMetricsController;
+import etsf20.basesystem.web.controllers.admin.AdminQueryController;
 import etsf20.basesystem.web.controllers.admin.AdminUserController;
 import etsf20.basesystem.web.pages.TemplatePage;
 
@@ -25,5 +27,7 @@ public class AdminController {
     public static void configure() {
         get("/", AdminController::index, UserRole.ADMIN);
         path("/users/", AdminUserController::configure);
+        path("/metrics/", AdminMetricsController::configure);
+        path("/queries/", AdminQueryController::configure);
     }
 }
@@ -4,6 +4,8 @@ import io.javalin.http.Context;
 import io.javalin.http.HandlerType;
 import io.javalin.http.NotFoundResponse;
 import etsf20.basesystem.domain.models.Note;
+import etsf20.basesystem.domain.models.NoteCursor;
+import etsf20.basesystem.domain.models.NoteSlice;
 import etsf20.basesystem.domain.models.UserRole;
 import etsf20.basesystem.domain.repositories.Repositories;
 import etsf20.basesystem.web.ValidationException;
@@ -11,6 +13,7 @@ import etsf20.basesystem.web.pages.AlertType;
 import etsf20.basesystem.web.pages.Session;
 import etsf20.basesystem.web.pages.notes.CreateEditNotePage;
 import etsf20.basesystem.web.pages.notes.ListNotesPage;
+import etsf20.basesystem.web.pages.notes.SearchNotesPage;
 import etsf20.basesystem.web.pages.notes.ViewNotePage;
 import etsf20.basesystem.web.pages.FormattedString;
 import etsf20.basesystem.web.pages.QuestionPage;
@@ -26,16 +29,50 @@ import static io.javalin.apibuilder.ApiBuilder.*;
  */
 public class NoteController {
 
+    /**
+     * Number of notes shown per page in the list
+     */
+    private static final int PAGE_SIZE = 25;
+
+    /**
+     * Number of notes shown in search results
+     */
+    private static final int SEARCH_RESULTS = 25;
+
     /**
      * GET /journal/
+     * @throws ValidationException if the page cursor has an invalid format
      */
-    public static void list(Context ctx) {
+    public static void list(Context ctx) throws ValidationException {
+        NoteCursor after = null;
+        String cursor = ctx.queryParam("after");
+        if(cursor != null) {
+            try {
+                after = NoteCursor.decode(cursor);
+            } catch(IllegalArgumentException ex) {
+                throw new ValidationException("Could not parse page cursor", ex.getMessage(), ex);
+            }
+        }
+
         Repositories repos = Repositories.from(ctx);
-        List<Note> notes = repos.notes().list(Session.from(ctx).username(), -1, 0, false);
-        ListNotesPage listNotesPage = new ListNotesPage(ctx, notes);
+        NoteSlice notes = repos.notes().list(Session.from(ctx).username(), after, PAGE_SIZE, false);
+        ListNotesPage listNotesPage = new ListNotesPage(ctx, notes.notes(), notes.next().map(NoteCursor::encode).orElse(null), after != null);
         listNotesPage.render();
     }
 
+    /**
+     * GET /notes/search?q=
+     */
+    public static void search(Context ctx) {
+        String query = Optional.ofNullable(ctx.queryParam("q")).orElse("");
+
+        Repositories repos = Repositories.from(ctx);
+        List<Note> notes = query.isBlank()
+                ? List.of()
+                : repos.notes().search(Session.from(ctx).username(), query, SEARCH_RESULTS);
+        new SearchNotesPage(ctx, query, notes).render();
+    }
+
     /**
      * GET,POST /journal/create
      */
@@ -127,9 +164,10 @@ public class NoteController {
         if(note.isEmpty()) {
             throw new NotFoundResponse();
         } else {
-            if(!note.get().getUserName().equals(Session.from(ctx).username())) {
+            Session session = Session.from(ctx);
+            if(!note.get().getUserName().equals(session.username())) {
                 // Another user that is not the author requested to delete a note - only if this user is ADMIN is this allowed
-                if(Session.from(ctx).userRole() != UserRole.ADMIN) {
+                if(session.userRole() != UserRole.ADMIN) {
                     throw new NotFoundResponse();
                 }
             }
@@ -147,7 +185,7 @@ public class NoteController {
                         .render();
             }  else {
                 if(QuestionPage.getChoice(ctx).equals("Yes")) {
-                    if(repos.notes().delete(Session.from(ctx).username(), noteUuid)) {
+                    if(repos.notes().delete(session.username(), noteUuid)) {
                         // success
                         repos.commit();
                         Controllers.returnPathMessageRedirect(ctx, "Note successfully deleted", AlertType.SUCCESS);
@@ -168,6 +206,7 @@ public class NoteController {
     public static void configure() {
         get("/", NoteController::list, UserRole.loggedIn());
         get("/create", NoteController::create, UserRole.loggedIn());
+        get("/search", NoteController::search, UserRole.loggedIn());
         post("/create", NoteController::create, UserRole.loggedIn());
 
         get("/{note-uuid}/", NoteController::view, UserRole.loggedIn());
@@ -1,10 +1,11 @@
 package etsf20.basesystem.web.controllers;
 
-import etsf20.basesystem.domain.models.User;
 import io.javalin.http.Context;
 import io.javalin.http.HandlerType;
 import io.javalin.http.NotFoundResponse;
 import etsf20.basesystem.domain.models.Project;
+import etsf20.basesystem.domain.models.ProjectCursor;
+import etsf20.basesystem.domain.models.ProjectSlice;
 import etsf20.basesystem.domain.models.UserRole;
 import etsf20.basesystem.domain.repositories.Repositories;
 import etsf20.basesystem.web.ValidationException;
@@ -16,7 +17,6 @@ import etsf20.basesystem.web.pages.projects.ViewProjectPage;
 import etsf20.basesystem.web.pages.FormattedString;
 import etsf20.basesystem.web.pages.QuestionPage;
 
-import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -24,23 +24,44 @@ import static io.javalin.apibuilder.ApiBuilder.*;
 
 public class ProjectController {
 
-	static List<User> users;
-	
-    public static void list(Context ctx) {
+    /**
+     * Number of projects shown per page in the list
+     */
+    private static final int PAGE_SIZE = 25;
+
+    /**
+     * GET /projects/
+     *
+     * <p>Administrators see every project, other users the projects they are members of.</p>
+     *
+     * @throws ValidationException if the page cursor has an invalid format
+     */
+    public static void list(Context ctx) throws ValidationException {
+        ProjectCursor after = null;
+        String cursor = ctx.queryParam("after");
+        if(cursor != null) {
+            try {
+                after = ProjectCursor.decode(cursor);
+            } catch(IllegalArgumentException ex) {
+                throw new ValidationException("Could not parse page cursor", ex.getMessage(), ex);
+            }
+        }
+
+        Session session = Session.from(ctx);
+        String member = session.userRole() == UserRole.ADMIN ? null : session.username();
+
         Repositories repos = Repositories.from(ctx);
-        List<Project> projects = repos.projects().list();
-        List<Project> myProjects = repos.userProjects().getProjectsForUser(Session.from(ctx).username());
-        users = repos.users().list();
-        ListProjectPage listProjectsPage = new ListProjectPage(ctx, projects, myProjects);
+        ProjectSlice projects = repos.projects().list(member, after, PAGE_SIZE);
+        ListProjectPage listProjectsPage = new ListProjectPage(ctx, projects.projects(), projects.next().map(ProjectCursor::encode).orElse(null), after != null);
         listProjectsPage.render();
     }
 
     public static void create(Context ctx) throws ValidationException {
-        CreateEditProjectPage createPage = new CreateEditProjectPage(ctx, "", "", "", users);
+        Repositories repos = Repositories.from(ctx);
+        CreateEditProjectPage createPage = new CreateEditProjectPage(ctx, "", "", "", repos.users()::list);
         if (ctx.method() == HandlerType.POST) {
             createPage.readForm();
             if (createPage.isFormValid()) {
-                Repositories repos = Repositories.from(ctx);
                 UUID randomUUId = UUID.randomUUID();
 
                 // Create a new project with the new UUID
@@ -85,7 +106,7 @@ public class ProjectController {
                     entry.getProjectName(),
                     entry.getDescription(),
                     entry.getUuid().toString(),
-                    repos.users().list()
+                    repos.users()::list
             );
 
             editPage.readForm();
@@ -7,8 +7,13 @@ import etsf20.basesystem.domain.models.UserRole;
 import etsf20.basesystem.domain.models.User;
 import etsf20.basesystem.domain.repositories.Repositories;
 import etsf20.basesystem.domain.repositories.UserRepository;
+import etsf20.basesystem.persistance.Database;
+import etsf20.basesystem.persistance.DatabaseException;
+import etsf20.basesystem.security.Argon2PasswordHash;
+import etsf20.basesystem.security.HashingRejectedException;
 import etsf20.basesystem.web.pages.session.LoginPage;
 import etsf20.basesystem.web.pages.Session;
+import org.slf4j.LoggerFactory;
 
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
@@ -40,9 +45,14 @@ public class SessionController {
                     return;
                 }
 
+                // Verifying can wait for the hashing executor, do not keep the connection meanwhile
+                Database.release(ctx);
+
                 User user = dbUser.get();
                 if(user.verifyPassword(loginPage.getPassword())) {
                     //Login successful
+                    rehashIfNeeded(repos, user, loginPage.getPassword());
+
                     Session session = Session.from(ctx);
                     session.login(loginPage.username(), user.getDisplayName(), user.getRole());
                     if(!loginPage.returnPath().isEmpty()) {
@@ -66,6 +76,30 @@ public class SessionController {
         loginPage.render();
     }
 
+    /**
+     * Hash the password again if it was hashed with other parameters than the current ones
+     *
+     * <p>Failing to rehash does not fail the login, it is tried again on the next login. The new hash is only
+     * written if the stored hash is still the one that was verified, a password reset made meanwhile is kept.</p>
+     */
+    private static void rehashIfNeeded(Repositories repos, User user, String password) {
+        if(!Argon2PasswordHash.needsRehash(user.getPasswordHash())) {
+            return;
+        }
+
+        try {
+            String rehashed = Argon2PasswordHash.create(password);
+            if(repos.users().replacePasswordHash(user.getUsername(), user.getPasswordHash(), rehashed)) {
+                repos.commit();
+            } else {
+                repos.rollback();
+            }
+        } catch (HashingRejectedException | DatabaseException e) {
+            repos.rollback();
+            LoggerFactory.getLogger(SessionController.class).warn("Failed to rehash password of {}", user.getUsername(), e);
+        }
+    }
+
     /**
      * GET /session/logout - logout
      */
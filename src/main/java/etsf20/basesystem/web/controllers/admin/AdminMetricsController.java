@@ -0,0 +1,208 @@
+package etsf20.basesystem.web.controllers.admin;
+
+import io.javalin.http.Context;
+import etsf20.basesystem.domain.models.UserRole;
+import etsf20.basesystem.domain.repositories.RepositoryCaches;
+import etsf20.basesystem.monitoring.AccessLog;
+import etsf20.basesystem.monitoring.LatencyHistogram;
+import etsf20.basesystem.monitoring.PrometheusWriter;
+import etsf20.basesystem.monitoring.RouteMetrics;
+import etsf20.basesystem.persistance.ConnectionHoldStats;
+import etsf20.basesystem.persistance.Database;
+import etsf20.basesystem.persistance.PoolMetrics;
+import etsf20.basesystem.persistance.QueryStats;
+import etsf20.basesystem.persistance.StatementCache;
+import etsf20.basesystem.security.HashingExecutor;
+import etsf20.basesystem.web.pages.Session;
+import etsf20.basesystem.web.sessions.WriteBehindSessionDataStore;
+
+import java.util.Map;
+
+import static io.javalin.apibuilder.ApiBuilder.*;
+
+/**
+ * Runtime metrics in Prometheus text format
+ */
+public class AdminMetricsController {
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    /**
+     * GET /admin/metrics/
+     */
+    public static void index(Context ctx) {
+        PrometheusWriter out = new PrometheusWriter();
+        routes(out);
+        pool(ctx, out);
+        database(out);
+        sessions(ctx, out);
+        other(ctx, out);
+
+        ctx.contentType(PrometheusWriter.CONTENT_TYPE);
+        ctx.result(out.toString());
+    }
+
+    private static void routes(PrometheusWriter out) {
+        var routes = RouteMetrics.routes();
+
+        out.metric("http_requests_total", "counter", "Responses per route and status code");
+        for (RouteMetrics.Route route : routes) {
+            for (Map.Entry<Integer, Long> status : route.statuses().entrySet()) {
+                out.sample("http_requests_total", status.getValue(),
+                        "method", route.method().name(), "route", route.path(), "code", status.getKey().toString());
+            }
+        }
+
+        out.metric("http_request_duration_seconds", "summary", "Time to handle requests per route since start");
+        for (RouteMetrics.Route route : routes) {
+            String method = route.method().name();
+            LatencyHistogram latency = route.latency();
+            for (double quantile : QUANTILES) {
+                out.sample("http_request_duration_seconds", latency.quantile(quantile) / NANOS_PER_SECOND,
+                        "method", method, "route", route.path(), "quantile", Double.toString(quantile));
+            }
+            out.sample("http_request_duration_seconds_sum", latency.sumNanos() / NANOS_PER_SECOND,
+                    "method", method, "route", route.path());
+            out.sample("http_request_duration_seconds_count", latency.count(),
+                    "method", method, "route", route.path());
+        }
+
+        out.metric("http_requests_in_flight", "gauge", "Requests in progress per route");
+        for (RouteMetrics.Route route : routes) {
+            if(!route.path().equals(RouteMetrics.UNMATCHED)) {
+                out.sample("http_requests_in_flight", route.inFlight(),
+                        "method", route.method().name(), "route", route.path());
+            }
+        }
+    }
+
+    private static void summary(PrometheusWriter out, String name, String help, LatencyHistogram histogram) {
+        out.metric(name, "summary", help);
+        for (double quantile : QUANTILES) {
+            out.sample(name, histogram.quantile(quantile) / NANOS_PER_SECOND, "quantile", Double.toString(quantile));
+        }
+        out.sample(name + "_sum", histogram.sumNanos() / NANOS_PER_SECOND);
+        out.sample(name + "_count", histogram.count());
+    }
+
+    private static void pool(Context ctx, PrometheusWriter out) {
+        PoolMetrics pool = PoolMetrics.of(ctx.appData(Database.PoolKey));
+        out.metric("db_pool_connections", "gauge", "Open database connections")
+           .sample("db_pool_connections", pool.activeConnections(), "state", "active")
+           .sample("db_pool_connections", pool.idleConnections(), "state", "idle");
+        out.metric("db_pool_max_connections", "gauge", "Maximum number of database connections")
+           .sample("db_pool_max_connections", pool.maxConnections());
+        out.metric("db_pool_pending_threads", "gauge", "Threads waiting for a database connection")
+           .sample("db_pool_pending_threads", pool.pendingThreads());
+        out.metric("db_pool_timeouts_total", "counter", "Requests for a connection that timed out")
+           .sample("db_pool_timeouts_total", pool.timeouts());
+        out.metric("db_pool_acquire_warnings_total", "counter", "Windows where acquiring a connection was too slow")
+           .sample("db_pool_acquire_warnings_total", pool.warnings());
+        summary(out, "db_pool_acquire_seconds", "Time waiting for a connection from the pool", pool.acquireTime());
+        summary(out, "db_pool_usage_seconds", "Time a connection was used before it was returned", pool.usageTime());
+        summary(out, "db_pool_creation_seconds", "Time to open a new connection", pool.creationTime());
+    }
+
+    private static void database(PrometheusWriter out) {
+        out.metric("db_statement_cache_hits_total", "counter", "Prepared statements reused from the cache")
+           .sample("db_statement_cache_hits_total", StatementCache.hits());
+        out.metric("db_statement_cache_misses_total", "counter", "Statements that had to be prepared")
+           .sample("db_statement_cache_misses_total", StatementCache.misses());
+        out.metric("db_statement_cache_evictions_total", "counter", "Prepared statements closed to make room")
+           .sample("db_statement_cache_evictions_total", StatementCache.evictions());
+
+        Map<String, ConnectionHoldStats.Summary> holds = ConnectionHoldStats.snapshot();
+        out.metric("db_connection_hold_seconds", "summary", "Time request handlers kept a connection per route");
+        for (Map.Entry<String, ConnectionHoldStats.Summary> hold : holds.entrySet()) {
+            out.sample("db_connection_hold_seconds_sum", hold.getValue().totalNanos() / NANOS_PER_SECOND, "route", hold.getKey());
+            out.sample("db_connection_hold_seconds_count", hold.getValue().count(), "route", hold.getKey());
+        }
+        out.metric("db_connection_hold_max_seconds", "gauge", "Longest time a request handler kept a connection per route");
+        for (Map.Entry<String, ConnectionHoldStats.Summary> hold : holds.entrySet()) {
+            out.sample("db_connection_hold_max_seconds", hold.getValue().maxNanos() / NANOS_PER_SECOND, "route", hold.getKey());
+        }
+        long queries = 0;
+        long failedQueries = 0;
+        double querySeconds = 0;
+        for (QueryStats.Summary query : QueryStats.snapshot()) {
+            queries += query.count();
+            failedQueries += query.failures();
+            querySeconds += query.totalNanos() / NANOS_PER_SECOND;
+        }
+        out.metric("db_queries_total", "counter", "Queries run through Database, see /admin/queries/ per query")
+           .sample("db_queries_total", queries);
+        out.metric("db_query_failures_total", "counter", "Queries that failed")
+           .sample("db_query_failures_total", failedQueries);
+        out.metric("db_query_seconds_total", "counter", "Time spent running queries")
+           .sample("db_query_seconds_total", querySeconds);
+        out.metric("db_slow_queries_total", "counter", "Queries above the slow query threshold")
+           .sample("db_slow_queries_total", QueryStats.slowQueries());
+
+        out.metric("db_connection_reacquired_total", "counter", "Connections checked out again after an early release")
+           .sample("db_connection_reacquired_total", ConnectionHoldStats.reacquiredCount());
+    }
+
+    private static void sessions(Context ctx, PrometheusWriter out) {
+        out.metric("session_lookups_total", "counter", "Calls to Session.from")
+           .sample("session_lookups_total", Session.lookups());
+        out.metric("session_resolutions_total", "counter", "Sessions resolved from session attributes")
+           .sample("session_resolutions_total", Session.resolutions());
+
+        WriteBehindSessionDataStore store = ctx.appData(WriteBehindSessionDataStore.Key);
+        out.metric("session_store_pending_writes", "gauge", "Sessions waiting to be written")
+           .sample("session_store_pending_writes", store.pendingWrites());
+        out.metric("session_store_coalesced_writes_total", "counter", "Session writes replaced by a newer write")
+           .sample("session_store_coalesced_writes_total", store.coalescedWrites());
+        out.metric("session_store_flushed_writes_total", "counter", "Session writes and deletes flushed to the database")
+           .sample("session_store_flushed_writes_total", store.flushedWrites());
+        out.metric("session_store_flush_failures_total", "counter", "Session flushes that failed")
+           .sample("session_store_flush_failures_total", store.flushFailures());
+        out.metric("session_store_last_flush_seconds", "gauge", "Duration of the last session flush")
+           .sample("session_store_last_flush_seconds", store.lastFlushNanos() / NANOS_PER_SECOND);
+        out.metric("session_store_sessions", "gauge", "Stored sessions at the last sweep")
+           .sample("session_store_sessions", store.liveSessions(), "state", "live")
+           .sample("session_store_sessions", store.expiredSessions(), "state", "expired");
+        out.metric("session_store_evicted_total", "counter", "Expired sessions deleted by sweeps")
+           .sample("session_store_evicted_total", store.evictedSessions());
+    }
+
+    private static void other(Context ctx, PrometheusWriter out) {
+        HashingExecutor.Stats hashing = HashingExecutor.stats();
+        out.metric("password_hashing_threads", "gauge", "Threads computing password hashes")
+           .sample("password_hashing_threads", hashing.threads());
+        out.metric("password_hashing_active", "gauge", "Password hashes being computed")
+           .sample("password_hashing_active", hashing.active());
+        out.metric("password_hashing_queued", "gauge", "Password hashes waiting for a thread")
+           .sample("password_hashing_queued", hashing.queued());
+        out.metric("password_hashing_completed_total", "counter", "Password hashes computed")
+           .sample("password_hashing_completed_total", hashing.completed());
+        out.metric("password_hashing_rejected_total", "counter", "Password hashes rejected because the queue was full")
+           .sample("password_hashing_rejected_total", hashing.rejected());
+        summary(out, "password_hashing_seconds", "Time to compute a password hash", hashing.hashTime());
+        summary(out, "password_hashing_wait_seconds", "Time a password hash waited for a hashing thread",
+                hashing.waitTime());
+
+        var caches = ctx.appData(RepositoryCaches.Key).all();
+        out.metric("cache_hits_total", "counter", "Lookups answered by a cache");
+        caches.forEach((name, cache) -> out.sample("cache_hits_total", cache.hits(), "cache", name));
+        out.metric("cache_misses_total", "counter", "Lookups that had to load the value");
+        caches.forEach((name, cache) -> out.sample("cache_misses_total", cache.misses(), "cache", name));
+        out.metric("cache_hit_ratio", "gauge", "Share of lookups answered by a cache since start");
+        caches.forEach((name, cache) -> out.sample("cache_hit_ratio", cache.hitRatio(), "cache", name));
+        out.metric("cache_entries", "gauge", "Entries in a cache");
+        caches.forEach((name, cache) -> out.sample("cache_entries", cache.size(), "cache", name));
+
+        AccessLog accessLog = ctx.appData(AccessLog.Key);
+        out.metric("access_log_written_total", "counter", "Access log entries written")
+           .sample("access_log_written_total", accessLog.written());
+        out.metric("access_log_dropped_total", "counter", "Access log entries dropped because the buffer was full")
+           .sample("access_log_dropped_total", accessLog.dropped());
+    }
+
+    /**
+     * Configure handlers for metrics, called from {@code AdminController.configure}
+     */
+    public static void configure() {
+        get("/", AdminMetricsController::index, UserRole.ADMIN);
+    }
+}
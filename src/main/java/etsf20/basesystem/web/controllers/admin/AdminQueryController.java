@@ -0,0 +1,29 @@
+package etsf20.basesystem.web.controllers.admin;
+
+import io.javalin.http.Context;
+import etsf20.basesystem.domain.models.UserRole;
+import etsf20.basesystem.persistance.QueryStats;
+import etsf20.basesystem.web.pages.admin.QueryPage;
+
+import static io.javalin.apibuilder.ApiBuilder.*;
+
+/**
+ * Query statistics controller
+ */
+public class AdminQueryController {
+
+    /**
+     * GET /admin/queries/
+     */
+    public static void index(Context ctx) {
+        QueryPage queryPage = new QueryPage(ctx, QueryStats.snapshot(), QueryStats.slowQueries());
+        queryPage.render();
+    }
+
+    /**
+     * Configure handlers for query statistics, called from {@code AdminController.configure}
+     */
+    public static void configure() {
+        get("/", AdminQueryController::index, UserRole.ADMIN);
+    }
+}
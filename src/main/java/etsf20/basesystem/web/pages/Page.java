@@ -1,5 +1,6 @@
 package etsf20.basesystem.web.pages;
 
+import etsf20.basesystem.persistance.Database;
 import io.javalin.http.Context;
 import org.apache.hc.core5.http.NameValuePair;
 import org.apache.hc.core5.http.message.BasicNameValuePair;
@@ -191,6 +192,8 @@ public abstract class Page {
      * @param viewTemplate path to view template, relative to {@code src/jte} in the workspace root
      */
     public void render(String viewTemplate) {
+        // Rendering and sending the page can be slow, let other requests use the connection meanwhile
+        Database.releaseBeforeRender(ctx);
         ctx.render(viewTemplate, templateMap());
     }
 
@@ -7,8 +7,15 @@ import etsf20.basesystem.domain.models.UserRole;
 import java.io.Serializable;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
 
+/**
+ * Session of the current request, with the logged-in user and page states.
+ *
+ * <p>Resolved once per request by {@link Session#from(Context)} and shared by access control, controllers, pages
+ * and templates.</p>
+ */
 public class Session {
     private final Context ctx;
     private String user;
@@ -17,26 +24,32 @@ public class Session {
     private final HashMap<UUID,StateValue> states;
 
     private final static int MAX_STATE_ENTRIES = 32;
+    private final static long MAX_STATE_AGE_SECONDS = 20*60;
 
-    private static class StateValue implements Serializable {
-        private final Instant refreshed;
-        private final Serializable value;
+    /**
+     * Context attribute holding the session resolved for the request
+     */
+    private final static String CONTEXT_ATTRIBUTE = "session";
 
-        public StateValue(Serializable value) {
-            Objects.requireNonNull(value);
-            this.refreshed = Instant.now();
-            this.value = value;
-        }
+    private final static LongAdder lookups = new LongAdder();
+    private final static LongAdder resolutions = new LongAdder();
 
-        public Instant getRefreshed() {
-            return refreshed;
+    /**
+     * Stored page state, a record so that the compact session format can store it without Java serialization
+     * @param refreshed when the state was last changed
+     * @param value     page state
+     */
+    private record StateValue(Instant refreshed, Serializable value) implements Serializable {
+        private StateValue {
+            Objects.requireNonNull(refreshed);
+            Objects.requireNonNull(value);
         }
 
-        public Object getValue() {
-            return value;
+        public StateValue(Serializable value) {
+            this(Instant.now(), value);
         }
     }
-    
+
     private Session(Context ctx, String user, String displayName, UserRole userRole, HashMap<UUID,StateValue> states) {
         this.ctx = ctx;
         this.user = user;
@@ -80,6 +93,9 @@ public class Session {
         if(session != null) {
             session.invalidate();
         }
+
+        // The next Session.from resolves a new clean session
+        ctx.req().removeAttribute(CONTEXT_ATTRIBUTE);
     }
 
     /**
@@ -96,24 +112,14 @@ public class Session {
      */
     public <T extends Serializable> T getOrDefault(UUID stateRef, Class<T> type, Supplier<T> defaultValue) {
         StateValue stateValue = states.get(stateRef);
-        if(stateValue == null) {
-            stateValue = new StateValue(defaultValue.get());
-            states.put(stateRef, stateValue);
-            ctx.sessionAttribute("state", states);
-
-            @SuppressWarnings("unchecked")
-            T value = (T)stateValue.getValue();
-            return value;
-        }
-
-        if(!type.isAssignableFrom(stateValue.getValue().getClass())) {
+        if(stateValue == null || !type.isAssignableFrom(stateValue.value().getClass())) {
             stateValue = new StateValue(defaultValue.get());
             states.put(stateRef, stateValue);
-            ctx.sessionAttribute("state", states);
+            markDirty();
         }
 
         @SuppressWarnings("unchecked")
-        T value = (T)stateValue.getValue();
+        T value = (T)stateValue.value();
         return value;
     }
 
@@ -122,8 +128,9 @@ public class Session {
      * @param stateRef state reference
      */
     public void invalidate(UUID stateRef) {
-        this.states.remove(stateRef);
-        ctx.sessionAttribute("state", states); // update session data
+        if(this.states.remove(stateRef) != null) {
+            markDirty();
+        }
     }
 
     /**
@@ -134,17 +141,103 @@ public class Session {
      * @param value value to save
      */
     public void put(UUID stateRef, Serializable value) {
-        // states is referenced by Javalin and will be saved to database at the end of the request.
         states.put(stateRef, new StateValue(value));
-        ctx.sessionAttribute("state", states); // update session data
+        markDirty();
+    }
+
+    /**
+     * Store the states in the session after a change
+     *
+     * <p><b>Remarks:</b> Jetty only saves a session when an attribute is set, changes made directly to the map are not
+     * saved. Setting the attribute when nothing has changed makes the session store serialize the whole session again,
+     * only call this after a real change. This also creates the session for a guest on the first stored state.</p>
+     */
+    private void markDirty() {
+        ctx.sessionAttribute("state", states);
+    }
+
+    /**
+     * Check if any state has to be removed, without allocating
+     * @param states stored states
+     * @param now current time in seconds
+     * @return true if there are too many states or any state is too old
+     */
+    private static boolean needsPruning(HashMap<UUID,StateValue> states, long now) {
+        if(states.size() > MAX_STATE_ENTRIES) {
+            return true;
+        }
+
+        for (StateValue stateValue : states.values()) {
+            if(now - stateValue.refreshed().getEpochSecond() >= MAX_STATE_AGE_SECONDS) {
+                return true;
+            }
+        }
+
+        return false;
     }
 
     /**
-     * Create session from context
+     * Remove old states and retain at most the newest {@link Session#MAX_STATE_ENTRIES}
+     * @param states stored states
+     * @param now current time in seconds
+     * @return states to keep
+     */
+    private static HashMap<UUID,StateValue> prune(HashMap<UUID,StateValue> states, long now) {
+        HashMap<UUID,StateValue> retain = new HashMap<>();
+
+        states.entrySet()
+              .stream()
+              .filter(e -> now - e.getValue().refreshed().getEpochSecond() < MAX_STATE_AGE_SECONDS)
+              .sorted(Comparator.comparing((Map.Entry<UUID,StateValue> x) -> x.getValue().refreshed()).reversed())
+              .limit(MAX_STATE_ENTRIES)
+              .forEach(e -> retain.put(e.getKey(), e.getValue()));
+
+        return retain;
+    }
+
+    /**
+     * Get session of this request
+     *
+     * <p>The session is resolved on the first call and cached on the context, later calls during the same request
+     * return the same instance until {@link Session#logout()}.</p>
+     *
      * @param ctx context
      * @return session valid for this request
      */
     public static Session from(Context ctx) {
+        lookups.increment();
+
+        Session session = ctx.attribute(CONTEXT_ATTRIBUTE);
+        if(session == null) {
+            session = resolve(ctx);
+            ctx.attribute(CONTEXT_ATTRIBUTE, session);
+        }
+
+        return session;
+    }
+
+    /**
+     * Number of calls to {@link Session#from(Context)}, each of them resolved the session before it was cached
+     */
+    public static long lookups() {
+        return lookups.sum();
+    }
+
+    /**
+     * Number of times the session was actually resolved from the session attributes, about once per request
+     */
+    public static long resolutions() {
+        return resolutions.sum();
+    }
+
+    /**
+     * Create session from the session attributes
+     * @param ctx context
+     * @return session valid for this request
+     */
+    private static Session resolve(Context ctx) {
+        resolutions.increment();
+
         String displayname = ctx.sessionAttribute("user.displayname");
         String username = ctx.sessionAttribute("user.name");
         UserRole userRole = ctx.sessionAttribute("user.role");
@@ -160,36 +253,23 @@ public class Session {
             userRole = UserRole.GUEST;
         }
 
+        // Only written back to the session when something changed, reading state must not make the session dirty
         HashMap<UUID,StateValue> states = ctx.sessionAttribute("state");
-        if(states != null) {
-            final Instant now = Instant.now();
-            if(!states.isEmpty() && states.size() <= MAX_STATE_ENTRIES) {
-                // remove old ones
-                states.entrySet()
-                      .stream()
-                      .filter(e ->  (now.getEpochSecond() - e.getValue().getRefreshed().getEpochSecond()) >= 20*60)
-                      .map(Map.Entry::getKey)
-                      .toList()
-                      .forEach(states::remove);
-            } else {
-                // retain the newest MAX_STATE_ENTRIES
-                HashMap<UUID,StateValue> retain = new HashMap<>();
-
-                states.entrySet()
-                      .stream()
-                      .sorted(Comparator.comparing((Map.Entry<UUID,StateValue> x) -> x.getValue().getRefreshed()).reversed())
-                      .limit(MAX_STATE_ENTRIES)
-                      .forEach(e -> retain.put(e.getKey(), e.getValue()));
-
-                states = retain;
-            }
-
-        } else {
+        final long now = Instant.now().getEpochSecond();
+        boolean pruned = false;
+        if(states == null) {
             states = new HashMap<>();
+        } else if(needsPruning(states, now)) {
+            states = prune(states, now);
+            pruned = true;
+        }
+
+        Session session = new Session(ctx, username, displayname, userRole, states);
+        if(pruned) {
+            session.markDirty();
         }
-        ctx.sessionAttribute("state", states);
 
-        return new Session(ctx, username, displayname, userRole, states);
+        return session;
     }
 
 }
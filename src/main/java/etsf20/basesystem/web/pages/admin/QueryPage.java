@@ -0,0 +1,44 @@
+package etsf20.basesystem.web.pages.admin;
+
+import io.javalin.http.Context;
+import etsf20.basesystem.persistance.QueryStats;
+import etsf20.basesystem.web.pages.Page;
+
+import java.util.List;
+
+public class QueryPage extends Page {
+
+    private final List<QueryStats.Summary> queries;
+    private final long slowQueries;
+
+    public QueryPage(Context ctx, List<QueryStats.Summary> queries, long slowQueries) {
+        super(ctx);
+        this.queries = queries;
+        this.slowQueries = slowQueries;
+    }
+
+    /**
+     * Get queries sorted by total execution time, longest first
+     */
+    public List<QueryStats.Summary> getQueries() {
+        return this.queries;
+    }
+
+    /**
+     * Get number of queries that were slower than the slow query threshold
+     */
+    public long getSlowQueries() {
+        return this.slowQueries;
+    }
+
+    /**
+     * Format a duration in nanoseconds as milliseconds
+     */
+    public String millis(double nanos) {
+        return String.format("%.2f", nanos / 1e6);
+    }
+
+    public void render() {
+        this.render("pages/admin/queries/list.jte");
+    }
+}
@@ -2,5 +2,6 @@
  * Administration pages
  * @see etsf20.basesystem.web.controllers.AdminController
  * @see etsf20.basesystem.web.controllers.admin.AdminUserController
+ * @see etsf20.basesystem.web.controllers.admin.AdminQueryController
  */
 package etsf20.basesystem.web.pages.admin;
\ No newline at end of file
@@ -8,16 +8,48 @@ import java.util.List;
 
 public class ListNotesPage extends Page {
     public final List<Note> notes;
+    private final String nextCursor;
+    private final boolean firstPage;
 
-    public ListNotesPage(Context ctx, List<Note> notes) {
+    /**
+     * Construct list page
+     * @param ctx        context
+     * @param notes      notes on this page
+     * @param nextCursor encoded cursor for the next page, null if this is the last page
+     * @param paged      true if this is not the first page
+     */
+    public ListNotesPage(Context ctx, List<Note> notes, String nextCursor, boolean paged) {
         super(ctx);
         this.notes = notes;
+        this.nextCursor = nextCursor;
+        this.firstPage = !paged;
     }
 
     public List<Note> getNotes() {
         return notes;
     }
 
+    /**
+     * Check if there are more notes after this page
+     */
+    public boolean hasNextPage() {
+        return nextCursor != null;
+    }
+
+    /**
+     * Link to the next page
+     */
+    public String nextPagePath() {
+        return fullPath(param("after", nextCursor));
+    }
+
+    /**
+     * Check if this is the first page
+     */
+    public boolean isFirstPage() {
+        return firstPage;
+    }
+
     @Override
     public void render() {
         this.render("pages/notes/list.jte");
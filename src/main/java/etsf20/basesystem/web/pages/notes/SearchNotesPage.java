@@ -0,0 +1,44 @@
+package etsf20.basesystem.web.pages.notes;
+
+import io.javalin.http.Context;
+import etsf20.basesystem.domain.models.Note;
+import etsf20.basesystem.web.pages.Page;
+
+import java.util.List;
+
+public class SearchNotesPage extends Page {
+    private final String query;
+    private final List<Note> notes;
+
+    /**
+     * Construct search page
+     * @param ctx   context
+     * @param query search words as entered, empty if nothing has been searched for
+     * @param notes matching notes, most relevant first
+     */
+    public SearchNotesPage(Context ctx, String query, List<Note> notes) {
+        super(ctx);
+        this.query = query;
+        this.notes = notes;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public List<Note> getNotes() {
+        return notes;
+    }
+
+    /**
+     * Check if the user has searched for something
+     */
+    public boolean hasQuery() {
+        return !query.isBlank();
+    }
+
+    @Override
+    public void render() {
+        this.render("pages/notes/search.jte");
+    }
+}
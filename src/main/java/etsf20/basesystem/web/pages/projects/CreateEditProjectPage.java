@@ -12,20 +12,30 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 public class CreateEditProjectPage extends FormPage {
     private String projectName;
     private String description;
     private final String uuid;
+    private final Supplier<List<User>> userSource;
     private List<User> users;
     private String selectedUser = null;
 
-    public CreateEditProjectPage(Context ctx, String projectName, String description, String uuid, List<User> users) {
+    /**
+     * Construct create or edit page
+     * @param ctx         context
+     * @param projectName current project name, empty when creating
+     * @param description current description, empty when creating
+     * @param uuid        project uuid, empty when creating
+     * @param users       source of the users that can be added, only called if the form is shown
+     */
+    public CreateEditProjectPage(Context ctx, String projectName, String description, String uuid, Supplier<List<User>> users) {
         super(ctx);
         this.projectName = projectName;
         this.description = description;
         this.uuid = uuid;
-        this.users = users;
+        this.userSource = users;
     }
 
     public String getUuid() {
@@ -68,9 +78,15 @@ public class CreateEditProjectPage extends FormPage {
     	return this.selectedUser;
     }
     
+    /**
+     * Users that can be added to the project ordered by display name, loaded on first use
+     */
     public List<User> getUsers() {
-    	users.sort(Comparator.comparing(user -> user.getDisplayName().toLowerCase()));
-    	return users;
+        if(users == null) {
+            users = new ArrayList<>(userSource.get());
+            users.sort(Comparator.comparing(user -> user.getDisplayName().toLowerCase()));
+        }
+        return users;
     }
     
     public boolean isSelectedUser(String username) {
@@ -78,6 +94,8 @@ public class CreateEditProjectPage extends FormPage {
     }
     
     public void render() {
+        // Load before rendering, the database connection is released when rendering starts
+        getUsers();
         this.render("pages/projects/upsert.jte");
     }
 }
\ No newline at end of file
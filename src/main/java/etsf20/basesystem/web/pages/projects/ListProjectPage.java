@@ -1,7 +1,6 @@
 package etsf20.basesystem.web.pages.projects;
 
 import etsf20.basesystem.domain.models.Project;
-import etsf20.basesystem.domain.models.User;
 import etsf20.basesystem.web.pages.Page;
 import io.javalin.http.Context;
 
@@ -9,24 +8,50 @@ import java.util.List;
 
 public class ListProjectPage extends Page {
     public final List<Project> projects;
-    public final List<Project> myProjects;
+    private final String nextCursor;
+    private final boolean firstPage;
 
-    public ListProjectPage(Context cfx, List<Project> projects, List<Project> myProjects) {
+    /**
+     * Construct list page
+     * @param cfx        context
+     * @param projects   projects visible to the current user on this page
+     * @param nextCursor encoded cursor for the next page, null if this is the last page
+     * @param paged      true if this is not the first page
+     */
+    public ListProjectPage(Context cfx, List<Project> projects, String nextCursor, boolean paged) {
         super(cfx);
         this.projects = projects;
-        this.myProjects = myProjects;
+        this.nextCursor = nextCursor;
+        this.firstPage = !paged;
     }
 
     public List<Project> getProjects() {
         return projects;
     }
 
-    public List<Project> getProjectsForCurrentUser() {
-    	return myProjects;
+    /**
+     * Check if there are more projects after this page
+     */
+    public boolean hasNextPage() {
+        return nextCursor != null;
     }
-    
+
+    /**
+     * Link to the next page
+     */
+    public String nextPagePath() {
+        return fullPath(param("after", nextCursor));
+    }
+
+    /**
+     * Check if this is the first page
+     */
+    public boolean isFirstPage() {
+        return firstPage;
+    }
+
     @Override
     public void render() {
         this.render("pages/projects/list.jte");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,486 @@
+package etsf20.basesystem.web.sessions;
+
+import org.eclipse.jetty.server.session.SessionData;
+import org.eclipse.jetty.util.ClassLoadingObjectInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.RecordComponent;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary format for session attributes.
+ *
+ * <p>Strings, numbers, booleans, {@link UUID}, {@link Instant}, enums, records, {@link HashMap} and {@link ArrayList}
+ * are written with a one byte tag and variable length integers, everything else falls back to Java serialization.
+ * Enum and record classes are written by name once per session, followed by the record component names.
+ * Records are read back by matching component names, so components can be added or removed between versions: missing
+ * components get their default value and unknown ones are skipped.</p>
+ *
+ * <p>The format starts with a version header. Data without the header, i.e. sessions written by
+ * {@link JavaSessionDataSerializer}, is read with Java serialization so existing sessions survive the switch.</p>
+ *
+ * <p><b>Remarks:</b> like Java serialization, only records and enums that implement {@link Serializable} are
+ * written or read.</p>
+ */
+public class CompactSessionDataSerializer implements SessionDataSerializer {
+    /**
+     * First byte of the format, Java serialization always starts with 0xAC
+     */
+    private static final int MAGIC = 0xC5;
+    private static final int VERSION = 1;
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_STRING = 1;
+    private static final int TAG_INT = 2;
+    private static final int TAG_LONG = 3;
+    private static final int TAG_TRUE = 4;
+    private static final int TAG_FALSE = 5;
+    private static final int TAG_UUID = 6;
+    private static final int TAG_INSTANT = 7;
+    private static final int TAG_ENUM = 8;
+    private static final int TAG_RECORD = 9;
+    private static final int TAG_HASH_MAP = 10;
+    private static final int TAG_ARRAY_LIST = 11;
+    private static final int TAG_JAVA = 12;
+
+    /**
+     * Upper bound of nested maps, lists and records, protects against stack overflow on corrupt data
+     */
+    private static final int MAX_DEPTH = 32;
+
+    /**
+     * Reflection data of a record class
+     */
+    private record RecordType(String[] names, Method[] accessors, Class<?>[] types, Constructor<?> constructor) {
+        static RecordType of(Class<?> type) throws InvalidClassException {
+            RecordComponent[] components = type.getRecordComponents();
+            String[] names = new String[components.length];
+            Method[] accessors = new Method[components.length];
+            Class<?>[] types = new Class<?>[components.length];
+            for (int i = 0; i < components.length; i++) {
+                names[i] = components[i].getName();
+                accessors[i] = components[i].getAccessor();
+                accessors[i].setAccessible(true);
+                types[i] = components[i].getType();
+            }
+
+            try {
+                Constructor<?> constructor = type.getDeclaredConstructor(types);
+                constructor.setAccessible(true);
+                return new RecordType(names, accessors, types, constructor);
+            } catch (NoSuchMethodException | RuntimeException e) {
+                throw new InvalidClassException(type.getName(), "no accessible canonical constructor");
+            }
+        }
+    }
+
+    private final Map<Class<?>, RecordType> recordTypes = new ConcurrentHashMap<>();
+    private final JavaSessionDataSerializer fallback = new JavaSessionDataSerializer();
+
+    @Override
+    public byte[] serialize(SessionData data) throws IOException {
+        Writer writer = new Writer();
+        writer.out.write(MAGIC);
+        writer.out.write(VERSION);
+
+        Map<String, Object> attributes = data.getAllAttributes();
+        writer.writeVarInt(attributes.size());
+        for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+            writer.writeString(attribute.getKey());
+            writer.writeValue(attribute.getValue(), 0);
+        }
+
+        return writer.out.toByteArray();
+    }
+
+    @Override
+    public void deserialize(byte[] bytes, SessionData data) throws IOException, ClassNotFoundException {
+        if(bytes.length == 0 || (bytes[0] & 0xFF) != MAGIC) {
+            fallback.deserialize(bytes, data);
+            return;
+        }
+
+        if(bytes.length < 2 || bytes[1] != VERSION) {
+            throw new StreamCorruptedException("unsupported session format version");
+        }
+
+        Reader reader = new Reader(bytes);
+        int count = reader.readVarInt();
+        HashMap<String, Object> attributes = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String name = reader.readString();
+            attributes.put(name, reader.readValue(0));
+        }
+
+        if(reader.pos != bytes.length) {
+            throw new StreamCorruptedException("trailing bytes in session data");
+        }
+
+        data.putAllAttributes(attributes);
+    }
+
+    private RecordType recordType(Class<?> type) throws InvalidClassException {
+        RecordType recordType = recordTypes.get(type);
+        if(recordType == null) {
+            recordType = RecordType.of(type);
+            recordTypes.put(type, recordType);
+        }
+        return recordType;
+    }
+
+    private static ClassLoader classLoader() {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        return loader != null ? loader : CompactSessionDataSerializer.class.getClassLoader();
+    }
+
+    private final class Writer {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        private final Map<Class<?>, Integer> classes = new HashMap<>();
+
+        void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarLong(long value) {
+            while((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        void writeSignedVarLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (value >>> shift));
+            }
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        /**
+         * Write a class reference, the name and record component names only the first time in this session
+         */
+        void writeClass(Class<?> type) throws IOException {
+            Integer index = classes.get(type);
+            if(index != null) {
+                writeVarInt(index);
+                return;
+            }
+
+            writeVarInt(classes.size());
+            classes.put(type, classes.size());
+            writeString(type.getName());
+            if(type.isRecord()) {
+                String[] names = recordType(type).names();
+                writeVarInt(names.length);
+                for (String name : names) {
+                    writeString(name);
+                }
+            }
+        }
+
+        void writeValue(Object value, int depth) throws IOException {
+            if(depth > MAX_DEPTH) {
+                throw new NotSerializableException("session attribute nested too deep");
+            }
+
+            if(value == null) {
+                out.write(TAG_NULL);
+            } else if(value instanceof String s) {
+                out.write(TAG_STRING);
+                writeString(s);
+            } else if(value instanceof Integer i) {
+                out.write(TAG_INT);
+                writeSignedVarLong(i);
+            } else if(value instanceof Long l) {
+                out.write(TAG_LONG);
+                writeSignedVarLong(l);
+            } else if(value instanceof Boolean b) {
+                out.write(b ? TAG_TRUE : TAG_FALSE);
+            } else if(value instanceof UUID uuid) {
+                out.write(TAG_UUID);
+                writeLong(uuid.getMostSignificantBits());
+                writeLong(uuid.getLeastSignificantBits());
+            } else if(value instanceof Instant instant) {
+                out.write(TAG_INSTANT);
+                writeSignedVarLong(instant.getEpochSecond());
+                writeVarInt(instant.getNano());
+            } else if(value instanceof Enum<?> e && value instanceof Serializable) {
+                out.write(TAG_ENUM);
+                writeClass(e.getDeclaringClass());
+                writeString(e.name());
+            } else if(value instanceof Record && value instanceof Serializable) {
+                out.write(TAG_RECORD);
+                writeClass(value.getClass());
+                for (Method accessor : recordType(value.getClass()).accessors()) {
+                    try {
+                        writeValue(accessor.invoke(value), depth + 1);
+                    } catch (IllegalAccessException | InvocationTargetException e) {
+                        throw new NotSerializableException(value.getClass().getName());
+                    }
+                }
+            } else if(value.getClass() == HashMap.class) {
+                out.write(TAG_HASH_MAP);
+                Map<?, ?> map = (Map<?, ?>) value;
+                writeVarInt(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeValue(entry.getKey(), depth + 1);
+                    writeValue(entry.getValue(), depth + 1);
+                }
+            } else if(value.getClass() == ArrayList.class) {
+                out.write(TAG_ARRAY_LIST);
+                List<?> list = (List<?>) value;
+                writeVarInt(list.size());
+                for (Object element : list) {
+                    writeValue(element, depth + 1);
+                }
+            } else if(value instanceof Serializable) {
+                out.write(TAG_JAVA);
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try(ObjectOutputStream objectOut = new ObjectOutputStream(bytes)) {
+                    objectOut.writeObject(value);
+                }
+                writeVarInt(bytes.size());
+                bytes.writeTo(out);
+            } else {
+                throw new NotSerializableException(value.getClass().getName());
+            }
+        }
+    }
+
+    /**
+     * Class read from the data, for records with the mapping from written components to the current ones
+     */
+    private record ClassRef(Class<?> type, RecordType recordType, int[] positions) {}
+
+    private final class Reader {
+        private final byte[] bytes;
+        private int pos;
+        private final List<ClassRef> classes = new ArrayList<>();
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+            this.pos = 2; // after header
+        }
+
+        int readByte() throws IOException {
+            if(pos >= bytes.length) {
+                throw new EOFException("truncated session data");
+            }
+            return bytes[pos++] & 0xFF;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("invalid variable length integer");
+        }
+
+        int readVarInt() throws IOException {
+            long value = readVarLong();
+            if(value < 0 || value > Integer.MAX_VALUE) {
+                throw new StreamCorruptedException("invalid length");
+            }
+            return (int) value;
+        }
+
+        long readSignedVarLong() throws IOException {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        long readLong() throws IOException {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | readByte();
+            }
+            return value;
+        }
+
+        byte[] readBytes() throws IOException {
+            int length = readVarInt();
+            if(length > bytes.length - pos) {
+                throw new EOFException("truncated session data");
+            }
+            byte[] result = new byte[length];
+            System.arraycopy(bytes, pos, result, 0, length);
+            pos += length;
+            return result;
+        }
+
+        String readString() throws IOException {
+            return new String(readBytes(), StandardCharsets.UTF_8);
+        }
+
+        ClassRef readClass() throws IOException, ClassNotFoundException {
+            int index = readVarInt();
+            if(index < classes.size()) {
+                return classes.get(index);
+            }
+            if(index != classes.size()) {
+                throw new StreamCorruptedException("invalid class reference");
+            }
+
+            String name = readString();
+            Class<?> type = Class.forName(name, false, classLoader());
+            if(!Serializable.class.isAssignableFrom(type) || !(type.isEnum() || type.isRecord())) {
+                throw new InvalidClassException(name, "not a serializable enum or record");
+            }
+
+            ClassRef ref;
+            if(type.isRecord()) {
+                RecordType recordType = recordType(type);
+                int count = readVarInt();
+                int[] positions = new int[count];
+                for (int i = 0; i < count; i++) {
+                    positions[i] = indexOf(recordType.names(), readString());
+                }
+                ref = new ClassRef(type, recordType, positions);
+            } else {
+                ref = new ClassRef(type, null, null);
+            }
+
+            classes.add(ref);
+            return ref;
+        }
+
+        Object readRecord(ClassRef ref, int depth) throws IOException, ClassNotFoundException {
+            RecordType recordType = ref.recordType();
+            if(recordType == null) {
+                throw new StreamCorruptedException(ref.type().getName() + " is not a record");
+            }
+
+            Class<?>[] types = recordType.types();
+            Object[] args = new Object[types.length];
+            boolean[] present = new boolean[types.length];
+            for (int position : ref.positions()) {
+                Object value = readValue(depth + 1);
+                if(position >= 0) {
+                    args[position] = value;
+                    present[position] = true;
+                }
+            }
+
+            // Components added since the data was written get their default value
+            for (int i = 0; i < types.length; i++) {
+                if(!present[i] && types[i].isPrimitive()) {
+                    args[i] = Array.get(Array.newInstance(types[i], 1), 0);
+                }
+            }
+
+            try {
+                return recordType.constructor().newInstance(args);
+            } catch (InvocationTargetException | InstantiationException | IllegalAccessException | IllegalArgumentException e) {
+                InvalidClassException ex = new InvalidClassException(ref.type().getName(), "record does not match session data");
+                ex.initCause(e);
+                throw ex;
+            }
+        }
+
+        Object readValue(int depth) throws IOException, ClassNotFoundException {
+            if(depth > MAX_DEPTH) {
+                throw new StreamCorruptedException("session data nested too deep");
+            }
+
+            int tag = readByte();
+            switch (tag) {
+                case TAG_NULL:
+                    return null;
+                case TAG_STRING:
+                    return readString();
+                case TAG_INT:
+                    return (int) readSignedVarLong();
+                case TAG_LONG:
+                    return readSignedVarLong();
+                case TAG_TRUE:
+                    return Boolean.TRUE;
+                case TAG_FALSE:
+                    return Boolean.FALSE;
+                case TAG_UUID:
+                    return new UUID(readLong(), readLong());
+                case TAG_INSTANT:
+                    return Instant.ofEpochSecond(readSignedVarLong(), readVarInt());
+                case TAG_ENUM: {
+                    ClassRef ref = readClass();
+                    String name = readString();
+                    if(!ref.type().isEnum()) {
+                        throw new StreamCorruptedException(ref.type().getName() + " is not an enum");
+                    }
+                    for (Object constant : ref.type().getEnumConstants()) {
+                        if(((Enum<?>) constant).name().equals(name)) {
+                            return constant;
+                        }
+                    }
+                    throw new InvalidClassException(ref.type().getName(), "unknown enum constant " + name);
+                }
+                case TAG_RECORD:
+                    return readRecord(readClass(), depth);
+                case TAG_HASH_MAP: {
+                    int size = readVarInt();
+                    HashMap<Object, Object> map = new HashMap<>();
+                    for (int i = 0; i < size; i++) {
+                        Object key = readValue(depth + 1);
+                        map.put(key, readValue(depth + 1));
+                    }
+                    return map;
+                }
+                case TAG_ARRAY_LIST: {
+                    int size = readVarInt();
+                    ArrayList<Object> list = new ArrayList<>(Math.min(size, bytes.length - pos));
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue(depth + 1));
+                    }
+                    return list;
+                }
+                case TAG_JAVA:
+                    try(ClassLoadingObjectInputStream in = new ClassLoadingObjectInputStream(new ByteArrayInputStream(readBytes()))) {
+                        return in.readObject();
+                    }
+                default:
+                    throw new StreamCorruptedException("unknown tag " + tag);
+            }
+        }
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if(names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,30 @@
+package etsf20.basesystem.web.sessions;
+
+import org.eclipse.jetty.server.session.SessionData;
+import org.eclipse.jetty.util.ClassLoadingObjectInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+/**
+ * Java serialization of all attributes, the format used by Jetty's own session data stores.
+ */
+public class JavaSessionDataSerializer implements SessionDataSerializer {
+    @Override
+    public byte[] serialize(SessionData data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            SessionData.serializeAttributes(data, out);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public void deserialize(byte[] bytes, SessionData data) throws IOException, ClassNotFoundException {
+        try(ClassLoadingObjectInputStream in = new ClassLoadingObjectInputStream(new ByteArrayInputStream(bytes))) {
+            SessionData.deserializeAttributes(data, in);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package etsf20.basesystem.web.sessions;
+
+import org.eclipse.jetty.server.session.SessionData;
+
+import java.io.IOException;
+
+/**
+ * Converts the attributes of a session to and from the bytes stored in the sessions table.
+ *
+ * @see JavaSessionDataSerializer
+ * @see CompactSessionDataSerializer
+ */
+public interface SessionDataSerializer {
+    /**
+     * Serialize all attributes of a session
+     * @param data session to serialize
+     * @return serialized attributes
+     * @throws IOException if an attribute cannot be serialized
+     */
+    byte[] serialize(SessionData data) throws IOException;
+
+    /**
+     * Restore attributes of a session
+     * @param bytes serialized attributes
+     * @param data  session to put the attributes into
+     * @throws IOException if the bytes are invalid
+     * @throws ClassNotFoundException if an attribute refers to a class that no longer exists
+     */
+    void deserialize(byte[] bytes, SessionData data) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,548 @@
+package etsf20.basesystem.web.sessions;
+
+import io.javalin.config.Key;
+import org.eclipse.jetty.server.session.AbstractSessionDataStore;
+import org.eclipse.jetty.server.session.SessionData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Session data store that writes sessions to the database in batches on a background thread.
+ *
+ * <p>Storing a session only serializes it into a pending map keyed by session id, repeated writes of the same
+ * session before the next flush are coalesced into one. Pending writes and deletes are flushed in a single
+ * transaction on a fixed interval and when the store is stopped, so sessions survive restarts.
+ * Loads check the pending map before the database.</p>
+ *
+ * <p>Expired sessions are swept from the table on the same background thread in bounded batches, each batch in its
+ * own transaction, so the table stays small without long-running deletes. Jetty's own scavenging only removes
+ * sessions it knows about.</p>
+ *
+ * <p><b>Remarks:</b> changes made during the last flush interval are lost if the process is killed without a clean
+ * shutdown. The session cache in front of this store keeps active sessions in memory.</p>
+ */
+public class WriteBehindSessionDataStore extends AbstractSessionDataStore {
+    public static final Key<WriteBehindSessionDataStore> Key = new Key<>("session.store");
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindSessionDataStore.class);
+
+    private static final String MERGE_SQL =
+            "MERGE INTO sessions (session_id, context_path, vhost, last_node, create_time, cookie_time, access_time, " +
+            "last_access_time, last_save_time, expiry_time, max_interval, attributes) " +
+            "KEY (session_id, context_path, vhost) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String DELETE_SQL =
+            "DELETE FROM sessions WHERE session_id = ? AND context_path = ? AND vhost = ?";
+
+    private static final String LOAD_SQL =
+            "SELECT last_node, create_time, cookie_time, access_time, last_access_time, last_save_time, " +
+            "expiry_time, max_interval, attributes FROM sessions " +
+            "WHERE session_id = ? AND context_path = ? AND vhost = ?";
+
+    private static final String SWEEP_SQL =
+            "DELETE FROM sessions WHERE context_path = ? AND vhost = ? AND expiry_time > 0 AND expiry_time <= ? " +
+            "FETCH FIRST ? ROWS ONLY";
+
+    private static final String COUNT_SQL =
+            "SELECT COALESCE(SUM(CASE WHEN expiry_time > 0 AND expiry_time <= ? THEN 0 ELSE 1 END), 0), " +
+                   "COALESCE(SUM(CASE WHEN expiry_time > 0 AND expiry_time <= ? THEN 1 ELSE 0 END), 0) " +
+            "FROM sessions WHERE context_path = ? AND vhost = ?";
+
+    public static final Duration DEFAULT_SWEEP_INTERVAL = Duration.ofMinutes(1);
+    public static final int DEFAULT_SWEEP_BATCH_SIZE = 500;
+
+    /**
+     * Upper bound of batches in one sweep, the rest is removed by the next sweep
+     */
+    private static final int MAX_SWEEP_BATCHES = 20;
+
+    /**
+     * Serialized session waiting to be written, or a delete if {@code attributes} is null
+     */
+    private record PendingWrite(String id, String lastNode, long created, long cookieSet, long accessed,
+                                long lastAccessed, long lastSaved, long expiry, long maxInactive, byte[] attributes) {
+        static PendingWrite delete(String id) {
+            return new PendingWrite(id, null, 0, 0, 0, 0, 0, 0, 0, null);
+        }
+
+        boolean isDelete() {
+            return attributes == null;
+        }
+    }
+
+    private final DataSource dataSource;
+    private final Duration flushInterval;
+    private final SessionDataSerializer serializer;
+    private final Map<String, PendingWrite> pending = new ConcurrentHashMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder flushedWrites = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+    private volatile long lastFlushNanos;
+    private final LongAdder evicted = new LongAdder();
+    private volatile long liveSessions;
+    private volatile long expiredSessions;
+    private volatile long lastSweepNanos;
+    private Duration sweepInterval = DEFAULT_SWEEP_INTERVAL;
+    private int sweepBatchSize = DEFAULT_SWEEP_BATCH_SIZE;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param dataSource    connection pool, connections must not be in auto-commit mode
+     * @param flushInterval time between flushes of pending writes
+     * @param serializer    format of the stored session attributes
+     */
+    public WriteBehindSessionDataStore(DataSource dataSource, Duration flushInterval, SessionDataSerializer serializer) {
+        if(flushInterval.isZero() || flushInterval.isNegative()) {
+            throw new IllegalArgumentException("flushInterval must be positive");
+        }
+        this.dataSource = dataSource;
+        this.flushInterval = flushInterval;
+        this.serializer = serializer;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long interval = flushInterval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+
+        long sweep = sweepInterval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::sweepQuietly, sweep, sweep, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Change time between sweeps of expired sessions, must be set before the store is started
+     * @param sweepInterval time between sweeps
+     */
+    public void setSweepInterval(Duration sweepInterval) {
+        if(sweepInterval.isZero() || sweepInterval.isNegative()) {
+            throw new IllegalArgumentException("sweepInterval must be positive");
+        }
+        this.sweepInterval = sweepInterval;
+    }
+
+    /**
+     * Change number of expired sessions deleted per transaction
+     * @param sweepBatchSize rows per batch
+     */
+    public void setSweepBatchSize(int sweepBatchSize) {
+        if(sweepBatchSize < 1) {
+            throw new IllegalArgumentException("sweepBatchSize must be positive");
+        }
+        this.sweepBatchSize = sweepBatchSize;
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        scheduler.shutdown();
+        if(!scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
+            logger.warn("Session flush did not finish in time");
+        }
+
+        // Final flush, this is what makes sessions survive a restart
+        flush();
+        super.doStop();
+    }
+
+    @Override
+    public boolean isPassivating() {
+        return true;
+    }
+
+    @Override
+    public void doStore(String id, SessionData data, long lastSaveTime) throws Exception {
+        // Serialize now, the session keeps changing after this request
+        byte[] attributes = serializer.serialize(data);
+        PendingWrite write = new PendingWrite(id, data.getLastNode(), data.getCreated(), data.getCookieSet(),
+                                              data.getAccessed(), data.getLastAccessed(), data.getLastSaved(),
+                                              data.getExpiry(), data.getMaxInactiveMs(), attributes);
+        if(pending.put(id, write) != null) {
+            coalesced.increment();
+        }
+    }
+
+    @Override
+    public boolean delete(String id) throws Exception {
+        boolean existed = exists(id);
+        pending.put(id, PendingWrite.delete(id));
+        return existed;
+    }
+
+    @Override
+    public SessionData doLoad(String id) throws Exception {
+        PendingWrite write = pending.get(id);
+        if(write != null) {
+            return write.isDelete() ? null : toSessionData(write);
+        }
+
+        try(Connection conn = dataSource.getConnection();
+            PreparedStatement stmt = conn.prepareStatement(LOAD_SQL)) {
+            setKey(stmt, 1, id);
+            try(ResultSet rs = stmt.executeQuery()) {
+                if(!rs.next()) {
+                    return null;
+                }
+
+                return toSessionData(new PendingWrite(id,
+                        rs.getString("last_node"),
+                        rs.getLong("create_time"),
+                        rs.getLong("cookie_time"),
+                        rs.getLong("access_time"),
+                        rs.getLong("last_access_time"),
+                        rs.getLong("last_save_time"),
+                        rs.getLong("expiry_time"),
+                        rs.getLong("max_interval"),
+                        rs.getBytes("attributes")));
+            } finally {
+                conn.rollback();
+            }
+        }
+    }
+
+    private SessionData toSessionData(PendingWrite write) throws IOException, ClassNotFoundException {
+        SessionData data = newSessionData(write.id(), write.created(), write.accessed(), write.lastAccessed(), write.maxInactive());
+        data.setLastNode(write.lastNode());
+        data.setCookieSet(write.cookieSet());
+        data.setLastSaved(write.lastSaved());
+        data.setExpiry(write.expiry());
+        data.setContextPath(_context.getCanonicalContextPath());
+        data.setVhost(_context.getVhost());
+
+        serializer.deserialize(write.attributes(), data);
+        return data;
+    }
+
+    @Override
+    public boolean doExists(String id) throws Exception {
+        PendingWrite write = pending.get(id);
+        if(write != null) {
+            return !write.isDelete() && !isExpired(write.expiry(), System.currentTimeMillis());
+        }
+
+        Long expiry = loadExpiry(id);
+        return expiry != null && !isExpired(expiry, System.currentTimeMillis());
+    }
+
+    @Override
+    public Set<String> doCheckExpired(Set<String> candidates, long time) {
+        Set<String> expired = new HashSet<>();
+        try {
+            for (String id : candidates) {
+                PendingWrite write = pending.get(id);
+                if(write != null) {
+                    if(write.isDelete() || isExpired(write.expiry(), time)) {
+                        expired.add(id);
+                    }
+                    continue;
+                }
+
+                // Unknown sessions are treated as expired, like the JDBC store does
+                Long expiry = loadExpiry(id);
+                if(expiry == null || isExpired(expiry, time)) {
+                    expired.add(id);
+                }
+            }
+        } catch (SQLException e) {
+            logger.warn("Failed to check expired sessions", e);
+        }
+        return expired;
+    }
+
+    @Override
+    public Set<String> doGetExpired(long timeLimit) {
+        Set<String> expired = new HashSet<>();
+        // Bounded, the sweep removes the rest without loading them
+        String sql = "SELECT session_id FROM sessions " +
+                     "WHERE context_path = ? AND vhost = ? AND expiry_time > 0 AND expiry_time <= ? " +
+                     "FETCH FIRST ? ROWS ONLY";
+
+        try(Connection conn = dataSource.getConnection();
+            PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, _context.getCanonicalContextPath());
+            stmt.setString(2, _context.getVhost());
+            stmt.setLong(3, timeLimit);
+            stmt.setInt(4, sweepBatchSize);
+            try(ResultSet rs = stmt.executeQuery()) {
+                while(rs.next()) {
+                    expired.add(rs.getString(1));
+                }
+            } finally {
+                conn.rollback();
+            }
+        } catch (SQLException e) {
+            logger.warn("Failed to find expired sessions", e);
+        }
+
+        // A pending write is newer than the database
+        expired.removeIf(id -> {
+            PendingWrite write = pending.get(id);
+            return write != null && !write.isDelete() && !isExpired(write.expiry(), timeLimit);
+        });
+        return expired;
+    }
+
+    @Override
+    public void doCleanOrphans(long time) {
+        try(Connection conn = dataSource.getConnection()) {
+            evicted.add(deleteExpired(conn, time));
+        } catch (SQLException e) {
+            logger.warn("Failed to remove orphaned sessions", e);
+        }
+    }
+
+    /**
+     * Delete sessions expired before a time in batches, each batch is committed separately
+     * @param conn connection to use
+     * @param time sessions with an expiry time before this are deleted
+     * @return number of deleted sessions
+     */
+    private int deleteExpired(Connection conn, long time) throws SQLException {
+        int deleted = 0;
+        try(PreparedStatement stmt = conn.prepareStatement(SWEEP_SQL)) {
+            stmt.setString(1, _context.getCanonicalContextPath());
+            stmt.setString(2, _context.getVhost());
+            stmt.setLong(3, time);
+            stmt.setInt(4, sweepBatchSize);
+
+            for (int batch = 0; batch < MAX_SWEEP_BATCHES; batch++) {
+                int count = stmt.executeUpdate();
+                conn.commit();
+
+                deleted += count;
+                if(count < sweepBatchSize) {
+                    break;
+                }
+            }
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        }
+        return deleted;
+    }
+
+    private void sweepQuietly() {
+        try {
+            sweep();
+        } catch (SQLException e) {
+            logger.warn("Failed to sweep expired sessions", e);
+        }
+    }
+
+    /**
+     * Delete expired sessions from the database and count the remaining ones
+     *
+     * <p>Stored expiry times are only refreshed when a session is saved, so a session is kept for the save period and
+     * flush interval after its stored expiry. It might still be in use.</p>
+     *
+     * @return number of deleted sessions
+     * @throws SQLException if the sweep failed, batches committed before the failure stay deleted
+     */
+    public int sweep() throws SQLException {
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        long margin = TimeUnit.SECONDS.toMillis(Math.max(0, getSavePeriodSec())) + flushInterval.toMillis();
+
+        try(Connection conn = dataSource.getConnection()) {
+            int deleted = deleteExpired(conn, now - margin);
+            evicted.add(deleted);
+
+            try(PreparedStatement stmt = conn.prepareStatement(COUNT_SQL)) {
+                stmt.setLong(1, now);
+                stmt.setLong(2, now);
+                stmt.setString(3, _context.getCanonicalContextPath());
+                stmt.setString(4, _context.getVhost());
+                try(ResultSet rs = stmt.executeQuery()) {
+                    rs.next();
+                    liveSessions = rs.getLong(1);
+                    expiredSessions = rs.getLong(2);
+                } finally {
+                    conn.rollback();
+                }
+            }
+
+            lastSweepNanos = System.nanoTime() - start;
+            if(deleted > 0) {
+                logger.debug("Swept {} expired sessions, {} live sessions remain", deleted, liveSessions);
+            }
+            return deleted;
+        }
+    }
+
+    private Long loadExpiry(String id) throws SQLException {
+        String sql = "SELECT expiry_time FROM sessions WHERE session_id = ? AND context_path = ? AND vhost = ?";
+
+        try(Connection conn = dataSource.getConnection();
+            PreparedStatement stmt = conn.prepareStatement(sql)) {
+            setKey(stmt, 1, id);
+            try(ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : null;
+            } finally {
+                conn.rollback();
+            }
+        }
+    }
+
+    private static boolean isExpired(long expiry, long time) {
+        return expiry > 0 && expiry <= time;
+    }
+
+    private void setKey(PreparedStatement stmt, int pos, String id) throws SQLException {
+        stmt.setString(pos, id);
+        stmt.setString(pos + 1, _context.getCanonicalContextPath());
+        stmt.setString(pos + 2, _context.getVhost());
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException e) {
+            flushFailures.increment();
+            logger.warn("Failed to flush {} sessions, retrying in {}", pending.size(), flushInterval, e);
+        }
+    }
+
+    /**
+     * Write all pending sessions to the database in one transaction
+     *
+     * <p>Sessions changed again while flushing are kept pending for the next flush.</p>
+     *
+     * @throws SQLException if the writes failed, nothing is removed from the pending writes in that case
+     */
+    public void flush() throws SQLException {
+        flushLock.lock();
+        try {
+            if(pending.isEmpty()) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            List<PendingWrite> batch = new ArrayList<>(pending.values());
+
+            try(Connection conn = dataSource.getConnection();
+                PreparedStatement merge = conn.prepareStatement(MERGE_SQL);
+                PreparedStatement delete = conn.prepareStatement(DELETE_SQL)) {
+                try {
+                    boolean merges = false, deletes = false;
+                    for (PendingWrite write : batch) {
+                        if(write.isDelete()) {
+                            setKey(delete, 1, write.id());
+                            delete.addBatch();
+                            deletes = true;
+                        } else {
+                            setKey(merge, 1, write.id());
+                            merge.setString(4, write.lastNode());
+                            merge.setLong(5, write.created());
+                            merge.setLong(6, write.cookieSet());
+                            merge.setLong(7, write.accessed());
+                            merge.setLong(8, write.lastAccessed());
+                            merge.setLong(9, write.lastSaved());
+                            merge.setLong(10, write.expiry());
+                            merge.setLong(11, write.maxInactive());
+                            merge.setBytes(12, write.attributes());
+                            merge.addBatch();
+                            merges = true;
+                        }
+                    }
+
+                    if(merges) {
+                        merge.executeBatch();
+                    }
+                    if(deletes) {
+                        delete.executeBatch();
+                    }
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                }
+            }
+
+            // Only drop what was written, newer writes stay pending
+            for (PendingWrite write : batch) {
+                pending.remove(write.id(), write);
+            }
+
+            flushedWrites.add(batch.size());
+            lastFlushNanos = System.nanoTime() - start;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /** Number of sessions waiting to be written */
+    public int pendingWrites() {
+        return pending.size();
+    }
+
+    /** Number of session writes replaced by a newer write before being flushed */
+    public long coalescedWrites() {
+        return coalesced.sum();
+    }
+
+    /** Number of session writes and deletes flushed to the database */
+    public long flushedWrites() {
+        return flushedWrites.sum();
+    }
+
+    /** Number of flushes that failed and were retried */
+    public long flushFailures() {
+        return flushFailures.sum();
+    }
+
+    /** Duration of the last successful flush in nanoseconds */
+    public long lastFlushNanos() {
+        return lastFlushNanos;
+    }
+
+    /** Number of stored sessions that had not expired at the last sweep */
+    public long liveSessions() {
+        return liveSessions;
+    }
+
+    /** Number of stored sessions that had expired at the last sweep but were kept, see {@link #sweep()} */
+    public long expiredSessions() {
+        return expiredSessions;
+    }
+
+    /** Number of expired sessions deleted by sweeps */
+    public long evictedSessions() {
+        return evicted.sum();
+    }
+
+    /** Duration of the last successful sweep in nanoseconds */
+    public long lastSweepNanos() {
+        return lastSweepNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[flushInterval=%s,pending=%d]", super.toString(), flushInterval, pending.size());
+    }
+}
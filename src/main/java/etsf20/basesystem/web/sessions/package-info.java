@@ -0,0 +1,4 @@
+/**
+ * Session storage, keeps sessions in memory and persists them to the database
+ */
+package etsf20.basesystem.web.sessions;
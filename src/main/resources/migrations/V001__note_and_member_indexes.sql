@@ -0,0 +1,5 @@
+-- Notes are always listed per user ordered by timestamp, note_uuid breaks ties for keyset pagination
+CREATE INDEX IF NOT EXISTS notes_username_timestamp ON notes(username, timestamp, note_uuid);
+
+-- Members of a project, the primary key (username, project_uuid) only helps when looking up by username
+CREATE INDEX IF NOT EXISTS user_projects_project_username ON user_projects(project_uuid, username);
@@ -0,0 +1,19 @@
+-- Persistent sessions, written in batches by WriteBehindSessionDataStore
+CREATE TABLE IF NOT EXISTS sessions(
+    session_id VARCHAR(120) NOT NULL,
+    context_path VARCHAR(60) NOT NULL,
+    vhost VARCHAR(60) NOT NULL,
+    last_node VARCHAR(60),
+    create_time BIGINT NOT NULL,
+    cookie_time BIGINT NOT NULL,
+    access_time BIGINT NOT NULL,
+    last_access_time BIGINT NOT NULL,
+    last_save_time BIGINT NOT NULL,
+    expiry_time BIGINT NOT NULL,
+    max_interval BIGINT NOT NULL,
+    attributes BLOB,
+    primary key (session_id, context_path, vhost)
+);
+
+-- Expired sessions are looked up and removed by expiry time
+CREATE INDEX IF NOT EXISTS sessions_expiry ON sessions(expiry_time);
@@ -0,0 +1,43 @@
+-- Inverted index over note title and body, maintained by NoteRepository, see NoteSearchIndex
+-- Terms of a user are looked up by prefix, the primary key keeps them in order per user
+-- The note length is repeated in every row so that ranking only reads this table
+CREATE TABLE IF NOT EXISTS note_terms(
+    username VARCHAR(60) NOT NULL,
+    term VARCHAR(40) NOT NULL,
+    note_uuid UUID NOT NULL,
+    tf INT NOT NULL,
+    length INT NOT NULL,
+    primary key (username, term, note_uuid),
+    foreign key (note_uuid) references notes(note_uuid) on delete cascade,
+    foreign key (username) references users(username) on delete cascade on update cascade
+);
+
+-- Number of indexed terms per note, for length normalization when ranking
+CREATE TABLE IF NOT EXISTS note_documents(
+    note_uuid UUID NOT NULL,
+    username VARCHAR(60) NOT NULL,
+    length INT NOT NULL,
+    primary key (note_uuid),
+    foreign key (note_uuid) references notes(note_uuid) on delete cascade,
+    foreign key (username) references users(username) on delete cascade on update cascade
+);
+
+-- Number of notes of a user containing each term
+CREATE TABLE IF NOT EXISTS note_term_counts(
+    username VARCHAR(60) NOT NULL,
+    term VARCHAR(40) NOT NULL,
+    documents INT NOT NULL,
+    primary key (username, term),
+    foreign key (username) references users(username) on delete cascade on update cascade
+);
+
+-- Number of indexed notes and their total length per user
+CREATE TABLE IF NOT EXISTS note_search_stats(
+    username VARCHAR(60) NOT NULL,
+    documents BIGINT NOT NULL,
+    total_length BIGINT NOT NULL,
+    primary key (username),
+    foreign key (username) references users(username) on delete cascade on update cascade
+);
+
+CREATE INDEX IF NOT EXISTS note_terms_note ON note_terms(note_uuid);
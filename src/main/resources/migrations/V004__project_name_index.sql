@@ -0,0 +1,2 @@
+-- Projects are listed ordered by name, project_uuid breaks ties for keyset pagination
+CREATE INDEX IF NOT EXISTS projects_name ON projects(projectName, project_uuid);
@@ -0,0 +1,93 @@
+package etsf20.basesystem.domain;
+
+import etsf20.basesystem.monitoring.AccessLog;
+import etsf20.basesystem.monitoring.RotatingFileWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestAccessLog {
+    @Test
+    public void testFormat() throws IOException {
+        StringWriter out = new StringWriter();
+        try(AccessLog log = new AccessLog(16, out)) {
+            assertTrue(log.log(0, "127.0.0.1", 3.14159f, 200, "GET", "/notes/"));
+            assertTrue(log.log(0, "127.0.0.1", 1234.5f, 404, "POST", "/x"));
+        }
+
+        assertEquals("[ 1970-01-01T00:00:00Z | 127.0.0.1 |    3.14 ms | 200 ] GET /notes/\n" +
+                     "[ 1970-01-01T00:00:00Z | 127.0.0.1 | 1234.50 ms | 404 ] POST /x\n", out.toString());
+    }
+
+    @Test
+    public void testDropsWhenFull() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        StringWriter lines = new StringWriter();
+
+        // Writer thread gets stuck on the first entry, the rest has to wait in the buffer
+        Writer out = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) {
+                blocked.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                lines.write(buffer, offset, length);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        AccessLog log = new AccessLog(4, out);
+        assertTrue(log.log(0, "ip", 1, 200, "GET", "/0"));
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+        int accepted = 0;
+        for (int i = 1; i <= 10; i++) {
+            if(log.log(0, "ip", 1, 200, "GET", "/" + i)) {
+                accepted++;
+            }
+        }
+
+        assertEquals(4, accepted);
+        assertEquals(6, log.dropped());
+
+        release.countDown();
+        log.close();
+        assertEquals(5, log.written());
+        assertEquals(5, lines.toString().lines().count());
+    }
+
+    @Test
+    public void testRotation(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("access.log");
+        try(RotatingFileWriter out = new RotatingFileWriter(file, 20, 2)) {
+            for (int i = 0; i < 5; i++) {
+                out.write("line " + i + " 1234567\n"); // 15 characters, one line per file
+            }
+        }
+
+        assertEquals("line 4 1234567\n", Files.readString(file));
+        assertEquals("line 3 1234567\n", Files.readString(dir.resolve("access.log.1")));
+        assertEquals("line 2 1234567\n", Files.readString(dir.resolve("access.log.2")));
+        assertFalse(Files.exists(dir.resolve("access.log.3")));
+    }
+}
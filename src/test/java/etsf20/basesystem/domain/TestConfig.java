@@ -0,0 +1,226 @@
+package etsf20.basesystem.domain;
+
+import com.zaxxer.hikari.HikariDataSource;
+import etsf20.basesystem.Config;
+import etsf20.basesystem.ConfigLoader;
+import etsf20.basesystem.ConfigReloader;
+import etsf20.basesystem.persistance.Database;
+import etsf20.basesystem.persistance.StatementCache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestConfig {
+    private static Path write(Path dir, String name, String content) throws IOException {
+        Path file = dir.resolve(name);
+        FileTime previous = Files.exists(file) ? Files.getLastModifiedTime(file) : null;
+        Files.writeString(file, content);
+        if(previous != null) {
+            // Make sure the change is seen even if the file system has coarse timestamps
+            Files.setLastModifiedTime(file, FileTime.fromMillis(previous.toMillis() + 1000));
+        }
+        return file;
+    }
+
+    @Test
+    public void testSources(@TempDir Path dir) throws IOException {
+        Path file = write(dir, "basesystem.properties", """
+                pool.size = 8
+                pool.acquireTimeout = 500ms
+                query.slowThreshold = off
+                session.timeout = PT30M
+                db.url = jdbc:h2:mem:configured
+                """);
+
+        Properties properties = new Properties();
+        properties.setProperty("basesystem.pool.size", "20");
+        properties.setProperty("unrelated.property", "ignored");
+        Map<String, String> environment = Map.of("BASESYSTEM_POOL_SIZE", "12",
+                                                 "BASESYSTEM_POOL_ACQUIRE_TIMEOUT", "2s",
+                                                 "PATH", "/usr/bin");
+
+        Config config = new ConfigLoader(file, true, environment, properties).load();
+        assertEquals(20, config.getPoolSize());
+        assertEquals(Duration.ofSeconds(2), config.getPoolAcquireTimeout());
+        assertNull(config.getSlowQueryThreshold());
+        assertEquals(Duration.ofMinutes(30), config.getSessionTimeout());
+        assertEquals("jdbc:h2:mem:configured", config.getJdbcUrl());
+        assertEquals(file, config.getConfigFile());
+
+        // Defaults for everything that is not set
+        Config defaults = Config.defaultConfiguration();
+        assertEquals(defaults.getPort(), config.getPort());
+        assertEquals(defaults.getUserCacheTtl(), config.getUserCacheTtl());
+
+        config = new ConfigLoader(file, true, environment, new Properties()).load();
+        assertEquals(12, config.getPoolSize());
+
+        config = new ConfigLoader(file, true, Map.of(), new Properties()).load();
+        assertEquals(8, config.getPoolSize());
+        assertEquals(Duration.ofMillis(500), config.getPoolAcquireTimeout());
+
+        // A missing file is only an error if it was given explicitly
+        Path missing = dir.resolve("missing.properties");
+        assertEquals(Config.defaultConfiguration().getPoolSize(),
+                     new ConfigLoader(missing, false, Map.of(), new Properties()).load().getPoolSize());
+        assertThrows(IllegalArgumentException.class,
+                     () -> new ConfigLoader(missing, true, Map.of(), new Properties()).load());
+    }
+
+    @Test
+    public void testValidation(@TempDir Path dir) throws IOException {
+        Path file = write(dir, "invalid.properties", """
+                pool.size = 0
+                pool.acquireTimeout = 10ms
+                userCache.ttl = 30 seconds
+                pool.sise = 4
+                """);
+        Properties properties = new Properties();
+        properties.setProperty("basesystem.server.virtualThreads", "maybe");
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> new ConfigLoader(file, true, Map.of("BASESYSTEM_NO_SUCH_SETTING", "1"), properties).load());
+
+        // Unknown names are reported before the values are parsed, unknown environment variables are ignored
+        assertTrue(e.getMessage().contains("pool.sise"), e.getMessage());
+        assertFalse(e.getMessage().contains("BASESYSTEM_NO_SUCH_SETTING"), e.getMessage());
+        assertEquals(Config.defaultConfiguration().getPoolSize(),
+                     new ConfigLoader(dir.resolve("missing.properties"), false,
+                                      Map.of("BASESYSTEM_NO_SUCH_SETTING", "1"), new Properties()).load().getPoolSize());
+
+        e = assertThrows(IllegalArgumentException.class,
+                () -> new ConfigLoader(write(dir, "invalid.properties", """
+                        pool.size = 0
+                        pool.acquireTimeout = 10ms
+                        userCache.ttl = 30 seconds
+                        hashing.queueSize = 0
+                        """), true, Map.of(), properties).load());
+
+        // Every invalid value is reported at once
+        for (String name : List.of("pool.size", "pool.acquireTimeout", "userCache.ttl", "hashing.queueSize",
+                                    "server.virtualThreads")) {
+            assertTrue(e.getMessage().contains(name), e.getMessage());
+        }
+    }
+
+    @Test
+    public void testReload(@TempDir Path dir) throws IOException {
+        Path file = write(dir, "basesystem.properties", """
+                pool.size = 4
+                userCache.size = 100
+                port = 8081
+                """);
+        ConfigLoader loader = new ConfigLoader(file, false, Map.of(), new Properties());
+        Config config = loader.load();
+
+        List<Config> notified = new ArrayList<>();
+        ConfigReloader reloader = new ConfigReloader(loader, config, notified::add);
+        assertEquals(List.of(), reloader.check());
+
+        write(dir, "basesystem.properties", """
+                pool.size = 6
+                userCache.size = 10
+                port = 9000
+                """);
+        assertEquals(List.of("pool.size", "userCache.size"), reloader.check());
+        assertEquals(6, config.getPoolSize());
+        assertEquals(10, config.getUserCacheSize());
+        assertEquals(8081, config.getPort()); // requires a restart
+        assertEquals(List.of(config), notified);
+
+        // Nothing changed since the last check
+        assertEquals(List.of(), reloader.check());
+
+        // Invalid changes are ignored as a whole
+        write(dir, "basesystem.properties", """
+                pool.size = 8
+                userCache.size = -1
+                port = 8081
+                """);
+        assertEquals(List.of(), reloader.check());
+        assertEquals(6, config.getPoolSize());
+        assertEquals(1, notified.size());
+
+        // Removed settings go back to their defaults
+        write(dir, "basesystem.properties", "port = 8081\n");
+        assertEquals(List.of("pool.size", "userCache.size"), reloader.check());
+        assertEquals(Config.defaultConfiguration().getPoolSize(), config.getPoolSize());
+    }
+
+    @Test
+    public void testReloadStatementCacheSize(@TempDir Path dir) throws IOException, SQLException {
+        String settings = "db.url = jdbc:h2:mem:statementCacheReload;DB_CLOSE_DELAY=-1\nstatementCache.size = ";
+        Path file = write(dir, "basesystem.properties", settings + "8\n");
+        ConfigLoader loader = new ConfigLoader(file, false, Map.of(), new Properties());
+        Config config = loader.load();
+        StatementCache.closeAll();
+
+        try(HikariDataSource pool = Database.createPool(config)) {
+            ConfigReloader reloader = new ConfigReloader(loader, config, changed -> Database.reconfigure(pool, changed));
+            try(Database db = new Database(pool.getConnection())) {
+                for (int i = 0; i < 8; i++) {
+                    db.findFirst("SELECT " + i + " AS n" + i, rs -> rs.getInt(1));
+                }
+            }
+            assertEquals(8, StatementCache.size());
+
+            // Idle statements are closed as soon as the smaller size is applied
+            write(dir, "basesystem.properties", settings + "3\n");
+            assertEquals(List.of("statementCache.size"), reloader.check());
+            assertEquals(3, StatementCache.size());
+
+            // A cache hit must not grow it again
+            try(Database db = new Database(pool.getConnection())) {
+                db.findFirst("SELECT 7 AS n7", rs -> rs.getInt(1));
+            }
+            assertEquals(3, StatementCache.size());
+        } finally {
+            StatementCache.closeAll();
+            StatementCache.setMaxSize(StatementCache.DEFAULT_MAX_SIZE);
+        }
+    }
+
+    @Test
+    public void testReconfigurePool() throws SQLException {
+        Config config = Config.testConfiguration("jdbc:h2:mem:reconfigure;DB_CLOSE_DELAY=-1");
+        config.setPoolSize(2);
+        config.setPoolAcquireTimeout(Duration.ofMillis(250));
+
+        try(HikariDataSource pool = Database.createPool(config)) {
+            List<Connection> held = new ArrayList<>();
+            held.add(pool.getConnection());
+            held.add(pool.getConnection());
+            assertThrows(SQLException.class, pool::getConnection);
+
+            config.setPoolSize(4);
+            Database.reconfigure(pool, config);
+            held.add(pool.getConnection());
+            held.add(pool.getConnection());
+            assertEquals(4, pool.getHikariPoolMXBean().getTotalConnections());
+
+            for (Connection conn : held) {
+                conn.close();
+            }
+
+            config.setPoolSize(1);
+            Database.reconfigure(pool, config);
+            try(Connection conn = pool.getConnection()) {
+                assertThrows(SQLException.class, pool::getConnection);
+            }
+            assertTrue(pool.getHikariPoolMXBean().getTotalConnections() <= 1);
+        }
+    }
+}
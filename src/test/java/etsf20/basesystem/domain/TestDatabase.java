@@ -0,0 +1,381 @@
+package etsf20.basesystem.domain;
+
+import com.zaxxer.hikari.HikariDataSource;
+import etsf20.basesystem.Config;
+import etsf20.basesystem.Main;
+import etsf20.basesystem.domain.models.Note;
+import etsf20.basesystem.domain.repositories.IndexAdvisor;
+import etsf20.basesystem.domain.repositories.Repositories;
+import etsf20.basesystem.persistance.Database;
+import etsf20.basesystem.persistance.PoolMetrics;
+import etsf20.basesystem.persistance.QueryStats;
+import etsf20.basesystem.persistance.SchemaMigrations;
+import etsf20.basesystem.persistance.StatementCache;
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.util.ConcurrencyUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestDatabase {
+    private HikariDataSource pool;
+
+    @BeforeEach
+    public void setUp() throws SQLException {
+        Config testConfig = Config.testConfigurationSingleConnection();
+        pool = Database.createPool(testConfig);
+
+        try(Connection conn = pool.getConnection()) {
+            Main.createSchemaIfNotExists(conn);
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        StatementCache.closeAll();
+        pool.close();
+    }
+
+    @Test
+    public void testStatementCacheReuse() throws SQLException {
+        UUID uuid;
+        try(Database db = new Database(pool.getConnection())) {
+            Repositories repos = Repositories.from(db);
+            uuid = repos.notes().create(new Note("Test 1", "Body 1", "admin"));
+            repos.commit();
+
+            long hits = StatementCache.hits();
+            long misses = StatementCache.misses();
+
+            assertTrue(repos.notes().get(uuid).isPresent(), "note not found");
+            assertTrue(repos.notes().get(uuid).isPresent(), "note not found");
+
+            assertEquals(misses + 1, StatementCache.misses(), "same query prepared more than once");
+            assertEquals(hits + 1, StatementCache.hits(), "prepared query not reused");
+        }
+
+        // Statements must survive that the connection is returned to the pool
+        try(Database db = new Database(pool.getConnection())) {
+            long misses = StatementCache.misses();
+            assertTrue(Repositories.from(db).notes().get(uuid).isPresent(), "note not found");
+            assertEquals(misses, StatementCache.misses(), "cached statement not reused between checkouts");
+        }
+    }
+
+    @Test
+    public void testCloseRollbacks() throws SQLException {
+        try(Database db = new Database(pool.getConnection())) {
+            Repositories.from(db).notes().create(new Note("Test 1", "Body 1", "admin"));
+        }
+
+        try(Database db = new Database(pool.getConnection())) {
+            assertTrue(Repositories.from(db).notes().list("admin").isEmpty(), "uncommitted note was kept");
+        }
+    }
+
+    @Test
+    public void testWriteShapes() throws SQLException {
+        try(Database db = new Database(pool.getConnection())) {
+            // same column set in different iteration orders must bind to the right columns
+            Map<String,Object> first = new LinkedHashMap<>();
+            first.put("projectName", "First");
+            first.put("description", "First description");
+
+            Map<String,Object> second = new LinkedHashMap<>();
+            second.put("description", "Second description");
+            second.put("projectName", "Second");
+
+            db.insert("projects", first);
+            db.insert("projects", second);
+
+            List<String> names = db.list("SELECT projectName || ':' || description FROM projects ORDER BY projectName",
+                                         rs -> rs.getString(1));
+            assertEquals(List.of("First:First description", "Second:Second description"), names);
+
+            assertTrue(db.update("projects", Map.of("projectName", "First"), Map.of("description", "Updated")));
+            assertTrue(db.exists("SELECT 1 FROM projects WHERE projectName = ? AND description = ?", "First", "Updated"));
+
+            assertTrue(db.delete("projects", Map.of("projectName", "Second")));
+            assertFalse(db.delete("projects", Map.of("projectName", "Second")));
+        }
+    }
+
+    @Test
+    public void testStreamClosesCursor() throws SQLException {
+        try(Database db = new Database(pool.getConnection())) {
+            for (int i = 0; i < 5; i++) {
+                db.insert("projects", Map.of("projectName", "Project " + i));
+            }
+
+            try(Stream<String> names = db.stream("SELECT projectName FROM projects ORDER BY projectName", rs -> rs.getString(1))) {
+                assertEquals(List.of("Project 0", "Project 1"), names.limit(2).toList());
+            }
+
+            // list must stop fetching once the limit is reached
+            assertEquals(3, db.list("SELECT projectName FROM projects", rs -> rs.getString(1), stmt -> {}, 3).size());
+        }
+    }
+
+    @Test
+    public void testMigrationsAndIndexes() throws SQLException {
+        try(Connection conn = pool.getConnection()) {
+            // already migrated by setUp, running again must be a no-op
+            assertEquals(0, SchemaMigrations.migrate(conn));
+
+            try(ResultSet rs = conn.createStatement().executeQuery("SELECT version FROM schema_migrations ORDER BY version")) {
+                assertTrue(rs.next() && rs.getInt(1) == 1, "migration not recorded");
+                assertTrue(rs.next() && rs.getInt(1) == 2, "migration not recorded");
+                assertTrue(rs.next() && rs.getInt(1) == 3, "migration not recorded");
+                assertTrue(rs.next() && rs.getInt(1) == 4, "migration not recorded");
+            }
+
+            List<IndexAdvisor.Finding> findings = IndexAdvisor.run(conn);
+            for (IndexAdvisor.Finding finding : findings) {
+                assertTrue(finding.expected(), "unexpected table scan in " + finding.query() + "\n" + finding.plan());
+            }
+        }
+    }
+
+    @Test
+    public void testPoolMetrics() throws SQLException {
+        PoolMetrics metrics = PoolMetrics.of(pool);
+        long acquired = metrics.acquireTime().count();
+        long used = metrics.usageTime().count();
+
+        try(Connection conn = pool.getConnection()) {
+            assertEquals(acquired + 1, metrics.acquireTime().count(), "acquire not recorded");
+        }
+
+        assertEquals(used + 1, metrics.usageTime().count(), "usage not recorded");
+        assertEquals(pool.getMaximumPoolSize(), metrics.maxConnections());
+        assertEquals(0, metrics.timeouts());
+    }
+
+    /**
+     * Many more concurrent requests than connections, as when requests run on virtual threads
+     */
+    @Test
+    public void testPoolWaitUnderContention() throws Exception {
+        Config config = Config.testConfiguration("jdbc:h2:mem:poolwait;DB_CLOSE_DELAY=-1");
+        config.setPoolSize(4);
+        config.setPoolAcquireTimeout(Duration.ofMillis(500));
+
+        // virtual threads when the JVM supports them, otherwise one platform thread per task
+        ExecutorService executor = ConcurrencyUtil.executorService("pool-wait-test", true);
+        try(HikariDataSource contended = Database.createPool(config)) {
+            PoolMetrics metrics = PoolMetrics.of(contended);
+
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                results.add(executor.submit(() -> {
+                    try(Database db = new Database(contended.getConnection())) {
+                        Thread.sleep(2);
+                        return db.findSingle("SELECT 1", rs -> rs.getInt(1));
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(Integer.valueOf(1), result.get(30, TimeUnit.SECONDS), "waiting request failed");
+            }
+            assertEquals(0, metrics.timeouts(), "requests waited longer than the timeout");
+            assertTrue(metrics.acquireTime().count() >= 200, "acquire not recorded");
+
+            // all connections held, waiting requests fail after the timeout instead of hanging
+            List<Connection> held = new ArrayList<>();
+            try {
+                for (int i = 0; i < 4; i++) {
+                    held.add(contended.getConnection());
+                }
+                Future<Connection> waiting = executor.submit(() -> contended.getConnection());
+                ExecutionException ex = assertThrows(ExecutionException.class, () -> waiting.get(30, TimeUnit.SECONDS));
+                assertTrue(ex.getCause() instanceof SQLException, "expected a timeout, got " + ex.getCause());
+                assertEquals(1, metrics.timeouts(), "timeout not recorded");
+            } finally {
+                for (Connection conn : held) {
+                    conn.close();
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testQueryStats() throws SQLException {
+        assertEquals("SELECT a FROM t WHERE b = ? AND c IN (?, ...) LIMIT ?",
+                     QueryStats.fingerprint("SELECT a\n  FROM t WHERE b = 'it''s' AND c IN (1, 2,3) LIMIT 10"));
+        assertEquals("SELECT col1 FROM t2 WHERE x = ?", QueryStats.fingerprint("SELECT col1 FROM t2 WHERE x = ?"));
+
+        String sql = "SELECT projectName FROM projects WHERE projectName <> 'query stats test'";
+        String fingerprint = QueryStats.fingerprint(sql);
+        try(Database db = new Database(pool.getConnection())) {
+            int rows = db.list(sql, rs -> rs.getString(1)).size();
+            db.list(sql, rs -> rs.getString(1));
+
+            QueryStats.Summary summary = QueryStats.snapshot().stream()
+                    .filter(s -> s.fingerprint().equals(fingerprint))
+                    .findFirst()
+                    .orElseThrow();
+            assertEquals(2, summary.count(), "executions not recorded");
+            assertEquals(2L * rows, summary.rows(), "rows not recorded");
+            assertTrue(summary.totalNanos() > 0, "time not recorded");
+        }
+    }
+
+    private static QueryStats.Summary summary(String sql) {
+        String fingerprint = QueryStats.fingerprint(sql);
+        return QueryStats.snapshot().stream()
+                .filter(s -> s.fingerprint().equals(fingerprint))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    @Test
+    public void testQueryStatsTiming() throws SQLException {
+        String forEachSql = "SELECT projectName AS for_each_timing FROM projects";
+        String streamSql = "SELECT projectName AS stream_timing FROM projects";
+        try(Database db = new Database(pool.getConnection())) {
+            db.execute("INSERT INTO projects(projectName, description) VALUES ('Timing', '')");
+
+            // time spent in the consumer is not query time, the same for forEach and stream
+            Consumer<String> slow = name -> {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            };
+            db.forEach(forEachSql, rs -> rs.getString(1), slow);
+            try(Stream<String> names = db.stream(streamSql, rs -> rs.getString(1))) {
+                names.forEach(slow);
+            }
+            for (String sql : List.of(forEachSql, streamSql)) {
+                assertEquals(1, summary(sql).count());
+                assertTrue(summary(sql).totalNanos() < 100_000_000L, sql + " includes consumer time");
+            }
+
+            // exceptions of any type from the mapper or consumer are recorded as failures
+            assertThrows(IllegalStateException.class, () -> db.forEach(forEachSql, rs -> rs.getString(1), name -> {
+                throw new IllegalStateException("consumer failed");
+            }));
+            assertThrows(IllegalStateException.class, () -> {
+                try(Stream<String> names = db.stream(streamSql, rs -> {
+                    throw new IllegalStateException("mapper failed");
+                })) {
+                    names.forEach(name -> {});
+                }
+            });
+            assertThrows(IllegalStateException.class, () -> db.list(forEachSql, rs -> {
+                throw new IllegalStateException("mapper failed");
+            }));
+            assertEquals(2, summary(forEachSql).failures());
+            assertEquals(1, summary(streamSql).failures());
+        }
+    }
+
+    @Test
+    public void testForEachRestoresFetchSize() throws SQLException {
+        String sql = "SELECT projectName FROM projects";
+        try(Database db = new Database(pool.getConnection())) {
+            db.execute("INSERT INTO projects(projectName, description) VALUES ('Fetch size', '')");
+            List<Integer> before = db.list(sql, rs -> rs.getStatement().getFetchSize());
+
+            List<Integer> during = new ArrayList<>();
+            db.forEach(sql, rs -> rs.getStatement().getFetchSize(), during::add, stmt -> {}, 7);
+            assertEquals(List.of(7), during);
+
+            // the cached statement is shared with list, which must not inherit the fetch size
+            assertEquals(before, db.list(sql, rs -> rs.getStatement().getFetchSize()));
+        }
+    }
+
+    /**
+     * Run a handler in a real request, with the pool and configuration available to {@link Database#get(Context)}
+     */
+    private void request(Config config, io.javalin.http.Handler handler) throws Exception {
+        Javalin app = Javalin.create(javalinConfig -> {
+            javalinConfig.appData(Config.Key, config);
+            javalinConfig.appData(Database.PoolKey, pool);
+        });
+        app.get("/", ctx -> {
+            try {
+                handler.handle(ctx);
+            } finally {
+                Database.dispose(ctx);
+            }
+            ctx.result("ok");
+        });
+        app.start(0);
+        try {
+            HttpResponse<String> response = HttpClient.newHttpClient().send(
+                    HttpRequest.newBuilder(URI.create("http://localhost:" + app.port() + "/")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode(), response.body());
+        } finally {
+            app.stop();
+        }
+    }
+
+    @Test
+    public void testRequestConnectionLifecycle() throws Exception {
+        Config config = Config.testConfigurationSingleConnection();
+        config.setReleaseConnectionBeforeRender(true);
+
+        List<Integer> active = new ArrayList<>();
+        List<Long> uncommitted = new ArrayList<>();
+        request(config, ctx -> {
+            Database db = Database.get(ctx);
+
+            // no connection until the first query
+            active.add(pool.getHikariPoolMXBean().getActiveConnections());
+            db.execute("INSERT INTO projects(projectName, description) VALUES ('Uncommitted', '')");
+            active.add(pool.getHikariPoolMXBean().getActiveConnections());
+
+            // returned to the pool before rendering, rolling back what was not committed
+            Database.releaseBeforeRender(ctx);
+            active.add(pool.getHikariPoolMXBean().getActiveConnections());
+
+            // a new connection is checked out for queries after the release
+            uncommitted.add(db.findSingle("SELECT COUNT(*) FROM projects WHERE projectName = 'Uncommitted'",
+                                          rs -> rs.getLong(1)));
+            active.add(pool.getHikariPoolMXBean().getActiveConnections());
+        });
+
+        assertEquals(List.of(0, 1, 0, 1), active);
+        assertEquals(List.of(0L), uncommitted, "uncommitted insert survived the release");
+        assertEquals(0, pool.getHikariPoolMXBean().getActiveConnections(), "connection not returned after the request");
+
+        // releasing before render can be turned off
+        config.setReleaseConnectionBeforeRender(false);
+        active.clear();
+        request(config, ctx -> {
+            Database.get(ctx).findSingle("SELECT 1", rs -> rs.getInt(1));
+            Database.releaseBeforeRender(ctx);
+            active.add(pool.getHikariPoolMXBean().getActiveConnections());
+        });
+        assertEquals(List.of(1), active);
+    }
+}
@@ -0,0 +1,56 @@
+package etsf20.basesystem.domain;
+
+import etsf20.basesystem.monitoring.LatencyHistogram;
+import etsf20.basesystem.monitoring.PrometheusWriter;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestLatencyHistogram {
+    @Test
+    public void testQuantiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.quantile(0.99));
+
+        // 1 ms to 1000 ms uniformly
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1_000_000L);
+        }
+
+        assertEquals(1000, histogram.count());
+        assertEquals(500_500_000_000L, histogram.sumNanos());
+        assertEquals(1_000_000_000L, histogram.maxNanos());
+
+        assertEquals(500e6, histogram.quantile(0.5), 500e6 * 0.07);
+        assertEquals(950e6, histogram.quantile(0.95), 950e6 * 0.07);
+        assertEquals(990e6, histogram.quantile(0.99), 990e6 * 0.07);
+        assertTrue(histogram.quantile(1.0) <= histogram.maxNanos());
+    }
+
+    @Test
+    public void testRelativeError() {
+        Random random = new Random(1);
+        for (int i = 0; i < 10_000; i++) {
+            long nanos = (long) Math.exp(random.nextDouble() * 27); // up to about 9 minutes
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(nanos);
+            assertEquals(nanos, histogram.quantile(0.5), Math.max(1, nanos * 0.07), "value " + nanos);
+        }
+    }
+
+    @Test
+    public void testPrometheusFormat() {
+        String text = new PrometheusWriter()
+                .metric("requests_total", "counter", "Requests")
+                .sample("requests_total", 3, "route", "/a\"b", "code", "200")
+                .sample("latency_seconds", 0.25)
+                .toString();
+
+        assertEquals("# HELP requests_total Requests\n" +
+                     "# TYPE requests_total counter\n" +
+                     "requests_total{route=\"/a\\\"b\",code=\"200\"} 3\n" +
+                     "latency_seconds 0.25\n", text);
+    }
+}
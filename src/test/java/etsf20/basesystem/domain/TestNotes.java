@@ -7,6 +7,8 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import etsf20.basesystem.Main;
 import etsf20.basesystem.domain.models.Note;
+import etsf20.basesystem.domain.models.NoteCursor;
+import etsf20.basesystem.domain.models.NoteSlice;
 import etsf20.basesystem.domain.repositories.Repositories;
 import etsf20.basesystem.persistance.Database;
 
@@ -14,9 +16,17 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -147,4 +157,144 @@ public class TestNotes {
         emptyList = repos.notes().list("non-existent");
         assertTrue(emptyList.isEmpty(), "not empty");
     }
+
+    @Test
+    public void testForEachNotes() {
+        // distinct timestamps, the order of notes with equal timestamps is not part of the comparison
+        Instant first = Instant.now().truncatedTo(ChronoUnit.SECONDS).minusSeconds(60);
+        for (int i = 0; i < 10; i++) {
+            UUID uuid = repos.notes().create(new Note("Note " + i, "Body " + i, "admin"));
+            repos.notes().update(repos.notes().get(uuid).orElseThrow(), first.plusSeconds(i));
+        }
+
+        List<String> titles = new ArrayList<>();
+        assertEquals(10, repos.notes().forEach("admin", true, note -> titles.add(note.getTitle())));
+        assertEquals(List.of("Note 0", "Note 1", "Note 2", "Note 3", "Note 4", "Note 5", "Note 6", "Note 7", "Note 8", "Note 9"), titles);
+        assertEquals(repos.notes().list("admin").stream().map(Note::getTitle).toList(), titles);
+
+        assertEquals(0, repos.notes().forEach("non-existent", true, note -> fail("unexpected note")));
+    }
+
+    @Test
+    public void testKeysetPagination() {
+        Instant sameTime = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        List<UUID> created = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            Note note = new Note("Note " + i, "Body " + i, "admin");
+            UUID uuid = repos.notes().create(note);
+            created.add(uuid);
+
+            // force timestamp ties in the middle, the uuid must keep the order stable
+            if(i < 2) {
+                repos.notes().update(repos.notes().get(uuid).orElseThrow(), sameTime.minusSeconds(10 - i));
+            } else if(i <= 4) {
+                repos.notes().update(repos.notes().get(uuid).orElseThrow(), sameTime);
+            }
+        }
+
+        // the database orders uuids as unsigned 128-bit numbers, UUID.compareTo compares signed
+        Comparator<Note> order = Comparator.comparing(Note::getTimestamp)
+                .thenComparing(note -> note.getUuid().getMostSignificantBits(), Long::compareUnsigned)
+                .thenComparing(note -> note.getUuid().getLeastSignificantBits(), Long::compareUnsigned);
+        List<Note> notes = created.stream().map(uuid -> repos.notes().get(uuid).orElseThrow()).toList();
+
+        for (boolean ascending : new boolean[] {true, false}) {
+            List<UUID> expected = notes.stream()
+                    .sorted(ascending ? order : order.reversed())
+                    .map(Note::getUuid)
+                    .toList();
+
+            List<UUID> visited = new ArrayList<>();
+            NoteCursor cursor = null;
+            do {
+                NoteSlice slice = repos.notes().list("admin", cursor, 3, ascending);
+                assertTrue(slice.notes().size() <= 3, "page too large");
+                slice.notes().forEach(note -> visited.add(note.getUuid()));
+
+                // cursors are passed around as strings
+                cursor = slice.next().map(c -> NoteCursor.decode(c.encode())).orElse(null);
+            } while(cursor != null);
+
+            // exact order across page boundaries, the notes with the same timestamp are split over the first two pages
+            assertEquals(expected, visited);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> NoteCursor.decode("not-a-cursor"));
+    }
+
+    @Test
+    public void testSearch() {
+        UUID design = repos.notes().create(new Note("Design review", "We reviewed the architecture", "admin"));
+        UUID meeting = repos.notes().create(new Note("Weekly meeting", "Short design discussion, mostly about the sprint plan and the demo", "admin"));
+        UUID other = repos.notes().create(new Note("Lunch", "Nothing to see here", "admin"));
+
+        // the word in the title and in a shorter note ranks higher
+        List<UUID> found = repos.notes().search("admin", "design", 10).stream().map(Note::getUuid).toList();
+        assertEquals(List.of(design, meeting), found);
+
+        // words are matched as prefixes and case insensitively
+        found = repos.notes().search("admin", "ARCH", 10).stream().map(Note::getUuid).toList();
+        assertEquals(List.of(design), found);
+
+        // notes matching more words rank higher, limit is applied after ranking
+        found = repos.notes().search("admin", "sprint design", 1).stream().map(Note::getUuid).toList();
+        assertEquals(List.of(meeting), found);
+
+        // other users' notes are never found
+        assertTrue(repos.notes().search("user", "design", 10).isEmpty());
+        assertTrue(repos.notes().search("admin", " ,. ", 10).isEmpty());
+
+        // updates replace the indexed words
+        Note note = repos.notes().get(other).orElseThrow();
+        note.setBody("Design of the lunch menu");
+        assertTrue(repos.notes().update(note));
+        assertEquals(3, repos.notes().search("admin", "design", 10).size());
+        assertTrue(repos.notes().search("admin", "nothing", 10).isEmpty());
+
+        assertTrue(repos.notes().delete("admin", design));
+        found = repos.notes().search("admin", "design", 10).stream().map(Note::getUuid).toList();
+        assertEquals(Set.of(meeting, other), Set.copyOf(found));
+        assertTrue(repos.notes().search("admin", "architecture", 10).isEmpty());
+
+        assertThrows(IllegalArgumentException.class, () -> repos.notes().search("admin", "design", 0));
+    }
+
+    @Test
+    public void testConcurrentIndexing() throws Exception {
+        Config config = Config.testConfiguration("jdbc:h2:mem:concurrentindex;DB_CLOSE_DELAY=-1");
+        int writers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try(HikariDataSource shared = Database.createPool(config)) {
+            try(Connection conn = shared.getConnection()) {
+                Main.createSchemaIfNotExists(conn);
+            }
+
+            // every round indexes a term that is new for the user from all writers at once
+            for (int round = 0; round < 50; round++) {
+                String term = "term" + round;
+                CyclicBarrier start = new CyclicBarrier(writers);
+                List<Future<UUID>> results = new ArrayList<>();
+                for (int i = 0; i < writers; i++) {
+                    results.add(executor.submit(() -> {
+                        try(Database db = new Database(shared.getConnection())) {
+                            Repositories writer = Repositories.from(db);
+                            start.await(10, TimeUnit.SECONDS);
+                            UUID uuid = writer.notes().create(new Note("Concurrent", "Body " + term, "admin"));
+                            writer.commit();
+                            return uuid;
+                        }
+                    }));
+                }
+                for (Future<UUID> result : results) {
+                    assertNotNull(result.get(30, TimeUnit.SECONDS), "indexing failed");
+                }
+
+                try(Database db = new Database(shared.getConnection())) {
+                    assertEquals(writers, Repositories.from(db).notes().search("admin", term, writers).size());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
@@ -0,0 +1,108 @@
+package etsf20.basesystem.domain;
+
+import etsf20.basesystem.security.Argon2PasswordHash;
+import etsf20.basesystem.security.HashingExecutor;
+import etsf20.basesystem.security.HashingRejectedException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestPasswordHashing {
+    @AfterEach
+    void tearDown() {
+        HashingExecutor.configure(HashingExecutor.DEFAULT_THREADS, HashingExecutor.DEFAULT_QUEUE_SIZE);
+        Argon2PasswordHash.configure(Argon2PasswordHash.DEFAULT_PARAMETERS);
+    }
+
+    @Test
+    public void testHashOnExecutor() {
+        long completed = HashingExecutor.stats().completed();
+
+        String hash = Argon2PasswordHash.create("Secret@1234");
+        assertTrue(Argon2PasswordHash.verify(hash, "Secret@1234"));
+        assertFalse(Argon2PasswordHash.verify(hash, "secret@1234"));
+
+        HashingExecutor.Stats stats = HashingExecutor.stats();
+        assertEquals(completed + 3, stats.completed());
+        assertEquals(stats.completed(), stats.hashTime().count());
+        assertEquals(stats.completed(), stats.waitTime().count());
+        assertTrue(stats.hashTime().maxNanos() > 0);
+    }
+
+    @Test
+    public void testRejectsWhenQueueIsFull() throws InterruptedException {
+        HashingExecutor.configure(1, 1);
+
+        int attempts = 8;
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger hashed = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < attempts; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    Argon2PasswordHash.create("Secret@1234");
+                    hashed.incrementAndGet();
+                } catch (HashingRejectedException e) {
+                    rejected.incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // one thread and one queue slot, the burst can not be served at once
+        assertEquals(attempts, hashed.get() + rejected.get());
+        assertTrue(rejected.get() > 0, "no hash was rejected");
+        assertTrue(hashed.get() > 0, "no hash was computed");
+        assertEquals(rejected.get(), HashingExecutor.stats().rejected());
+    }
+
+    @Test
+    public void testParametersAndRehash() {
+        String hash = Argon2PasswordHash.create("Secret@1234");
+        assertTrue(hash.startsWith("2$m=19456,t=2,p=1$"), "parameters not stored: " + hash);
+        assertFalse(Argon2PasswordHash.needsRehash(hash));
+
+        // hashes in the original format use the default parameters
+        String legacy = "1$" + hash.substring(hash.indexOf('$', 2) + 1);
+        assertTrue(Argon2PasswordHash.verify(legacy, "Secret@1234"), "original format is not accepted");
+        assertTrue(Argon2PasswordHash.needsRehash(legacy));
+
+        Argon2PasswordHash.configure(new Argon2PasswordHash.Parameters(8192, 3, 1));
+        assertTrue(Argon2PasswordHash.needsRehash(hash));
+        assertTrue(Argon2PasswordHash.verify(hash, "Secret@1234"), "old parameters are not accepted");
+
+        String rehashed = Argon2PasswordHash.create("Secret@1234");
+        assertTrue(rehashed.startsWith("2$m=8192,t=3,p=1$"));
+        assertTrue(Argon2PasswordHash.verify(rehashed, "Secret@1234"));
+        assertFalse(Argon2PasswordHash.needsRehash(rehashed));
+
+        assertFalse(Argon2PasswordHash.verify("2$m=1,t=1,p=1$AAAA$AAAA", "Secret@1234"), "invalid parameters accepted");
+    }
+
+    @Test
+    public void testCalibrate() {
+        Argon2PasswordHash.Parameters parameters = Argon2PasswordHash.calibrate(Duration.ofMillis(1));
+        assertEquals(Argon2PasswordHash.DEFAULT_PARAMETERS, parameters, "calibration went below the defaults");
+
+        parameters = Argon2PasswordHash.calibrate(Duration.ofSeconds(30));
+        assertTrue(parameters.iterations() > Argon2PasswordHash.DEFAULT_PARAMETERS.iterations());
+    }
+}
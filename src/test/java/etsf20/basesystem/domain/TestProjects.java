@@ -7,11 +7,18 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import etsf20.basesystem.Main;
 import etsf20.basesystem.domain.models.Project;
+import etsf20.basesystem.domain.models.ProjectCursor;
+import etsf20.basesystem.domain.models.ProjectSlice;
+import etsf20.basesystem.domain.models.User;
+import etsf20.basesystem.domain.models.UserRole;
 import etsf20.basesystem.domain.repositories.Repositories;
+import etsf20.basesystem.domain.repositories.RepositoryCaches;
 import etsf20.basesystem.persistance.Database;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -118,4 +125,80 @@ public class TestProjects {
         emptyList = repos.projects().list();
         assertTrue(emptyList.isEmpty(), "not empty");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testProjectPages() {
+        List<UUID> member = new ArrayList<>();
+        for (String name : List.of("Delta", "Alpha", "Charlie", "Bravo", "Alpha")) {
+            UUID uuid = repos.projects().create(new Project(UUID.randomUUID(), name, "Description"));
+            if(!name.equals("Charlie")) {
+                member.add(uuid);
+            }
+        }
+        repos.users().create(new User("member", "Member", "hashedPassword", UserRole.USER));
+        for (UUID uuid : member) {
+            repos.userProjects().addUserToProject("member", uuid);
+        }
+        repos.commit();
+
+        // all projects ordered by name, pages continue after the cursor even between projects with the same name
+        List<String> names = new ArrayList<>();
+        ProjectCursor after = null;
+        int pages = 0;
+        do {
+            ProjectSlice slice = repos.projects().list(null, after, 2);
+            assertTrue(slice.projects().size() <= 2);
+            slice.projects().forEach(p -> names.add(p.getProjectName()));
+            after = slice.next().map(ProjectCursor::encode).map(ProjectCursor::decode).orElse(null);
+            pages++;
+        } while (after != null);
+        assertEquals(List.of("Alpha", "Alpha", "Bravo", "Charlie", "Delta"), names);
+        assertEquals(3, pages);
+
+        // only projects with the member
+        ProjectSlice first = repos.projects().list("member", null, 3);
+        assertEquals(List.of("Alpha", "Alpha", "Bravo"), first.projects().stream().map(Project::getProjectName).toList());
+        ProjectSlice last = repos.projects().list("member", first.next().orElseThrow(), 3);
+        assertEquals(List.of("Delta"), last.projects().stream().map(Project::getProjectName).toList());
+        assertTrue(last.next().isEmpty());
+
+        assertTrue(repos.projects().list("nobody", null, 3).projects().isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> ProjectCursor.decode("AAAA"));
+    }
+
+    @Test
+    public void testProjectCache() {
+        RepositoryCaches caches = new RepositoryCaches(16, Duration.ofMinutes(1));
+        Repositories cached = new Repositories(repos.getDatabase(), caches);
+        UUID uuid = cached.projects().create(createExampleProject());
+        cached.commit();
+
+        // copies are handed out, changing one does not change the cached project
+        cached.projects().get(uuid).orElseThrow().setProjectName("Not saved");
+        validateExampleProject(cached.projects().get(uuid).orElseThrow());
+        assertEquals(1, caches.projects().hits());
+
+        // an uncommitted change is visible in its own transaction, but never cached
+        Project project = cached.projects().get(uuid).orElseThrow();
+        project.setProjectName("Rolled back");
+        cached.projects().update(project);
+        assertEquals("Rolled back", cached.projects().get(uuid).orElseThrow().getProjectName());
+        cached.rollback();
+        validateExampleProject(cached.projects().get(uuid).orElseThrow());
+
+        // the rollback ended the transaction, the project is served from the cache again
+        long hits = caches.projects().hits();
+        validateExampleProject(cached.projects().get(uuid).orElseThrow());
+        assertEquals(hits + 1, caches.projects().hits());
+
+        project.setProjectName("Updated Project");
+        cached.projects().update(project);
+        cached.commit();
+        assertEquals("Updated Project", cached.projects().get(uuid).orElseThrow().getProjectName());
+        assertEquals("Updated Project", cached.projects().get(uuid).orElseThrow().getProjectName());
+
+        assertTrue(cached.projects().delete(uuid));
+        cached.commit();
+        assertTrue(cached.projects().get(uuid).isEmpty());
+    }
+}
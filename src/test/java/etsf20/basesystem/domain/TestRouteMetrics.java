@@ -0,0 +1,76 @@
+package etsf20.basesystem.domain;
+
+import etsf20.basesystem.Config;
+import etsf20.basesystem.Main;
+import etsf20.basesystem.monitoring.RouteMetrics;
+import io.javalin.Javalin;
+import io.javalin.http.HandlerType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.SQLException;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestRouteMetrics {
+    private Javalin app;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        app = Main.javalin(Config.testConfiguration()).start(0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        app.stop();
+    }
+
+    private int get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + app.port() + path)).build();
+        return HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private static Optional<RouteMetrics.Route> route(HandlerType method, String path) {
+        return RouteMetrics.routes().stream()
+                           .filter(r -> r.method() == method && r.path().equals(path))
+                           .findFirst();
+    }
+
+    private static long responses(String path, int status) {
+        return route(HandlerType.GET, path).map(r -> r.statuses().getOrDefault(status, 0L)).orElse(0L);
+    }
+
+    /**
+     * Wait for the request logger, it may record the request after the client has received the response
+     */
+    private static void awaitResponses(String path, int status, long expected) throws InterruptedException {
+        for (int i = 0; i < 100 && responses(path, status) < expected; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, responses(path, status), path + " " + status);
+    }
+
+    @Test
+    public void testStaticFilesAndNotFoundAreUnmatched() throws Exception {
+        long staticFiles = responses(RouteMetrics.UNMATCHED, 200);
+        long notFound = responses(RouteMetrics.UNMATCHED, 404);
+
+        assertEquals(200, get("/css/base.css"));
+        awaitResponses(RouteMetrics.UNMATCHED, 200, staticFiles + 1);
+
+        assertEquals(404, get("/no-such-page/"));
+        awaitResponses(RouteMetrics.UNMATCHED, 404, notFound + 1);
+
+        assertEquals(Optional.empty(), route(HandlerType.GET, "*"), "static files recorded as a separate route");
+        for (RouteMetrics.Route route : RouteMetrics.routes()) {
+            assertEquals(0, route.inFlight(), route.method() + " " + route.path() + " still in flight");
+        }
+    }
+}
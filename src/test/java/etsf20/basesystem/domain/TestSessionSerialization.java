@@ -0,0 +1,93 @@
+package etsf20.basesystem.domain;
+
+import etsf20.basesystem.domain.models.UserRole;
+import etsf20.basesystem.web.pages.admin.CreateUserPage;
+import etsf20.basesystem.web.sessions.CompactSessionDataSerializer;
+import etsf20.basesystem.web.sessions.JavaSessionDataSerializer;
+import etsf20.basesystem.web.sessions.SessionDataSerializer;
+import org.eclipse.jetty.server.session.SessionData;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestSessionSerialization {
+    /**
+     * Same shape as the page states stored by {@code Session}
+     */
+    private record StateValue(Instant refreshed, Serializable value) implements Serializable {}
+
+    private static SessionData session(int states) {
+        SessionData data = new SessionData("node0abcdefghijklmnop", "/", "0.0.0.0", 0, 0, 0, 20 * 60 * 1000);
+        data.setAttribute("user.name", "admin");
+        data.setAttribute("user.role", UserRole.ADMIN);
+        data.setAttribute("user.displayname", "Administrator");
+
+        HashMap<UUID, StateValue> state = new HashMap<>();
+        for (int i = 0; i < states; i++) {
+            state.put(UUID.randomUUID(), new StateValue(Instant.now(),
+                    new CreateUserPage.State(i % 3, "user" + i, "User Number " + i, UserRole.USER)));
+        }
+        data.setAttribute("state", state);
+        return data;
+    }
+
+    private static SessionData roundTrip(SessionDataSerializer serializer, SessionData data) throws Exception {
+        byte[] bytes = serializer.serialize(data);
+        SessionData copy = new SessionData(data.getId(), "/", "0.0.0.0", 0, 0, 0, 0);
+        serializer.deserialize(bytes, copy);
+        return copy;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        SessionData data = session(4);
+        data.setAttribute("list", new ArrayList<>(List.of(1, -2L, true, "text")));
+        data.setAttribute("java", new TreeMap<>(Map.of("a", 1))); // not supported by the compact format
+
+        SessionData copy = roundTrip(new CompactSessionDataSerializer(), data);
+        assertEquals(data.getAllAttributes(), copy.getAllAttributes());
+        assertSame(UserRole.ADMIN, copy.getAttribute("user.role"));
+        assertEquals(HashMap.class, copy.getAttribute("state").getClass());
+    }
+
+    @Test
+    public void testReadsJavaSerializedSessions() throws Exception {
+        SessionData data = session(2);
+        byte[] bytes = new JavaSessionDataSerializer().serialize(data);
+
+        SessionData copy = new SessionData(data.getId(), "/", "0.0.0.0", 0, 0, 0, 0);
+        new CompactSessionDataSerializer().deserialize(bytes, copy);
+        assertEquals(data.getAllAttributes(), copy.getAllAttributes());
+    }
+
+    @Test
+    public void testRejectsCorruptData() throws Exception {
+        byte[] bytes = new CompactSessionDataSerializer().serialize(session(2));
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 3);
+
+        SessionData copy = new SessionData("id", "/", "0.0.0.0", 0, 0, 0, 0);
+        assertThrows(IOException.class, () -> new CompactSessionDataSerializer().deserialize(truncated, copy));
+    }
+
+    /**
+     * The compact format is smaller for sessions with and without page states, timing is measured by
+     * {@code SessionSerializerBenchmark}
+     */
+    @Test
+    public void testCompactFormatIsSmaller() throws Exception {
+        SessionDataSerializer java = new JavaSessionDataSerializer();
+        SessionDataSerializer compact = new CompactSessionDataSerializer();
+
+        for (int states : new int[] {0, 4, 32}) {
+            SessionData data = session(states);
+            int javaSize = java.serialize(data).length;
+            int compactSize = compact.serialize(data).length;
+            assertTrue(compactSize < javaSize, states + " states: compact " + compactSize + " bytes, java " + javaSize + " bytes");
+        }
+    }
+}
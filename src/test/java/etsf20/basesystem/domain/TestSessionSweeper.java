@@ -0,0 +1,87 @@
+package etsf20.basesystem.domain;
+
+import com.zaxxer.hikari.HikariDataSource;
+import etsf20.basesystem.Config;
+import etsf20.basesystem.Main;
+import etsf20.basesystem.persistance.Database;
+import etsf20.basesystem.persistance.StatementCache;
+import etsf20.basesystem.web.sessions.CompactSessionDataSerializer;
+import etsf20.basesystem.web.sessions.WriteBehindSessionDataStore;
+import org.eclipse.jetty.server.session.SessionContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestSessionSweeper {
+    private HikariDataSource pool;
+    private WriteBehindSessionDataStore store;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        pool = Database.createPool(Config.testConfigurationSingleConnection());
+
+        try(Connection conn = pool.getConnection()) {
+            Main.createSchemaIfNotExists(conn);
+        }
+
+        store = new WriteBehindSessionDataStore(pool, Duration.ofSeconds(1), new CompactSessionDataSerializer());
+        store.setSweepBatchSize(3);
+        store.initialize(new SessionContext("node0", null));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        StatementCache.closeAll();
+        pool.close();
+    }
+
+    private void insertSessions(String prefix, int count, long expiry) throws SQLException {
+        try(Connection conn = pool.getConnection();
+            PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO sessions (session_id, context_path, vhost, create_time, cookie_time, access_time, " +
+                    "last_access_time, last_save_time, expiry_time, max_interval) VALUES (?, '', '0.0.0.0', 0, 0, 0, 0, 0, ?, 0)")) {
+            for (int i = 0; i < count; i++) {
+                stmt.setString(1, prefix + i);
+                stmt.setLong(2, expiry);
+                stmt.executeUpdate();
+            }
+            conn.commit();
+        }
+    }
+
+    private int storedSessions() throws SQLException {
+        try(Connection conn = pool.getConnection();
+            ResultSet rs = conn.createStatement().executeQuery("SELECT COUNT(*) FROM sessions")) {
+            rs.next();
+            int count = rs.getInt(1);
+            conn.rollback();
+            return count;
+        }
+    }
+
+    @Test
+    public void testSweepDeletesExpiredInBatches() throws Exception {
+        long now = System.currentTimeMillis();
+        insertSessions("expired", 10, now - Duration.ofHours(1).toMillis());
+        insertSessions("recent", 2, now - 100); // expired, but within the save period it may still be in use
+        insertSessions("live", 4, now + Duration.ofMinutes(20).toMillis());
+        insertSessions("forever", 1, 0);
+
+        assertEquals(10, store.sweep());
+        assertEquals(10, store.evictedSessions());
+        assertEquals(5, store.liveSessions());
+        assertEquals(2, store.expiredSessions());
+        assertEquals(7, storedSessions());
+
+        assertEquals(0, store.sweep());
+        assertEquals(10, store.evictedSessions());
+    }
+}
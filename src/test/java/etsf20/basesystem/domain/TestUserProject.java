@@ -11,10 +11,12 @@ import etsf20.basesystem.domain.models.User;
 import etsf20.basesystem.domain.models.UserProject;
 import etsf20.basesystem.domain.models.UserRole;
 import etsf20.basesystem.domain.repositories.Repositories;
+import etsf20.basesystem.domain.repositories.RepositoryCaches;
 import etsf20.basesystem.persistance.Database;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -92,4 +94,46 @@ public class TestUserProject {
         assertFalse(users.isEmpty(), "no users found for project");
         assertEquals(userProject.getUsername(), users.get(0).getUsername(), "username does not match");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testMemberCache() {
+        RepositoryCaches caches = new RepositoryCaches(16, Duration.ofMinutes(1));
+        Repositories cached = new Repositories(repos.getDatabase(), caches);
+        createUser("member");
+        UUID projectId = createProject();
+        cached.commit();
+
+        assertEquals(List.of(), cached.userProjects().getUsersForProject(projectId));
+        assertTrue(cached.userProjects().addUserToProject("member", projectId));
+        cached.commit();
+        assertEquals(List.of("member"), cached.userProjects().getUsernameForProject(projectId));
+        assertEquals(List.of("member"), cached.userProjects().getUsernameForProject(projectId));
+        assertEquals(1, caches.projectMembers().hits());
+
+        // display names are part of the cached list, lists of other projects stay cached
+        UUID otherProject = createProject();
+        cached.commit();
+        cached.userProjects().getUsersForProject(otherProject);
+        long hits = caches.projectMembers().hits();
+
+        User user = cached.users().get("member").orElseThrow();
+        user.setDisplayName("Renamed");
+        cached.users().update(user);
+        cached.commit();
+        assertEquals("Renamed", cached.userProjects().getUsersForProject(projectId).get(0).getDisplayName());
+        assertEquals(List.of(), cached.userProjects().getUsersForProject(otherProject));
+        assertEquals(hits + 1, caches.projectMembers().hits(), "unrelated member list was dropped");
+
+        assertTrue(cached.userProjects().removeUserFromProject("member", projectId));
+        cached.commit();
+        assertEquals(List.of(), cached.userProjects().getUsernameForProject(projectId));
+
+        // deleting the project drops its members with it
+        assertTrue(cached.userProjects().addUserToProject("member", projectId));
+        cached.commit();
+        assertEquals(1, cached.userProjects().getUsersForProject(projectId).size());
+        assertTrue(cached.projects().delete(projectId));
+        cached.commit();
+        assertEquals(List.of(), cached.userProjects().getUsersForProject(projectId));
+    }
+}
@@ -9,14 +9,17 @@ import etsf20.basesystem.Main;
 import etsf20.basesystem.domain.models.User;
 import etsf20.basesystem.domain.models.UserRole;
 import etsf20.basesystem.domain.repositories.Repositories;
+import etsf20.basesystem.domain.repositories.RepositoryCaches;
 import etsf20.basesystem.persistance.Database;
 import etsf20.basesystem.security.Argon2PasswordHash;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -53,6 +56,26 @@ public class TestUsers {
         assertFalse(Argon2PasswordHash.verify(hashedPassword, "admin_123"), "accepts incorrect password");
     }
 
+    @Test
+    public void testReplacePasswordHash() {
+        repos.users().create(new User("rehash-user", "Rehash user", "old-hash", UserRole.USER));
+
+        // an admin changes the role while the login is rehashing
+        User changed = repos.users().get("rehash-user").orElseThrow();
+        changed.setRole(UserRole.ADMIN);
+        assertTrue(repos.users().update(changed));
+
+        assertTrue(repos.users().replacePasswordHash("rehash-user", "old-hash", "new-hash"));
+        User user = repos.users().get("rehash-user").orElseThrow();
+        assertEquals("new-hash", user.getPasswordHash());
+        assertEquals(UserRole.ADMIN, user.getRole(), "role change was reverted");
+
+        // the password was reset since it was read, the reset is kept
+        assertFalse(repos.users().replacePasswordHash("rehash-user", "old-hash", "other-hash"));
+        assertEquals("new-hash", repos.users().get("rehash-user").orElseThrow().getPasswordHash());
+        assertFalse(repos.users().replacePasswordHash("no-such-user", "old-hash", "other-hash"));
+    }
+
     /**
      * Integration test
      */
@@ -159,5 +182,30 @@ public class TestUsers {
 
         assertTrue(repos.users().list().isEmpty());
     }
-}
 
+    @Test
+    public void testUserCacheInvalidation() {
+        RepositoryCaches caches = new RepositoryCaches(16, Duration.ofMinutes(1));
+        Repositories cached = new Repositories(repos.getDatabase(), caches);
+        Function<String, Optional<UserRole>> loader = name -> cached.users().get(name).map(User::getRole);
+
+        assertEquals(Optional.empty(), caches.userRoles().get("cached", loader));
+
+        // creating the user must drop the cached "does not exist"
+        cached.users().create(User.createWithPassword("cached", "Cached", "Cached@1234", UserRole.USER));
+        cached.commit();
+        assertEquals(Optional.of(UserRole.USER), caches.userRoles().get("cached", loader));
+        assertEquals(Optional.of(UserRole.USER), caches.userRoles().get("cached", loader));
+        assertEquals(1, caches.userRoles().hits());
+
+        User user = cached.users().get("cached").orElseThrow();
+        user.setRole(UserRole.ADMIN);
+        cached.users().update(user);
+        cached.commit();
+        assertEquals(Optional.of(UserRole.ADMIN), caches.userRoles().get("cached", loader));
+
+        cached.users().delete("cached");
+        cached.commit();
+        assertEquals(Optional.empty(), caches.userRoles().get("cached", loader));
+    }
+}
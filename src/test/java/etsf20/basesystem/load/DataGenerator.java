@@ -0,0 +1,283 @@
+package etsf20.basesystem.load;
+
+import com.zaxxer.hikari.HikariDataSource;
+import etsf20.basesystem.Config;
+import etsf20.basesystem.ConfigLoader;
+import etsf20.basesystem.Main;
+import etsf20.basesystem.domain.repositories.NoteSearchIndex;
+import etsf20.basesystem.persistance.Database;
+import etsf20.basesystem.security.Argon2PasswordHash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+/**
+ * Fills the database with synthetic users, projects, memberships and notes.
+ *
+ * <p>Sizes are skewed like real data: a few users write most of the notes and a few projects have most of the
+ * members, both following a Zipf distribution with exponent {@link Parameters#skew()}. Note bodies vary in length
+ * and timestamps are spread over the year before {@link Parameters#end()}. The same parameters always generate the
+ * same data.</p>
+ *
+ * <p>Generated users are named {@code user0}, {@code user1}, ... and all have the password {@value #PASSWORD},
+ * {@code user0} has the most notes.</p>
+ */
+public final class DataGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(DataGenerator.class);
+
+    /**
+     * Password of all generated users
+     */
+    public static final String PASSWORD = "User@1234";
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int COMMIT_ROWS = 20_000;
+    private static final Duration NOTE_PERIOD = Duration.ofDays(365);
+
+    private static final String[] WORDS = (
+            "meeting review design sprint test customer requirement estimate risk deadline plan report build " +
+            "release bug fix refactor database session login page template latency cache index query user " +
+            "project note journal week hours discussion decision follow-up architecture prototype demo feedback"
+    ).split(" ");
+
+    /**
+     * Amount of data to generate
+     * @param users           number of users
+     * @param projects        number of projects
+     * @param notes           number of notes, spread over users
+     * @param projectsPerUser average number of projects a user is member of
+     * @param skew            Zipf exponent, 0 spreads notes and members evenly, higher values are more skewed
+     * @param seed            random seed
+     * @param end             latest note timestamp
+     */
+    public record Parameters(int users, int projects, int notes, int projectsPerUser, double skew, long seed,
+                             Instant end) {
+        public Parameters {
+            if(users < 1 || projects < 0 || notes < 0 || projectsPerUser < 0) {
+                throw new IllegalArgumentException("sizes must not be negative and there must be at least one user");
+            }
+            if(skew < 0.0) {
+                throw new IllegalArgumentException("skew must not be negative");
+            }
+            Objects.requireNonNull(end, "end");
+        }
+    }
+
+    /**
+     * 1 000 users, 100 projects and 100 000 notes written during 2024
+     */
+    public static final Parameters DEFAULT_PARAMETERS = new Parameters(1_000, 100, 100_000, 3, 1.1, 42,
+                                                                       Instant.parse("2025-01-01T00:00:00Z"));
+
+    /**
+     * Number of generated rows
+     */
+    public record Result(int users, int projects, int memberships, int notes) {}
+
+    /**
+     * Samples indices 0..n-1 where index i has a probability proportional to 1/(i+1)^s
+     */
+    private static final class Zipf {
+        private final double[] cdf;
+
+        private Zipf(int n, double s) {
+            cdf = new double[n];
+            double sum = 0.0;
+            for (int i = 0; i < n; i++) {
+                sum += 1.0 / Math.pow(i + 1, s);
+                cdf[i] = sum;
+            }
+            for (int i = 0; i < n; i++) {
+                cdf[i] /= sum;
+            }
+        }
+
+        private int next(SplittableRandom random) {
+            int index = Arrays.binarySearch(cdf, random.nextDouble());
+            index = index < 0 ? -index - 1 : index;
+            return Math.min(index, cdf.length - 1);
+        }
+    }
+
+    private final Parameters parameters;
+    private final SplittableRandom random;
+
+    public DataGenerator(Parameters parameters) {
+        this.parameters = parameters;
+        this.random = new SplittableRandom(parameters.seed());
+    }
+
+    /**
+     * Username of a generated user
+     * @param index 0 for the user with the most notes
+     */
+    public static String username(int index) {
+        return "user" + index;
+    }
+
+    /**
+     * Generate data, the schema must exist and no generated users may exist yet
+     * @param conn connection, changes are committed
+     * @return number of generated rows
+     * @throws SQLException if rows could not be inserted, rows committed before the failure are kept
+     */
+    public Result generate(Connection conn) throws SQLException {
+        long start = System.nanoTime();
+
+        generateUsers(conn);
+        UUID[] projects = generateProjects(conn);
+        int memberships = generateMemberships(conn, projects);
+        generateNotes(conn);
+        conn.commit();
+        NoteSearchIndex.indexMissing(conn);
+
+        Result result = new Result(parameters.users(), projects.length, memberships, parameters.notes());
+        logger.info("Generated {} users, {} projects, {} memberships and {} notes in {} s",
+                    result.users(), result.projects(), result.memberships(), result.notes(),
+                    Duration.ofNanos(System.nanoTime() - start).toSeconds());
+        return result;
+    }
+
+    private void generateUsers(Connection conn) throws SQLException {
+        // Hashing is deliberately slow, every user shares the same hash
+        String hash = Argon2PasswordHash.create(PASSWORD);
+
+        try(PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO users(username, displayName, hashedPassword, role) VALUES (?, ?, ?, 'USER')")) {
+            for (int i = 0; i < parameters.users(); i++) {
+                stmt.setString(1, username(i));
+                stmt.setString(2, "User " + i);
+                stmt.setString(3, hash);
+                addBatch(conn, stmt, i);
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    private UUID[] generateProjects(Connection conn) throws SQLException {
+        UUID[] projects = new UUID[parameters.projects()];
+        try(PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO projects(project_uuid, projectName, description) VALUES (?, ?, ?)")) {
+            for (int i = 0; i < projects.length; i++) {
+                projects[i] = new UUID(random.nextLong(), random.nextLong());
+                stmt.setObject(1, projects[i]);
+                stmt.setString(2, "Project " + i);
+                stmt.setString(3, text(5, 40));
+                addBatch(conn, stmt, i);
+            }
+            stmt.executeBatch();
+        }
+        return projects;
+    }
+
+    private int generateMemberships(Connection conn, UUID[] projects) throws SQLException {
+        if(projects.length == 0) {
+            return 0;
+        }
+
+        Zipf popularity = new Zipf(projects.length, parameters.skew());
+        int count = 0;
+        try(PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO user_projects(username, project_uuid) VALUES (?, ?)")) {
+            Set<Integer> memberOf = new HashSet<>();
+            for (int user = 0; user < parameters.users(); user++) {
+                // between none and twice the average number of projects
+                int target = Math.min(projects.length, random.nextInt(2 * parameters.projectsPerUser() + 1));
+                memberOf.clear();
+                while (memberOf.size() < target) {
+                    memberOf.add(popularity.next(random));
+                }
+
+                for (int project : memberOf) {
+                    stmt.setString(1, username(user));
+                    stmt.setObject(2, projects[project]);
+                    addBatch(conn, stmt, count++);
+                }
+            }
+            stmt.executeBatch();
+        }
+        return count;
+    }
+
+    private void generateNotes(Connection conn) throws SQLException {
+        Zipf authors = new Zipf(parameters.users(), parameters.skew());
+        Instant end = parameters.end();
+        long periodMillis = NOTE_PERIOD.toMillis();
+
+        try(PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO notes(note_uuid, username, timestamp, title, body) VALUES (?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < parameters.notes(); i++) {
+                stmt.setObject(1, new UUID(random.nextLong(), random.nextLong()));
+                stmt.setString(2, username(authors.next(random)));
+                stmt.setTimestamp(3, Timestamp.from(end.minusMillis(random.nextLong(periodMillis))));
+                stmt.setString(4, text(2, 8));
+                stmt.setString(5, text(10, bodyLength()));
+                addBatch(conn, stmt, i);
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    /**
+     * Number of words in a note body, mostly short with a long tail
+     */
+    private int bodyLength() {
+        double lognormal = Math.exp(3.5 + 0.8 * random.nextGaussian());
+        return 10 + (int) Math.min(lognormal, 2000);
+    }
+
+    private String text(int minWords, int maxWords) {
+        int words = minWords + random.nextInt(Math.max(1, maxWords - minWords + 1));
+        StringBuilder sb = new StringBuilder(words * 8);
+        for (int i = 0; i < words; i++) {
+            if(i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static void addBatch(Connection conn, PreparedStatement stmt, int row) throws SQLException {
+        stmt.addBatch();
+        if((row + 1) % BATCH_SIZE == 0) {
+            stmt.executeBatch();
+        }
+        if((row + 1) % COMMIT_ROWS == 0) {
+            conn.commit();
+        }
+    }
+
+    /**
+     * Fill the database configured by {@link ConfigLoader}, arguments are: users projects notes [projectsPerUser] [skew] [seed] [end]
+     */
+    public static void main(String[] args) throws SQLException {
+        Parameters defaults = DEFAULT_PARAMETERS;
+        Parameters parameters = new Parameters(
+                args.length > 0 ? Integer.parseInt(args[0]) : defaults.users(),
+                args.length > 1 ? Integer.parseInt(args[1]) : defaults.projects(),
+                args.length > 2 ? Integer.parseInt(args[2]) : defaults.notes(),
+                args.length > 3 ? Integer.parseInt(args[3]) : defaults.projectsPerUser(),
+                args.length > 4 ? Double.parseDouble(args[4]) : defaults.skew(),
+                args.length > 5 ? Long.parseLong(args[5]) : defaults.seed(),
+                args.length > 6 ? Instant.parse(args[6]) : defaults.end());
+
+        Config config = ConfigLoader.fromSystem().load();
+        try(HikariDataSource pool = Database.createPool(config); Connection conn = pool.getConnection()) {
+            Main.createSchemaIfNotExists(conn);
+            new DataGenerator(parameters).generate(conn);
+        }
+    }
+}
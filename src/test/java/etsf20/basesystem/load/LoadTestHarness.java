@@ -0,0 +1,309 @@
+package etsf20.basesystem.load;
+
+import com.zaxxer.hikari.HikariDataSource;
+import etsf20.basesystem.Config;
+import etsf20.basesystem.Main;
+import etsf20.basesystem.monitoring.LatencyHistogram;
+import etsf20.basesystem.persistance.Database;
+import etsf20.basesystem.persistance.StatementCache;
+import io.javalin.util.ConcurrencyUtil;
+import io.javalin.Javalin;
+import org.apache.hc.client5.http.cookie.BasicCookieStore;
+import org.apache.hc.client5.http.entity.UrlEncodedFormEntity;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.support.ClassicRequestBuilder;
+import org.apache.hc.core5.http.message.BasicNameValuePair;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process HTTP load test.
+ *
+ * <p>Fills an in-memory database with {@link DataGenerator}, starts the application with {@link Main#javalin(Config)}
+ * and lets virtual users, each logged in as a different generated user, repeat: list notes, view a note, open the
+ * edit form and save it. Throughput and latency percentiles per step are printed when the test is done.</p>
+ *
+ * <p>Run with {@code ./mvnw test-compile exec:exec -Ploadtest}, settings are given as {@code key=value} arguments
+ * with {@code -Dload.args="virtualUsers=32 duration=60"}, see {@link Settings}. Run once with
+ * {@code virtualThreads=false} and once with {@code virtualThreads=true} to compare the request thread pools, e.g.
+ * with {@code virtualUsers=1000 rampUp=60}.</p>
+ */
+public class LoadTestHarness {
+    private static final Pattern NOTE_LINK = Pattern.compile("href=\"/notes/([0-9a-f-]{36})/\"");
+    private static final int LOGIN_ATTEMPTS = 10;
+    private static final Duration LOGIN_RETRY_DELAY = Duration.ofSeconds(1);
+
+    /**
+     * Load test settings
+     * @param virtualUsers number of concurrent logged in users
+     * @param duration     time to run after all users have logged in
+     * @param rampUp       time over which users log in, logins are expensive by design
+     * @param data         data to generate before starting
+     * @param virtualThreads if the server handles requests on virtual threads, see {@link Config#setVirtualThreads(boolean)}
+     * @param serverThreads  maximum number of platform threads handling requests when not using virtual threads
+     */
+    public record Settings(int virtualUsers, Duration duration, Duration rampUp, DataGenerator.Parameters data,
+                           boolean virtualThreads, int serverThreads) {
+        static Settings parse(String[] args) {
+            Map<String, String> values = new LinkedHashMap<>();
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                if(eq < 1) {
+                    throw new IllegalArgumentException("expected key=value: " + arg);
+                }
+                values.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+
+            DataGenerator.Parameters defaults = DataGenerator.DEFAULT_PARAMETERS;
+            Settings settings = new Settings(
+                    Integer.parseInt(values.getOrDefault("virtualUsers", "16")),
+                    Duration.ofSeconds(Long.parseLong(values.getOrDefault("duration", "30"))),
+                    Duration.ofSeconds(Long.parseLong(values.getOrDefault("rampUp", "5"))),
+                    new DataGenerator.Parameters(
+                            Integer.parseInt(values.getOrDefault("users", String.valueOf(defaults.users()))),
+                            Integer.parseInt(values.getOrDefault("projects", String.valueOf(defaults.projects()))),
+                            Integer.parseInt(values.getOrDefault("notes", String.valueOf(defaults.notes()))),
+                            defaults.projectsPerUser(),
+                            Double.parseDouble(values.getOrDefault("skew", String.valueOf(defaults.skew()))),
+                            defaults.seed(),
+                            defaults.end()),
+                    Boolean.parseBoolean(values.getOrDefault("virtualThreads", "false")),
+                    Integer.parseInt(values.getOrDefault("serverThreads", String.valueOf(Config.defaultConfiguration().getServerThreads()))));
+
+            values.keySet().removeAll(List.of("virtualUsers", "duration", "rampUp", "users", "projects", "notes", "skew",
+                                              "virtualThreads", "serverThreads"));
+            if(!values.isEmpty()) {
+                throw new IllegalArgumentException("unknown settings: " + values.keySet());
+            }
+            if(settings.virtualUsers() > settings.data().users()) {
+                throw new IllegalArgumentException("more virtual users than generated users");
+            }
+            return settings;
+        }
+    }
+
+    /**
+     * Latency and errors of one step of the scenario
+     */
+    private static final class Step {
+        private final String name;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+
+        private Step(String name) {
+            this.name = name;
+        }
+    }
+
+    private final Step login = new Step("login");
+    private final Step list = new Step("list notes");
+    private final Step view = new Step("view note");
+    private final Step editForm = new Step("edit form");
+    private final Step save = new Step("save note");
+    private final List<Step> steps = List.of(login, list, view, editForm, save);
+
+    private final Settings settings;
+    private final String origin;
+    private volatile boolean measuring;
+    private volatile boolean running = true;
+
+    private LoadTestHarness(Settings settings, String origin) {
+        this.settings = settings;
+        this.origin = origin;
+    }
+
+    private record Response(int code, String body) {}
+
+    /**
+     * Run a request and record it in a step, only while measuring
+     * @return response or null if the request failed
+     */
+    private Response execute(CloseableHttpClient client, ClassicHttpRequest request, Step step) {
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = client.execute(request, r -> new Response(r.getCode(),
+                                                                 r.getEntity() == null ? "" : EntityUtils.toString(r.getEntity())));
+        } catch (IOException e) {
+            response = null;
+        }
+
+        if(measuring || step == login) {
+            step.latency.record(System.nanoTime() - start);
+            // redirects are not followed, they are the normal response to a submitted form
+            if(response == null || response.code() >= 400) {
+                step.errors.increment();
+            }
+        }
+        return response == null || response.code() >= 400 ? null : response;
+    }
+
+    private boolean login(CloseableHttpClient client, String username) throws IOException, InterruptedException {
+        for (int attempt = 0; attempt < LOGIN_ATTEMPTS; attempt++) {
+            ClassicHttpRequest request = ClassicRequestBuilder.post(origin + "/session/login")
+                    .setEntity(new UrlEncodedFormEntity(List.of(
+                            new BasicNameValuePair("username", username),
+                            new BasicNameValuePair("password", DataGenerator.PASSWORD))))
+                    .build();
+            if(execute(client, request, login) != null) {
+                return true;
+            }
+            // most likely rejected by a full password hashing queue, which asks clients to come back later
+            Thread.sleep(LOGIN_RETRY_DELAY.toMillis());
+        }
+        return false;
+    }
+
+    /**
+     * Scenario of one virtual user, runs until stopped
+     */
+    private void virtualUser(int index, CountDownLatch loggedIn) {
+        SplittableRandom random = new SplittableRandom(index);
+        boolean counted = false;
+        try(CloseableHttpClient client = HttpClients.custom()
+                                                    .setDefaultCookieStore(new BasicCookieStore())
+                                                    .disableRedirectHandling()
+                                                    .build()) {
+            // spread logins over the ramp up, password hashing is limited by the hashing pool
+            Thread.sleep(settings.rampUp().toMillis() * index / settings.virtualUsers());
+            boolean ok = login(client, DataGenerator.username(index));
+            counted = true;
+            loggedIn.countDown();
+            if(!ok) {
+                return;
+            }
+
+            int saved = 0;
+            while (running) {
+                Response notes = execute(client, ClassicRequestBuilder.get(origin + "/notes/").build(), list);
+                if(notes == null) {
+                    continue;
+                }
+
+                List<String> uuids = new ArrayList<>();
+                Matcher matcher = NOTE_LINK.matcher(notes.body());
+                while (matcher.find()) {
+                    uuids.add(matcher.group(1));
+                }
+                if(uuids.isEmpty()) {
+                    // generated users far down the Zipf tail may have no notes
+                    continue;
+                }
+
+                String note = origin + "/notes/" + uuids.get(random.nextInt(uuids.size())) + "/";
+                if(execute(client, ClassicRequestBuilder.get(note).build(), view) == null ||
+                   execute(client, ClassicRequestBuilder.get(note + "edit").build(), editForm) == null) {
+                    continue;
+                }
+
+                ClassicHttpRequest post = ClassicRequestBuilder.post(note + "edit")
+                        .setEntity(new UrlEncodedFormEntity(List.of(
+                                new BasicNameValuePair("title", "Edited by load test " + saved++),
+                                new BasicNameValuePair("body", "Body written by virtual user " + index))))
+                        .build();
+                execute(client, post, save);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if(!counted) {
+                loggedIn.countDown();
+            }
+        }
+    }
+
+    private void run() throws InterruptedException {
+        CountDownLatch loggedIn = new CountDownLatch(settings.virtualUsers());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < settings.virtualUsers(); i++) {
+            int index = i;
+            Thread thread = new Thread(() -> virtualUser(index, loggedIn), "virtual-user-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+
+        loggedIn.await();
+        measuring = true;
+        long start = System.nanoTime();
+        Thread.sleep(settings.duration().toMillis());
+        measuring = false;
+        long elapsed = System.nanoTime() - start;
+
+        running = false;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        report(elapsed);
+    }
+
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%n%d virtual users for %.1f s, requests handled on %s%n", settings.virtualUsers(), seconds,
+                          settings.virtualThreads() && ConcurrencyUtil.isLoomAvailable() ? "virtual threads" : settings.serverThreads() + " platform threads");
+        System.out.printf("%-10s %9s %9s %8s %9s %9s %9s %9s%n",
+                          "step", "requests", "req/s", "errors", "p50 ms", "p95 ms", "p99 ms", "max ms");
+
+        long total = 0;
+        for (Step step : steps) {
+            LatencyHistogram latency = step.latency;
+            // logins happen before the measurement starts, their rate is not meaningful
+            String rate = step == login ? "-" : String.format("%.1f", latency.count() / seconds);
+            if(step != login) {
+                total += latency.count();
+            }
+            System.out.printf("%-10s %9d %9s %8d %9.2f %9.2f %9.2f %9.2f%n",
+                              step.name, latency.count(), rate, step.errors.sum(),
+                              latency.quantile(0.50) / 1e6, latency.quantile(0.95) / 1e6,
+                              latency.quantile(0.99) / 1e6, latency.maxNanos() / 1e6);
+        }
+        System.out.printf("Total %.1f requests/s%n", total / seconds);
+    }
+
+    public static void main(String[] args) throws SQLException, InterruptedException, IOException {
+        Settings settings = Settings.parse(args);
+
+        // a named in-memory database lives as long as the process, it is shared by the generator and the server
+        Config config = Config.testConfiguration("jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1");
+        config.setPoolAcquireWarning(Duration.ofMillis(100));
+        config.setVirtualThreads(settings.virtualThreads());
+        config.setServerThreads(settings.serverThreads());
+
+        // thousands of requests per second on standard output would slow down the server under test
+        Path accessLog = Files.createTempFile("loadtest-access", ".log");
+        config.setAccessLogFile(accessLog);
+        System.out.println("Access log: " + accessLog);
+
+        try(HikariDataSource pool = Database.createPool(config); Connection conn = pool.getConnection()) {
+            Main.createSchemaIfNotExists(conn);
+            new DataGenerator(settings.data()).generate(conn);
+            StatementCache.closeAll();
+        }
+
+        Javalin app = Main.javalin(config).start(0);
+        try {
+            new LoadTestHarness(settings, "http://localhost:" + app.port()).run();
+        } finally {
+            app.stop();
+        }
+    }
+}